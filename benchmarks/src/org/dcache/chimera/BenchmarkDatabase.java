@@ -0,0 +1,139 @@
+/*
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.chimera;
+
+import com.zaxxer.hikari.HikariDataSource;
+import liquibase.Liquibase;
+import liquibase.database.Database;
+import liquibase.database.DatabaseFactory;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.resource.ClassLoaderResourceAccessor;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * In-memory database provisioned with the chimera schema for benchmarking.
+ */
+class BenchmarkDatabase implements AutoCloseable {
+
+    private final HikariDataSource _dataSource;
+    private final JdbcFs _fs;
+
+    BenchmarkDatabase(String url, String user, String password) throws Exception {
+        _dataSource = FsFactory.getDataSource(url, user, password);
+
+        try (Connection conn = _dataSource.getConnection()) {
+            conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+
+            Database database = DatabaseFactory.getInstance().findCorrectDatabaseImplementation(new JdbcConnection(conn));
+            Liquibase liquibase = new Liquibase("org/dcache/chimera/changelog/changelog-master.xml",
+                    new ClassLoaderResourceAccessor(), database);
+            liquibase.update("");
+        }
+
+        _fs = new JdbcFs(_dataSource, new DataSourceTransactionManager(_dataSource));
+    }
+
+    static BenchmarkDatabase h2(String name) throws Exception {
+        return new BenchmarkDatabase("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1", "sa", "");
+    }
+
+    static BenchmarkDatabase hsqldb(String name) throws Exception {
+        return new BenchmarkDatabase("jdbc:hsqldb:mem:" + name, "sa", "");
+    }
+
+    /**
+     * @param backend one of {@code h2} or {@code hsqldb}
+     * @param name name of the in-memory database
+     */
+    static BenchmarkDatabase of(String backend, String name) throws Exception {
+        switch (backend) {
+        case "h2":
+            return h2(name);
+        case "hsqldb":
+            return hsqldb(name);
+        default:
+            throw new IllegalArgumentException("Unsupported backend: " + backend);
+        }
+    }
+
+    /**
+     * Populates {@code dir} with {@code count} empty files named {@code prefix0 ..
+     * prefixN}. Rows are inserted directly with batched statements, as going through
+     * {@link JdbcFs#createFile} is too slow for million entry directories. The link
+     * count of {@code dir} is not updated.
+     */
+    void populate(FsInode dir, String prefix, int count) throws SQLException {
+        final int batchSize = 1000;
+        try (Connection conn = _dataSource.getConnection();
+             PreparedStatement inode = conn.prepareStatement(
+                     "INSERT INTO t_inodes (ipnfsid,itype,imode,inlink,iuid,igid,isize,iio," +
+                     "ictime,iatime,imtime,icrtime,igeneration) VALUES(?,?,?,1,0,0,0,0,?,?,?,?,0)");
+             PreparedStatement entry = conn.prepareStatement(
+                     "INSERT INTO t_dirs (iparent,ichild,iname) " +
+                     "SELECT ?,inumber,? FROM t_inodes WHERE ipnfsid=?")) {
+            conn.setAutoCommit(false);
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+            String[] ids = new String[batchSize];
+            for (int i = 0; i < count; i += batchSize) {
+                int n = Math.min(batchSize, count - i);
+                for (int j = 0; j < n; j++) {
+                    ids[j] = InodeId.newID(0);
+                    inode.setString(1, ids[j]);
+                    inode.setInt(2, UnixPermission.S_IFREG);
+                    inode.setInt(3, 0644);
+                    inode.setTimestamp(4, now);
+                    inode.setTimestamp(5, now);
+                    inode.setTimestamp(6, now);
+                    inode.setTimestamp(7, now);
+                    inode.addBatch();
+                }
+                inode.executeBatch();
+                for (int j = 0; j < n; j++) {
+                    entry.setLong(1, dir.ino());
+                    entry.setString(2, prefix + (i + j));
+                    entry.setString(3, ids[j]);
+                    entry.addBatch();
+                }
+                entry.executeBatch();
+                conn.commit();
+            }
+        }
+    }
+
+    HikariDataSource getDataSource() {
+        return _dataSource;
+    }
+
+    JdbcFs getFs() {
+        return _fs;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try {
+            Connection conn = _dataSource.getConnection();
+            conn.createStatement().execute("SHUTDOWN");
+        } finally {
+            _dataSource.close();
+        }
+    }
+}
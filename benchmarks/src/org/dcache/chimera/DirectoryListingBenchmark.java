@@ -0,0 +1,78 @@
+/*
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.chimera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full listing of directories of different sizes with {@link JdbcFs#newDirectoryStream}.
+ * Allocation per operation divided by the number of entries gives the cost per entry.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class DirectoryListingBenchmark {
+
+    @Param({"h2", "hsqldb"})
+    public String backend;
+
+    @Param({"10", "10000", "1000000"})
+    public int entries;
+
+    private BenchmarkDatabase _db;
+    private FsInode _dir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        _db = BenchmarkDatabase.of(backend, "listing");
+        _dir = _db.getFs().mkdir("/dir");
+        _db.populate(_dir, "file", entries);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        _db.close();
+    }
+
+    @Benchmark
+    public void newDirectoryStream(Blackhole bh) throws Exception {
+        try (DirectoryStreamB<HimeraDirectoryEntry> stream = _db.getFs().newDirectoryStream(_dir)) {
+            for (HimeraDirectoryEntry entry : stream) {
+                bh.consume(entry.getName());
+                bh.consume(entry.getStat());
+            }
+        }
+    }
+}
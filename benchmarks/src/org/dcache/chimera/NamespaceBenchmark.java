@@ -0,0 +1,183 @@
+/*
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.chimera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import org.dcache.chimera.posix.Stat;
+
+import static org.dcache.chimera.FileSystemProvider.StatCacheOption.NO_STAT;
+import static org.dcache.chimera.FileSystemProvider.StatCacheOption.STAT;
+
+/**
+ * Single threaded throughput of the basic namespace operations of {@link JdbcFs}.
+ *
+ * Operations that create entries use a fresh directory per iteration, so that
+ * directory size stays comparable between iterations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NamespaceBenchmark {
+
+    @Param({"h2", "hsqldb"})
+    public String backend;
+
+    private BenchmarkDatabase _db;
+    private JdbcFs _fs;
+
+    /**
+     * Directory with {@link #LOOKUP_ENTRIES} files.
+     */
+    private FsInode _lookupDir;
+    private FsInode _file;
+
+    private FsInode _iterationDir;
+    private FsInode _renameDir;
+    private FsInode _locationFile;
+    private long _counter;
+    private boolean _renamed;
+
+    private static final int LOOKUP_ENTRIES = 1000;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        _db = BenchmarkDatabase.of(backend, "namespace");
+        _fs = _db.getFs();
+
+        _lookupDir = _fs.mkdir("/lookup");
+        _db.populate(_lookupDir, "file", LOOKUP_ENTRIES);
+        _file = _fs.createFile(_lookupDir, "target");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        _db.close();
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpIteration() throws Exception {
+        _iterationDir = _fs.mkdir("/iteration" + _counter++);
+        _renameDir = _fs.mkdir(_iterationDir, "rename");
+        _fs.createFile(_renameDir, "a");
+        _renamed = false;
+        _locationFile = _fs.createFile(_iterationDir, "locations");
+    }
+
+    @Benchmark
+    public FsInode createFile() throws ChimeraFsException {
+        return _fs.createFile(_iterationDir, "f" + _counter++);
+    }
+
+    @Benchmark
+    public FsInode mkdir() throws ChimeraFsException {
+        return _fs.mkdir(_iterationDir, "d" + _counter++);
+    }
+
+    /**
+     * Create and remove a file. The cost of remove alone is the difference
+     * to {@link #createFile()}.
+     */
+    @Benchmark
+    public void createAndRemove() throws ChimeraFsException {
+        String name = "r" + _counter++;
+        FsInode inode = _fs.createFile(_iterationDir, name);
+        _fs.remove(_iterationDir, name, inode);
+    }
+
+    @Benchmark
+    public FsInode inodeOf() throws ChimeraFsException {
+        return _fs.inodeOf(_lookupDir, "target", NO_STAT);
+    }
+
+    @Benchmark
+    public FsInode inodeOfWithStat() throws ChimeraFsException {
+        return _fs.inodeOf(_lookupDir, "target", STAT);
+    }
+
+    /**
+     * A directory chain of configurable depth below the root.
+     */
+    @State(Scope.Benchmark)
+    public static class DeepPath {
+
+        @Param({"1", "4", "16"})
+        public int depth;
+
+        private String _path;
+
+        @Setup(Level.Trial)
+        public void setUp(NamespaceBenchmark benchmark) throws ChimeraFsException {
+            StringBuilder path = new StringBuilder("/deep" + depth);
+            FsInode dir = benchmark._fs.mkdir(path.toString());
+            for (int i = 1; i < depth; i++) {
+                dir = benchmark._fs.mkdir(dir, "d" + i);
+                path.append("/d").append(i);
+            }
+            _path = path.toString();
+        }
+    }
+
+    @Benchmark
+    public FsInode path2inode(DeepPath deepPath) throws ChimeraFsException {
+        return _fs.path2inode(deepPath._path);
+    }
+
+    @Benchmark
+    public Stat stat() throws ChimeraFsException {
+        return _fs.stat(_file);
+    }
+
+    @Benchmark
+    public boolean rename() throws ChimeraFsException {
+        String from = _renamed ? "b" : "a";
+        String to = _renamed ? "a" : "b";
+        FsInode inode = _fs.inodeOf(_renameDir, from, NO_STAT);
+        _renamed = !_renamed;
+        return _fs.rename(inode, _renameDir, from, _renameDir, to);
+    }
+
+    @Benchmark
+    public void setInodeAttributes() throws ChimeraFsException {
+        Stat stat = new Stat();
+        stat.setMTime(System.currentTimeMillis());
+        stat.setSize(_counter++);
+        _fs.setInodeAttributes(_file, 0, stat);
+    }
+
+    @Benchmark
+    public void addInodeLocation() throws ChimeraFsException {
+        _fs.addInodeLocation(_locationFile, StorageGenericLocation.DISK, "pool" + _counter++);
+    }
+}
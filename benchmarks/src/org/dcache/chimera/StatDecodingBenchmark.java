@@ -0,0 +1,148 @@
+/*
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.chimera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.dcache.chimera.posix.Stat;
+import org.dcache.chimera.store.AccessLatency;
+import org.dcache.chimera.store.RetentionPolicy;
+
+/**
+ * Compares name based decoding of {@code t_inodes} rows with the index based
+ * {@link StatProjection} and measures directory listing. Run with {@code -prof gc}
+ * to see the allocation rate per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatDecodingBenchmark {
+
+    @Param({"1000"})
+    public int entries;
+
+    private BenchmarkDatabase _db;
+    private FsInode _dir;
+    private Connection _connection;
+    private PreparedStatement _statement;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        _db = BenchmarkDatabase.h2("decoding");
+        JdbcFs fs = _db.getFs();
+        _dir = fs.mkdir("/decoding");
+        for (int i = 0; i < entries; i++) {
+            fs.createFile(_dir, "file" + i);
+        }
+
+        _connection = _db.getDataSource().getConnection();
+        _statement = _connection.prepareStatement(
+                "SELECT " + StatProjection.FULL.columns("i") + ", d.iname FROM t_inodes i " +
+                "JOIN t_dirs d ON i.inumber = d.ichild WHERE d.iparent=?");
+        _statement.setLong(1, _dir.ino());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        _statement.close();
+        _connection.close();
+        _db.close();
+    }
+
+    @Benchmark
+    public void decodeByName(Blackhole bh) throws SQLException {
+        try (ResultSet rs = _statement.executeQuery()) {
+            while (rs.next()) {
+                bh.consume(toStatByName(rs));
+                bh.consume(rs.getString("iname"));
+            }
+        }
+    }
+
+    @Benchmark
+    public void decodeByIndex(Blackhole bh) throws SQLException {
+        int nameIndex = StatProjection.FULL.columnCount() + 1;
+        try (ResultSet rs = _statement.executeQuery()) {
+            while (rs.next()) {
+                bh.consume(StatProjection.FULL.decode(rs, 1));
+                bh.consume(rs.getString(nameIndex));
+            }
+        }
+    }
+
+    @Benchmark
+    public void listDirectory(Blackhole bh) throws Exception {
+        try (DirectoryStreamB<HimeraDirectoryEntry> stream = _db.getFs().newDirectoryStream(_dir)) {
+            for (HimeraDirectoryEntry entry : stream) {
+                bh.consume(entry.getName());
+                bh.consume(entry.getStat());
+            }
+        }
+    }
+
+    /**
+     * Row decoding as it was done before {@link StatProjection}.
+     */
+    private static Stat toStatByName(ResultSet rs) throws SQLException {
+        Stat stat = new Stat();
+        stat.setIno(rs.getLong("inumber"));
+        stat.setId(rs.getString("ipnfsid"));
+        stat.setCrTime(rs.getTimestamp("icrtime").getTime());
+        stat.setGeneration(rs.getLong("igeneration"));
+        int rp = rs.getInt("iretention_policy");
+        if (!rs.wasNull()) {
+            stat.setRetentionPolicy(RetentionPolicy.valueOf(rp));
+        }
+        int al = rs.getInt("iaccess_latency");
+        if (!rs.wasNull()) {
+            stat.setAccessLatency(AccessLatency.valueOf(al));
+        }
+        stat.setSize(rs.getLong("isize"));
+        stat.setATime(rs.getTimestamp("iatime").getTime());
+        stat.setCTime(rs.getTimestamp("ictime").getTime());
+        stat.setMTime(rs.getTimestamp("imtime").getTime());
+        stat.setUid(rs.getInt("iuid"));
+        stat.setGid(rs.getInt("igid"));
+        stat.setMode(rs.getInt("imode") | rs.getInt("itype"));
+        stat.setNlink(rs.getInt("inlink"));
+        stat.setDev(17);
+        stat.setRdev(13);
+        return stat;
+    }
+}
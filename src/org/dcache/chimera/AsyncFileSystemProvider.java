@@ -0,0 +1,271 @@
+/*
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.chimera;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dcache.chimera.posix.Stat;
+
+/**
+ * Asynchronous facade of a {@link FileSystemProvider}. Operations are executed
+ * on an executor and their results delivered through {@link CompletableFuture}s,
+ * so that callers are not blocked on the database.
+ *
+ * Any operation may be submitted with {@link #submit}; the most frequently used
+ * ones have shortcuts. At most {@code maxConcurrency} operations are executed
+ * at the same time, which should match the size of the connection pool, while
+ * others wait in a queue. When {@code maxOutstanding} operations are running or
+ * waiting, further operations are rejected with a {@link RejectedExecutionException}.
+ *
+ * Cancelling the future of a waiting operation removes it from the queue.
+ * Operations already running cannot be interrupted; their result is discarded.
+ *
+ * @Threadsafe
+ */
+public class AsyncFileSystemProvider implements Closeable {
+
+    private final FileSystemProvider _fs;
+    private final Executor _executor;
+    private final ExecutorService _ownExecutor;
+    private final int _maxConcurrency;
+    private final int _maxOutstanding;
+    private final Semaphore _outstanding;
+    private final Queue<Task<?>> _queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger _running = new AtomicInteger();
+    private volatile boolean _isClosed;
+
+    /**
+     * Create a facade executing operations on its own pool of
+     * {@code maxConcurrency} threads.
+     */
+    public AsyncFileSystemProvider(FileSystemProvider fs, int maxConcurrency, int maxOutstanding) {
+        this(fs, Executors.newFixedThreadPool(maxConcurrency,
+                new ThreadFactoryBuilder().setNameFormat("chimera-async-%d").setDaemon(true).build()),
+                maxConcurrency, maxOutstanding, true);
+    }
+
+    /**
+     * Create a facade executing operations on {@code executor}, e.g. one
+     * starting a virtual thread per task.
+     */
+    public AsyncFileSystemProvider(FileSystemProvider fs, Executor executor, int maxConcurrency, int maxOutstanding) {
+        this(fs, executor, maxConcurrency, maxOutstanding, false);
+    }
+
+    private AsyncFileSystemProvider(FileSystemProvider fs, Executor executor, int maxConcurrency,
+            int maxOutstanding, boolean isOwnExecutor) {
+        if (maxConcurrency < 1 || maxOutstanding < maxConcurrency) {
+            throw new IllegalArgumentException("Need 1 <= maxConcurrency <= maxOutstanding");
+        }
+        _fs = fs;
+        _executor = executor;
+        _ownExecutor = isOwnExecutor ? (ExecutorService) executor : null;
+        _maxConcurrency = maxConcurrency;
+        _maxOutstanding = maxOutstanding;
+        _outstanding = new Semaphore(maxOutstanding);
+    }
+
+    /**
+     * Execute {@code operation} asynchronously.
+     *
+     * @return future completed with the result of the operation, or exceptionally
+     * with a {@link RejectedExecutionException} if too many operations are outstanding
+     * or the facade is closed.
+     */
+    public <T> CompletableFuture<T> submit(Compound.Operation<T> operation) {
+        Task<T> task = new Task<>(operation);
+        if (_isClosed) {
+            task.completeExceptionally(new RejectedExecutionException("Closed"));
+            return task;
+        }
+        if (!_outstanding.tryAcquire()) {
+            task.completeExceptionally(new RejectedExecutionException("Too many outstanding operations"));
+            return task;
+        }
+        _queue.add(task);
+        dispatch();
+        return task;
+    }
+
+    /**
+     * @return number of operations being executed.
+     */
+    public int getRunning() {
+        return _running.get();
+    }
+
+    /**
+     * @return number of operations waiting for execution.
+     */
+    public int getQueued() {
+        return _queue.size();
+    }
+
+    /**
+     * Start queued operations while below the concurrency limit. Called whenever
+     * an operation is queued or completes, so that no operation is left behind.
+     */
+    private void dispatch() {
+        while (!_queue.isEmpty()) {
+            int running = _running.get();
+            if (running >= _maxConcurrency) {
+                return;
+            }
+            if (!_running.compareAndSet(running, running + 1)) {
+                continue;
+            }
+            Task<?> task = _queue.poll();
+            if (task == null) {
+                _running.decrementAndGet();
+                continue;
+            }
+            try {
+                _executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                _running.decrementAndGet();
+                _outstanding.release();
+                task.completeExceptionally(e);
+            }
+        }
+    }
+
+    private class Task<T> extends CompletableFuture<T> implements Runnable {
+
+        private final Compound.Operation<T> _operation;
+
+        Task(Compound.Operation<T> operation) {
+            _operation = operation;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean isCancelled = super.cancel(mayInterruptIfRunning);
+            if (isCancelled && _queue.remove(this)) {
+                _outstanding.release();
+            }
+            return isCancelled;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (!isDone()) {
+                    complete(_operation.execute(_fs));
+                }
+            } catch (Throwable t) {
+                completeExceptionally(t);
+            } finally {
+                _outstanding.release();
+                _running.decrementAndGet();
+                dispatch();
+            }
+        }
+    }
+
+    public CompletableFuture<FsInode> path2inode(String path) {
+        return submit(fs -> fs.path2inode(path));
+    }
+
+    public CompletableFuture<FsInode> inodeOf(FsInode parent, String name, FileSystemProvider.StatCacheOption stat) {
+        return submit(fs -> fs.inodeOf(parent, name, stat));
+    }
+
+    public CompletableFuture<Stat> stat(FsInode inode) {
+        return submit(fs -> fs.stat(inode));
+    }
+
+    public CompletableFuture<String[]> listDir(FsInode dir) {
+        return submit(fs -> fs.listDir(dir));
+    }
+
+    public CompletableFuture<FsInode> createFile(FsInode parent, String name, int owner, int group, int mode) {
+        return submit(fs -> fs.createFile(parent, name, owner, group, mode));
+    }
+
+    public CompletableFuture<FsInode> mkdir(FsInode parent, String name, int owner, int group, int mode) {
+        return submit(fs -> fs.mkdir(parent, name, owner, group, mode));
+    }
+
+    public CompletableFuture<Void> remove(FsInode directory, String name, FsInode inode) {
+        return submit(fs -> {
+            fs.remove(directory, name, inode);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Boolean> rename(FsInode inode, FsInode srcDir, String source, FsInode destDir, String dest) {
+        return submit(fs -> fs.rename(inode, srcDir, source, destDir, dest));
+    }
+
+    public CompletableFuture<Void> setInodeAttributes(FsInode inode, int level, Stat stat) {
+        return submit(fs -> {
+            fs.setInodeAttributes(inode, level, stat);
+            return null;
+        });
+    }
+
+    public CompletableFuture<List<StorageLocatable>> getInodeLocations(FsInode inode) {
+        return submit(fs -> fs.getInodeLocations(inode));
+    }
+
+    public CompletableFuture<Void> addInodeLocation(FsInode inode, int type, String location) {
+        return submit(fs -> {
+            fs.addInodeLocation(inode, type, location);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Map<String, byte[]>> getAllTags(FsInode inode) {
+        return submit(fs -> fs.getAllTags(inode));
+    }
+
+    public CompletableFuture<Void> execute(Compound compound) {
+        return submit(fs -> {
+            fs.execute(compound);
+            return null;
+        });
+    }
+
+    /**
+     * Reject further operations, wait for those already submitted to complete
+     * and shut down the executor, if created by this facade.
+     */
+    @Override
+    public synchronized void close() {
+        if (_isClosed) {
+            return;
+        }
+        _isClosed = true;
+        _outstanding.acquireUninterruptibly(_maxOutstanding);
+        if (_ownExecutor != null) {
+            _ownExecutor.shutdown();
+        }
+    }
+}
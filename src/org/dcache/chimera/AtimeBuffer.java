@@ -0,0 +1,57 @@
+/*
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.chimera;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Buffer of pending access time updates, keeping only the latest access
+ * time of each inode.
+ *
+ * @Threadsafe
+ */
+class AtimeBuffer {
+
+    private final ConcurrentMap<Long, Long> _atimes = new ConcurrentHashMap<>();
+
+    void record(long ino, long atime) {
+        _atimes.merge(ino, atime, Math::max);
+    }
+
+    int size() {
+        return _atimes.size();
+    }
+
+    /**
+     * Remove and return all pending updates. Updates recorded concurrently
+     * are either returned or kept for the next call.
+     *
+     * @return access time by inode number
+     */
+    Map<Long, Long> drain() {
+        Map<Long, Long> atimes = new HashMap<>();
+        _atimes.forEach((ino, atime) -> {
+            if (_atimes.remove(ino, atime)) {
+                atimes.put(ino, atime);
+            }
+        });
+        return atimes;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.chimera;
+
+/**
+ * Policy for updates of the access time of files, i.e. of
+ * {@link FileSystemProvider#setInodeAttributes} calls which only change ATIME.
+ *
+ * Except with {@link #STRICT}, access time updates neither change the
+ * generation nor the change time of an inode and never move the access time
+ * backwards.
+ */
+public enum AtimePolicy {
+
+    /**
+     * Every access time update is applied like any other attribute update.
+     */
+    STRICT,
+
+    /**
+     * As the Linux relatime mount option: the access time is only updated if
+     * it is not newer than the modification or change time, or if it is more
+     * than a day old.
+     */
+    RELATIME,
+
+    /**
+     * Access time updates are buffered, coalesced per inode and written in
+     * batches at a fixed interval.
+     */
+    COARSE,
+
+    /**
+     * Access time updates are dropped.
+     */
+    OFF
+}
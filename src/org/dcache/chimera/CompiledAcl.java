@@ -0,0 +1,184 @@
+/*
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.chimera;
+
+import java.util.List;
+
+import org.dcache.acl.ACE;
+import org.dcache.acl.enums.AccessMask;
+import org.dcache.acl.enums.AceFlags;
+import org.dcache.acl.enums.AceType;
+import org.dcache.acl.enums.Who;
+import org.dcache.chimera.posix.Stat;
+import org.dcache.chimera.posix.UnixUser;
+
+/**
+ * The ACL and mode of an inode compiled into flat arrays, so that access
+ * checks run without allocations.
+ *
+ * The ACEs are evaluated in order: the first ACE matching the user decides
+ * each of the requested access bits it covers, and a matching deny ACE
+ * rejects the request. Bits left undecided by the ACL are checked against
+ * the POSIX mode of the inode. Root is granted all access.
+ *
+ * @Immutable
+ */
+class CompiledAcl {
+
+    static final CompiledAcl EMPTY = new CompiledAcl(new boolean[0], new Who[0], new int[0], new int[0]);
+
+    /**
+     * Access granted independently of the mode.
+     */
+    private static final int ALWAYS = AccessMask.READ_ATTRIBUTES.getValue()
+            | AccessMask.READ_ACL.getValue()
+            | AccessMask.SYNCHRONIZE.getValue();
+
+    /**
+     * Access granted to the owner.
+     */
+    private static final int OWNER_ACCESS = AccessMask.WRITE_ATTRIBUTES.getValue()
+            | AccessMask.WRITE_ACL.getValue();
+
+    /**
+     * Access granted by the read, write and execute bits of the mode.
+     */
+    private static final int READ = AccessMask.READ_DATA.getValue()
+            | AccessMask.READ_NAMED_ATTRS.getValue();
+    private static final int WRITE = AccessMask.WRITE_DATA.getValue()
+            | AccessMask.APPEND_DATA.getValue()
+            | AccessMask.WRITE_NAMED_ATTRS.getValue()
+            | AccessMask.DELETE_CHILD.getValue();
+    private static final int EXECUTE = AccessMask.EXECUTE.getValue();
+
+    private final boolean[] _deny;
+    private final Who[] _who;
+    private final int[] _whoId;
+    private final int[] _mask;
+
+    private CompiledAcl(boolean[] deny, Who[] who, int[] whoId, int[] mask) {
+        _deny = deny;
+        _who = who;
+        _whoId = whoId;
+        _mask = mask;
+    }
+
+    /**
+     * Compiles {@code acl}. Inherit-only ACEs do not apply to the inode and
+     * are dropped.
+     */
+    static CompiledAcl of(List<ACE> acl) {
+        int n = 0;
+        for (ACE ace : acl) {
+            if ((ace.getFlags() & AceFlags.INHERIT_ONLY_ACE.getValue()) == 0) {
+                n++;
+            }
+        }
+        if (n == 0) {
+            return EMPTY;
+        }
+
+        boolean[] deny = new boolean[n];
+        Who[] who = new Who[n];
+        int[] whoId = new int[n];
+        int[] mask = new int[n];
+        int i = 0;
+        for (ACE ace : acl) {
+            if ((ace.getFlags() & AceFlags.INHERIT_ONLY_ACE.getValue()) == 0) {
+                deny[i] = ace.getType() == AceType.ACCESS_DENIED_ACE_TYPE;
+                who[i] = ace.getWho();
+                whoId[i] = ace.getWhoID();
+                mask[i] = ace.getAccessMsk();
+                i++;
+            }
+        }
+        return new CompiledAcl(deny, who, whoId, mask);
+    }
+
+    /**
+     * @param user the user requesting access
+     * @param stat stat of the inode
+     * @param access requested {@link AccessMask} bits
+     * @return true if all of {@code access} is granted to {@code user}
+     */
+    boolean canAccess(UnixUser user, Stat stat, int access) {
+        int uid = user.getUID();
+        if (uid == 0) {
+            return true;
+        }
+
+        int undecided = access;
+        for (int i = 0; i < _mask.length && undecided != 0; i++) {
+            int bits = _mask[i] & undecided;
+            if (bits != 0 && matches(_who[i], _whoId[i], user, stat)) {
+                if (_deny[i]) {
+                    return false;
+                }
+                undecided &= ~bits;
+            }
+        }
+        return (undecided & ~granted(user, stat)) == 0;
+    }
+
+    private static boolean matches(Who who, int whoId, UnixUser user, Stat stat) {
+        switch (who) {
+        case USER:
+            return user.getUID() == whoId;
+        case GROUP:
+            return user.isMemberOf(whoId);
+        case OWNER:
+            return user.getUID() == stat.getUid();
+        case OWNER_GROUP:
+            return user.isMemberOf(stat.getGid());
+        case EVERYONE:
+        case AUTHENTICATED:
+            return true;
+        case ANONYMOUS:
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Returns the access granted to {@code user} by the mode of the inode.
+     * Deleting an entry is controlled by the parent directory, thus
+     * {@link AccessMask#DELETE} is never granted by the mode.
+     */
+    private static int granted(UnixUser user, Stat stat) {
+        int mode = stat.getMode();
+        int granted = ALWAYS;
+        int perms;
+        if (user.getUID() == stat.getUid()) {
+            granted |= OWNER_ACCESS;
+            perms = mode >> 6;
+        } else if (user.isMemberOf(stat.getGid())) {
+            perms = mode >> 3;
+        } else {
+            perms = mode;
+        }
+        if ((perms & UnixPermission.S_IROTH) != 0) {
+            granted |= READ;
+        }
+        if ((perms & UnixPermission.S_IWOTH) != 0) {
+            granted |= WRITE;
+        }
+        if ((perms & UnixPermission.S_IXOTH) != 0) {
+            granted |= EXECUTE;
+        }
+        return granted;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.chimera;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A sequence of file system operations executed in a single transaction by
+ * {@link FileSystemProvider#execute(Compound)}, similar to an NFSv4 COMPOUND.
+ *
+ * Each operation added to the compound returns a {@link Result} which later
+ * operations may use to refer to the outcome of the earlier one:
+ *
+ * <pre>
+ *     Compound compound = new Compound();
+ *     Compound.Result&lt;FsInode&gt; dir = compound.add(fs -&gt; fs.path2inode("/data"));
+ *     Compound.Result&lt;FsInode&gt; file = compound.add(fs -&gt; fs.createFile(dir.get(), "file"));
+ *     compound.add(fs -&gt; { fs.addInodeLocation(file.get(), StorageGenericLocation.DISK, "pool"); return null; });
+ *     fs.execute(compound);
+ * </pre>
+ *
+ * The operations are executed in order. The first failing operation aborts the
+ * compound and rolls back all operations executed before it. A compound may be
+ * executed more than once, e.g. when the transaction is retried; the results
+ * are those of the last execution.
+ *
+ * @NotThreadSafe
+ */
+public class Compound {
+
+    @FunctionalInterface
+    public interface Operation<T> {
+        T execute(FileSystemProvider fs) throws ChimeraFsException;
+    }
+
+    /**
+     * Result of an operation of a compound.
+     */
+    public static class Result<T> {
+
+        private final Operation<T> _operation;
+        private T _value;
+        private boolean _isDone;
+
+        private Result(Operation<T> operation) {
+            _operation = operation;
+        }
+
+        private void execute(FileSystemProvider fs) throws ChimeraFsException {
+            _value = _operation.execute(fs);
+            _isDone = true;
+        }
+
+        private void reset() {
+            _value = null;
+            _isDone = false;
+        }
+
+        /**
+         * @return true if the operation has been executed.
+         */
+        public boolean isDone() {
+            return _isDone;
+        }
+
+        /**
+         * @return value returned by the operation
+         * @throws IllegalStateException if the operation has not been executed yet
+         */
+        public T get() {
+            if (!_isDone) {
+                throw new IllegalStateException("Operation has not been executed yet");
+            }
+            return _value;
+        }
+    }
+
+    private final List<Result<?>> _results = new ArrayList<>();
+
+    /**
+     * Append an operation to this compound.
+     *
+     * @return result of the operation, available once executed
+     */
+    public <T> Result<T> add(Operation<T> operation) {
+        Result<T> result = new Result<>(operation);
+        _results.add(result);
+        return result;
+    }
+
+    public int size() {
+        return _results.size();
+    }
+
+    /**
+     * Execute all operations in order. Must be called within a transaction.
+     */
+    void execute(FileSystemProvider fs) throws ChimeraFsException {
+        for (Result<?> result : _results) {
+            result.reset();
+        }
+        for (Result<?> result : _results) {
+            result.execute(fs);
+        }
+    }
+}
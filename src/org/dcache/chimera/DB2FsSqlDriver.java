@@ -21,6 +21,7 @@ import org.slf4j.LoggerFactory;
 
 import javax.sql.DataSource;
 
+import java.sql.SQLException;
 import java.util.EnumSet;
 
 import org.dcache.acl.enums.AceFlags;
@@ -49,6 +50,13 @@ class DB2FsSqlDriver extends FsSqlDriver {
         // TODO: db2 needs some other solution
     }
 
+    @Override
+    String ancestorsQuery(String in) {
+        /* DB2 does not know the RECURSIVE keyword.
+         */
+        return super.ancestorsQuery(in).replaceFirst("^WITH RECURSIVE ", "WITH ");
+    }
+
     @Override
     void copyAcl(FsInode source, FsInode inode, RsType type, EnumSet<AceFlags> mask, EnumSet<AceFlags> flags) {
         int msk = mask.stream().mapToInt(AceFlags::getValue).reduce(0, (a, b) -> a | b);
@@ -64,4 +72,11 @@ class DB2FsSqlDriver extends FsSqlDriver {
                          ps.setInt(5, flgs);
                      });
     }
+
+    @Override
+    public boolean isTransientError(SQLException e) {
+        /* SQLCODE -911 is reported as 40001, -913 as 57033.
+         */
+        return super.isTransientError(e) || "57033".equals(e.getSQLState());
+    }
 }
@@ -17,7 +17,6 @@
 package org.dcache.chimera;
 
 import org.springframework.dao.DataAccessException;
-import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.datasource.DataSourceUtils;
 import org.springframework.jdbc.support.JdbcUtils;
 
@@ -29,19 +28,22 @@ import java.sql.SQLException;
 
 public class DirectoryStreamImpl
 {
+    /**
+     * Each row holds the columns of {@link StatProjection#FULL} followed by the entry name.
+     */
     private static final String QUERY =
-            "SELECT i.*, d.iname FROM t_inodes i JOIN t_dirs d ON i.inumber = d.ichild WHERE d.iparent=? " +
+            "SELECT " + StatProjection.FULL.columns("i") + ", d.iname FROM t_inodes i JOIN t_dirs d ON i.inumber = d.ichild WHERE d.iparent=? " +
             "UNION ALL " +
-            "SELECT i.*, '.' FROM t_inodes i WHERE i.inumber=? " +
+            "SELECT " + StatProjection.FULL.columns("i") + ", '.' FROM t_inodes i WHERE i.inumber=? " +
             "UNION ALL " +
-            "SELECT i.*, '..' FROM t_inodes i JOIN t_dirs d ON i.inumber = d.iparent WHERE d.ichild=?";
+            "SELECT " + StatProjection.FULL.columns("i") + ", '..' FROM t_inodes i JOIN t_dirs d ON i.inumber = d.iparent WHERE d.ichild=?";
 
     private final ResultSet _resultSet;
-    private final JdbcTemplate _jdbc;
+    private final ProfilingJdbcTemplate _jdbc;
     private final Connection _connection;
     private final PreparedStatement _statement;
 
-    DirectoryStreamImpl(FsInode dir, JdbcTemplate jdbc)
+    DirectoryStreamImpl(FsInode dir, ProfilingJdbcTemplate jdbc)
     {
         _jdbc = jdbc;
 
@@ -50,7 +52,7 @@ public class DirectoryStreamImpl
         ResultSet rs;
         try {
             connection = DataSourceUtils.getConnection(_jdbc.getDataSource());
-            ps = connection.prepareStatement(QUERY);
+            ps = _jdbc.profiled(connection).prepareStatement(QUERY);
             ps.setFetchSize(50);
             ps.setLong(1, dir.ino());
             ps.setLong(2, dir.ino());
@@ -0,0 +1,66 @@
+/*
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.chimera;
+
+import org.dcache.chimera.posix.Stat;
+
+/**
+ * A tag of a directory, i.e. an entry of {@code t_tags} together with its
+ * tag inode.
+ *
+ * @Immutable
+ */
+class DirectoryTag {
+
+    private final long _id;
+    private final Stat _stat;
+    private final byte[] _value;
+
+    DirectoryTag(long id, Stat stat, byte[] value) {
+        _id = id;
+        _stat = stat;
+        _value = value;
+    }
+
+    /**
+     * @return this tag as inherited by directory {@code dir}
+     */
+    DirectoryTag inheritedBy(FsInode dir) {
+        Stat stat = new Stat(_stat);
+        stat.setIno(dir.ino());
+        return new DirectoryTag(_id, stat, _value);
+    }
+
+    long id() {
+        return _id;
+    }
+
+    /**
+     * @return a copy of the stat of the tag inode
+     */
+    Stat stat() {
+        return new Stat(_stat);
+    }
+
+    /**
+     * @return the value of the tag, or null if the value was never set. The
+     * returned array must not be modified.
+     */
+    byte[] value() {
+        return _value;
+    }
+}
@@ -17,8 +17,11 @@
 package org.dcache.chimera;
 
 import java.io.Closeable;
+import java.util.Collection;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 import java.util.Set;
 
 import org.dcache.acl.ACE;
@@ -110,6 +113,27 @@ public interface FileSystemProvider extends Closeable {
     Stat stat(FsInode inode, int level)
             throws ChimeraFsException;
 
+    /**
+     * Get a subset of inode's attributes. Only the requested attributes are
+     * fetched and defined in the returned {@link Stat}.
+     *
+     * @param inode
+     * @param attributes attributes to fetch
+     * @return stat with requested attributes defined
+     * @throws ChimeraFsException
+     */
+    Stat stat(FsInode inode, EnumSet<Stat.StatAttributes> attributes)
+            throws ChimeraFsException;
+
+    /**
+     * Get the attributes of many inodes at once.
+     *
+     * @param inodes
+     * @return stat of each existing inode; inodes which do not exist are omitted
+     * @throws ChimeraFsException
+     */
+    Map<FsInode, Stat> stat(Collection<FsInode> inodes) throws ChimeraFsException;
+
     FsInode mkdir(String path) throws ChimeraFsException;
 
     FsInode mkdir(FsInode parent, String name)
@@ -203,6 +227,21 @@ public interface FileSystemProvider extends Closeable {
     void setInodeAttributes(FsInode inode, int level, Stat stat)
             throws ChimeraFsException;
 
+    /**
+     * Update attributes of an inode only if it was not modified since its
+     * generation was {@code expectedGeneration}. Allows read-modify-write
+     * sequences without holding a lock between read and write.
+     *
+     * @param inode
+     * @param stat attributes to update
+     * @param expectedGeneration generation of the inode when read
+     * @return the new generation of the inode
+     * @throws GenerationMismatchChimeraFsException if the inode was modified concurrently
+     * @throws ChimeraFsException
+     */
+    long setInodeAttributes(FsInode inode, Stat stat, long expectedGeneration)
+            throws ChimeraFsException;
+
     void setInodeIo(FsInode inode, boolean enable)
             throws ChimeraFsException;
 
@@ -243,6 +282,33 @@ public interface FileSystemProvider extends Closeable {
     List<StorageLocatable> getInodeLocations(FsInode inode)
             throws ChimeraFsException;
 
+    /**
+     * Get the preferred online location of type {@code type} of the inode:
+     * the one with the highest priority and, among those of equal priority,
+     * the most recently accessed.
+     *
+     * @param inode
+     * @param type
+     * @return the location, or null if the inode has no online location of that type
+     * @throws ChimeraFsException
+     */
+    StorageLocatable getBestInodeLocation(FsInode inode, int type)
+            throws ChimeraFsException;
+
+    /**
+     * Get all inodes having a location {@code location} of type {@code type},
+     * in order of inode number. The inodes are fetched page by page while the
+     * stream is consumed, thus arbitrarily large results can be processed
+     * incrementally. Errors while fetching a page are thrown as
+     * {@link java.io.UncheckedIOException}.
+     *
+     * @param type location type
+     * @param location the location, e.g. a pool name
+     * @param stat whether the inodes are returned with their stat
+     * @return stream of inodes
+     */
+    Stream<FsInode> getInodesAtLocation(int type, String location, StatCacheOption stat);
+
     void addInodeLocation(FsInode inode, int type,
                           String location) throws ChimeraFsException;
 
@@ -253,6 +319,15 @@ public interface FileSystemProvider extends Closeable {
 
     Map<String, byte[]> getAllTags(FsInode inode) throws ChimeraFsException;
 
+    /**
+     * Get the tags of many directories at once.
+     *
+     * @param inodes directories
+     * @return the values of set tags of each directory
+     * @throws ChimeraFsException
+     */
+    Map<FsInode, Map<String, byte[]>> getAllTags(Collection<FsInode> inodes) throws ChimeraFsException;
+
     void createTag(FsInode inode, String name)
             throws ChimeraFsException;
 
@@ -262,6 +337,19 @@ public interface FileSystemProvider extends Closeable {
     int setTag(FsInode inode, String tagName, byte[] data,
                int offset, int len) throws ChimeraFsException;
 
+    /**
+     * Set the value of tag {@code tagName} of directory {@code dir} and of all
+     * directories of the subtree below which inherit the tag. Directories
+     * owning their own copy of the tag, and their subtrees, are not changed.
+     * A large subtree may be updated in several transactions.
+     *
+     * @param dir top directory of the subtree
+     * @param tagName name of the tag
+     * @param value new value of the tag
+     * @throws ChimeraFsException
+     */
+    void setTagRecursive(FsInode dir, String tagName, byte[] value) throws ChimeraFsException;
+
     void removeTag(FsInode dir, String tagName)
             throws ChimeraFsException;
 
@@ -287,6 +375,17 @@ public interface FileSystemProvider extends Closeable {
     InodeStorageInformation getStorageInfo(FsInode inode)
             throws ChimeraFsException;
 
+    /**
+     * Get the storage information of new files in directory {@code dir} as
+     * derived from the tags of the directory.
+     *
+     * @param dir directory
+     * @return storage information, or null if the tags do not define one
+     * @throws ChimeraFsException
+     */
+    InodeStorageInformation getEffectiveStorageInfo(FsInode dir)
+            throws ChimeraFsException;
+
     void setInodeChecksum(FsInode inode, int type,
                           String checksum) throws ChimeraFsException;
 
@@ -313,6 +412,14 @@ public interface FileSystemProvider extends Closeable {
      */
     List<ACE> getACL(FsInode inode) throws ChimeraFsException;
 
+    /**
+     * Get the Access Control Lists of many inodes at once.
+     * @param inodes
+     * @return ordered list of {@link ACE} of each inode.
+     * @throws ChimeraFsException
+     */
+    Map<FsInode, List<ACE>> getACL(Collection<FsInode> inodes) throws ChimeraFsException;
+
     /**
      * Set Access Control Entries list for specified inode.
      * @param inode
@@ -345,6 +452,17 @@ public interface FileSystemProvider extends Closeable {
      */
     String getFileLocality(FsInode_PLOC node) throws ChimeraFsException;
 
+    /**
+     * Get the content of magic file {@code inode}. The content is computed by
+     * {@code loader}, unless a cached value may be used.
+     *
+     * @param inode magic file
+     * @param loader computes the content
+     * @return content of the file, must not be modified
+     * @throws ChimeraFsException
+     */
+    byte[] getMagicValue(FsInode inode, MagicValueCache.Loader loader) throws ChimeraFsException;
+
     /**
      * Implementation-specific.  Can be NOP.
      *
@@ -362,6 +480,15 @@ public interface FileSystemProvider extends Closeable {
      */
     void unpin(FsInode inode) throws ChimeraFsException;
 
+    /**
+     * Execute the operations of {@code compound} in a single transaction.
+     * Either all operations succeed or none takes effect.
+     *
+     * @param compound operations to execute
+     * @throws ChimeraFsException thrown by the first failing operation
+     */
+    void execute(Compound compound) throws ChimeraFsException;
+
     enum StatCacheOption
     {
         STAT, NO_STAT
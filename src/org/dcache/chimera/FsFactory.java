@@ -18,7 +18,10 @@ package org.dcache.chimera;
 
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
 import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import org.dcache.chimera.metrics.ConnectionPoolMetrics;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.transaction.PlatformTransactionManager;
 
@@ -34,14 +37,70 @@ public class FsFactory
         return new JdbcFs(dataSource, txManager);
     }
 
+    public static FileSystemProvider createFileSystem(String url, String user, String password, PoolConfiguration poolConfiguration)
+            throws ChimeraFsException, SQLException
+    {
+        ConnectionPoolMetrics metrics = new ConnectionPoolMetrics();
+        DataSource dataSource = getDataSource(url, user, password, poolConfiguration, metrics);
+        PlatformTransactionManager txManager =  new DataSourceTransactionManager(dataSource);
+        JdbcFs fs = new JdbcFs(dataSource, txManager);
+        fs.getMetrics().setConnectionPoolMetrics(metrics);
+        return fs;
+    }
+
     public static HikariDataSource getDataSource(String url, String user, String pass)
+    {
+        PoolConfiguration poolConfiguration = new PoolConfiguration();
+        return getPool(url, user, pass, poolConfiguration, poolConfiguration.getName(),
+                poolConfiguration.getMaximumPoolSize(), null);
+    }
+
+    /**
+     * Create the connection pools described by {@code poolConfiguration}.
+     *
+     * @param metrics receives connection wait times of all pools, may be null
+     * @return data source routing each workload to its pool
+     */
+    public static RoutingDataSource getDataSource(String url, String user, String pass,
+            PoolConfiguration poolConfiguration, ConnectionPoolMetrics metrics)
+    {
+        String name = poolConfiguration.getName();
+        String replicaUrl = poolConfiguration.getReplicaUrl();
+        String readUrl = replicaUrl == null ? url : replicaUrl;
+        int readPoolSize = poolConfiguration.getReadPoolSize();
+        if (readPoolSize == 0 && replicaUrl != null) {
+            readPoolSize = poolConfiguration.getMaximumPoolSize();
+        }
+
+        HikariDataSource write = getPool(url, user, pass, poolConfiguration, name + "-write",
+                poolConfiguration.getMaximumPoolSize(), metrics);
+        HikariDataSource read = readPoolSize > 0
+                ? getPool(readUrl, user, pass, poolConfiguration, name + "-read",
+                        readPoolSize, metrics)
+                : null;
+        HikariDataSource scan = poolConfiguration.getScanPoolSize() > 0
+                ? getPool(readUrl, user, pass, poolConfiguration, name + "-scan",
+                        poolConfiguration.getScanPoolSize(), metrics)
+                : replicaUrl == null ? null : read;
+        RoutingDataSource dataSource = new RoutingDataSource(write, read, scan);
+        dataSource.setPinWindow(poolConfiguration.getPinWindow(), TimeUnit.MILLISECONDS);
+        return dataSource;
+    }
+
+    private static HikariDataSource getPool(String url, String user, String pass,
+            PoolConfiguration poolConfiguration, String name, int size, MetricsTrackerFactory metrics)
     {
         HikariConfig config = new HikariConfig();
+        config.setPoolName(name);
         config.setJdbcUrl(url);
         config.setUsername(user);
         config.setPassword(pass);
-        config.setMaximumPoolSize(3);
-        config.setMinimumIdle(0);
+        config.setMaximumPoolSize(size);
+        config.setMinimumIdle(Math.min(poolConfiguration.getMinimumIdle(), size));
+        config.setConnectionTimeout(poolConfiguration.getConnectionTimeout());
+        if (metrics != null) {
+            config.setMetricsTrackerFactory(metrics);
+        }
         return new HikariDataSource(config);
     }
 }
@@ -25,6 +25,7 @@ import java.util.Map;
 import org.dcache.acl.ACE;
 import org.dcache.chimera.posix.Stat;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static org.dcache.chimera.FileSystemProvider.StatCacheOption.STAT;
 
 /**
@@ -46,6 +47,11 @@ public class FsInode {
      * inode posix stat Object
      */
     private Stat _stat;
+    /**
+     * compiled ACL of the inode and the stat it was compiled with
+     */
+    private CompiledAcl _compiledAcl;
+    private Stat _compiledAclStat;
     /**
      * parent inode. In case of hard links, one of the
      * possible parents.
@@ -140,6 +146,26 @@ public class FsInode {
         return _type;
     }
 
+    /**
+     * Version of the binary handle format. Legacy handles store the size of
+     * the inode number (8) in the third byte; versioned handles store the
+     * version with {@link #HANDLE_VERSION_FLAG} set.
+     */
+    static final int HANDLE_VERSION = 1;
+    static final int HANDLE_VERSION_FLAG = 0x80;
+
+    /**
+     * Size of the fixed part of a versioned handle.
+     */
+    static final int HANDLE_HEADER_LEN = 1 + 1 + 1 + Long.BYTES + 1 + 1;
+
+    /**
+     * Maximal length of the type specific data of a file handle.
+     */
+    static final int MAX_OPAQUE_LEN = 0xFF;
+
+    private static final byte[] NO_OPAQUE = new byte[0];
+
     /**
      * A helper method to generate the base part of identifier.
      *
@@ -151,17 +177,20 @@ public class FsInode {
          * allocate array with a correct number of bytes:
          *    1 - fs is
          *    1 - inode type
-         *    1 - number of bytes in ino, for compatibility
+         *    1 - handle version
          *    8 - ino,
+         *    1 - level
          *    1 - size of type specific data
          *    opaque.len - opaque data
          */
-        byte[] bytes = new byte[1 + 1 + 1 + Long.BYTES + 1 + opaque.length];
+        checkArgument(opaque.length <= MAX_OPAQUE_LEN, "File handle data too long: %s bytes", opaque.length);
+        byte[] bytes = new byte[HANDLE_HEADER_LEN + opaque.length];
         ByteBuffer b = ByteBuffer.wrap(bytes);
         b.put((byte) _fs.getFsId())
                 .put((byte) _type.getType())
-                .put((byte)Long.BYTES) // set the file id size to be compatible with old format
-                .putLong(_ino);
+                .put((byte) (HANDLE_VERSION_FLAG | HANDLE_VERSION))
+                .putLong(_ino)
+                .put((byte) _level);
 
         b.put((byte) opaque.length);
         b.put(opaque);
@@ -173,7 +202,7 @@ public class FsInode {
      * @return a byte[] representation of inode, including type and fsid
      */
     public byte[] getIdentifier() {
-        return byteBase( Integer.toString(_level).getBytes());
+        return byteBase(NO_OPAQUE);
     }
 
     /**
@@ -381,6 +410,22 @@ public class FsInode {
         _stat = predefinedStat;
     }
 
+    /**
+     * @return the compiled ACL cached with the current stat, or null
+     */
+    CompiledAcl getCompiledAcl() {
+        return _compiledAclStat != null && _compiledAclStat == _stat ? _compiledAcl : null;
+    }
+
+    /**
+     * Caches {@code acl} with the current stat. The compiled ACL is dropped
+     * whenever the cached stat is refreshed or invalidated.
+     */
+    void setCompiledAcl(CompiledAcl acl) {
+        _compiledAcl = acl;
+        _compiledAclStat = acl == null ? null : _stat;
+    }
+
     //  for use in Collections
     // Override from Object
     @Override
@@ -33,7 +33,7 @@ public class FsInode_PATHOF extends FsInode {
 
         if (_path == null) {
             try {
-                _path = (_fs.inode2path(this)+'\n').getBytes(StandardCharsets.UTF_8);
+                _path = path();
             } catch (ChimeraFsException e) {
                 return -1;
             }
@@ -58,13 +58,17 @@ public class FsInode_PATHOF extends FsInode {
         Stat ret = super.stat();
         ret.setMode((ret.getMode() & 0000777) | UnixPermission.S_IFREG);
         if (_path == null) {
-            _path = (_fs.inode2path(this)+'\n').getBytes(StandardCharsets.UTF_8);
+            _path = path();
         }
 
         ret.setSize(_path.length);
         return ret;
     }
 
+    private byte[] path() throws ChimeraFsException {
+        return _fs.getMagicValue(this, () -> (_fs.inode2path(this) + '\n').getBytes(StandardCharsets.UTF_8));
+    }
+
     @Override
     public int write(long pos, byte[] data, int offset, int len) {
         return -1;
@@ -16,6 +16,8 @@
  */
 package org.dcache.chimera;
 
+import java.nio.charset.StandardCharsets;
+
 import org.dcache.chimera.posix.Stat;
 
 /**
@@ -33,16 +35,14 @@ public abstract class FsInode_PGET extends FsInode {
 
     @Override
     public int read(long pos, byte[] data, int offset, int len) {
-        String value;
+        byte[] b;
 
         try {
-            value = value();
+            b = content();
         } catch (ChimeraFsException e) {
-            value = "";
+            b = new byte[0];
         }
 
-        byte[] b = value.getBytes();
-
         if (pos > b.length) {
             return 0;
         }
@@ -57,12 +57,19 @@ public abstract class FsInode_PGET extends FsInode {
     public Stat stat() throws ChimeraFsException {
         Stat ret = super.stat();
         ret.setMode((ret.getMode() & 0000777) | UnixPermission.S_IFREG);
-        ret.setSize(value().length());
+        ret.setSize(content().length);
         // invalidate NFS cache
         ret.setMTime(System.currentTimeMillis());
         return ret;
     }
 
+    /**
+     * The value as returned by {@link #read}, possibly cached by the file system.
+     */
+    private byte[] content() throws ChimeraFsException {
+        return _fs.getMagicValue(this, () -> value().getBytes(StandardCharsets.UTF_8));
+    }
+
     @Override
     public int write(long pos, byte[] data, int offset, int len) {
         return -1;
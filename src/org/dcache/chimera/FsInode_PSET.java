@@ -18,11 +18,14 @@ package org.dcache.chimera;
 
 import com.google.common.base.Charsets;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
 
 import org.dcache.chimera.posix.Stat;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 public class FsInode_PSET extends FsInode {
     private static final String SIZE = "size";
     private static final String IO = "io";
@@ -95,13 +98,21 @@ public class FsInode_PSET extends FsInode {
 
     @Override
     public byte[] getIdentifier() {
-        StringBuilder sb = new StringBuilder();
-
-        for (String arg : _args) {
-            sb.append(arg).append(':');
+        /* Arguments are stored as a sequence of length prefixed strings.
+         */
+        byte[][] args = new byte[_args.length][];
+        int len = 0;
+        for (int i = 0; i < _args.length; i++) {
+            args[i] = _args[i].getBytes(Charsets.UTF_8);
+            checkArgument(args[i].length <= MAX_OPAQUE_LEN, "Argument too long: %s bytes", args[i].length);
+            len += 1 + args[i].length;
         }
 
-        return byteBase(sb.toString().getBytes(Charsets.UTF_8));
+        ByteBuffer b = ByteBuffer.allocate(len);
+        for (byte[] arg : args) {
+            b.put((byte) arg.length).put(arg);
+        }
+        return byteBase(b.array());
     }
 
     @Override
@@ -36,17 +36,12 @@ public class FsInode_TAG extends FsInode {
 
     @Override
     public boolean exists() {
-        boolean rc = false;
         try {
-            String[] list = _fs.tags(this);
-            for (String tag : list) {
-                if (tag.equals(_tag)) {
-                    rc = true;
-                }
-            }
+            _fs.statTag(this, _tag);
+            return true;
         } catch (Exception e) {
+            return false;
         }
-        return rc;
     }
 
     @Override
@@ -61,10 +56,6 @@ public class FsInode_TAG extends FsInode {
 
     @Override
     public Stat stat() throws ChimeraFsException {
-        if (!exists()) {
-            throw new FileNotFoundHimeraFsException("tag do not exist");
-        }
-
         Stat ret = _fs.statTag(this, _tag);
         ret.setMode((ret.getMode() & 0000777) | UnixPermission.S_IFREG);
         return ret;
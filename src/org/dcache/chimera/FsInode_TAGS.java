@@ -16,10 +16,18 @@
  */
 package org.dcache.chimera;
 
+import java.nio.charset.StandardCharsets;
+
 import org.dcache.chimera.posix.Stat;
 
 public class FsInode_TAGS extends FsInode {
 
+    /**
+     * the encoded listing, built on first use and reused by subsequent
+     * chunked reads and stats of this inode
+     */
+    private byte[] _list;
+
     public FsInode_TAGS(FileSystemProvider fs, long ino) {
         super(fs, ino, FsInodeType.TAGS);
     }
@@ -32,27 +40,19 @@ public class FsInode_TAGS extends FsInode {
     @Override
     public int read(long pos, byte[] data, int offset, int len) {
 
-        StringBuilder sb = new StringBuilder();
         int rc;
-        String[] list;
         try {
-            list = _fs.tags(this);
-            for (String tag : list) {
-                sb.append(".(tag)(").append(tag).append(")\n");
-            }
+            byte[] tmp = list();
 
-            rc = sb.length();
             /*
              * are we still inside ?
              */
-            if (pos > rc) {
+            if (pos > tmp.length) {
                 return 0;
             }
 
-            byte[] tmp = sb.toString().getBytes();
-
             int copyLen = Math.min(len, tmp.length - (int) pos);
-            System.arraycopy(tmp, 0, data, 0, copyLen);
+            System.arraycopy(tmp, (int) pos, data, offset, copyLen);
             rc = copyLen;
         } catch (Exception e) {
             e.printStackTrace();
@@ -65,18 +65,12 @@ public class FsInode_TAGS extends FsInode {
     @Override
     public Stat stat() throws ChimeraFsException {
 
-        long size = 0;
         Stat stat = super.stat();
         stat.setNlink(1);
         stat.setMode(0444 | UnixPermission.S_IFREG);
 
         try {
-            String[] list = _fs.tags(this);
-            for (String tag : list) {
-                size += (9 + tag.length());
-            }
-            stat.setSize(size);
-
+            stat.setSize(list().length);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -84,6 +78,19 @@ public class FsInode_TAGS extends FsInode {
         return stat;
     }
 
+    private byte[] list() throws ChimeraFsException {
+        byte[] list = _list;
+        if (list == null) {
+            StringBuilder sb = new StringBuilder();
+            for (String tag : _fs.tags(this)) {
+                sb.append(".(tag)(").append(tag).append(")\n");
+            }
+            list = sb.toString().getBytes(StandardCharsets.UTF_8);
+            _list = list;
+        }
+        return list;
+    }
+
     @Override
     public int write(long pos, byte[] data, int offset, int len) {
         return -1;
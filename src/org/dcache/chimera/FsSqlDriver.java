@@ -25,9 +25,9 @@ import org.springframework.dao.DataAccessException;
 import org.springframework.dao.IncorrectResultSizeDataAccessException;
 import org.springframework.jdbc.JdbcUpdateAffectedIncorrectNumberOfRowsException;
 import org.springframework.jdbc.LobRetrievalFailureException;
-import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
 import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.jdbc.support.SQLErrorCodeSQLExceptionTranslator;
@@ -45,14 +45,21 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -97,10 +104,27 @@ public class FsSqlDriver {
 
     protected final int _ioMode;
 
-    final JdbcTemplate _jdbc;
+    /**
+     * With relatime, access times older than this are updated even if newer
+     * than the modification and change time.
+     */
+    static final long RELATIME_INTERVAL = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * Maximal number of inodes in the IN list of a query.
+     */
+    private static final int IN_LIST_SIZE = 256;
+
+    final ProfilingJdbcTemplate _jdbc;
 
     private final long _root;
 
+    /**
+     * Stat projections by requested attribute set.
+     */
+    private final ConcurrentMap<Set<Stat.StatAttributes>, StatProjection> _projections =
+            new ConcurrentHashMap<>();
+
     /**
      *  this is a utility class which is issues SQL queries on database
      *
@@ -108,7 +132,7 @@ public class FsSqlDriver {
     protected FsSqlDriver(DataSource dataSource) throws ChimeraFsException
     {
         _ioMode = Boolean.valueOf(System.getProperty("chimera.inodeIoMode")) ? IOMODE_ENABLE : IOMODE_DISABLE;
-        _jdbc = new JdbcTemplate(dataSource);
+        _jdbc = new ProfilingJdbcTemplate(dataSource);
         _jdbc.setExceptionTranslator(new SQLErrorCodeSQLExceptionTranslator(dataSource) {
             @Override
             protected DataAccessException customTranslate(String task, String sql, SQLException sqlEx)
@@ -253,9 +277,7 @@ public class FsSqlDriver {
                                 return null;
                             }
                             Stat stat = toStat(rs);
-                            FsInode inode = new FsInode(dir.getFs(), rs.getLong("inumber"), FsInodeType.INODE, 0, stat);
-                            inode.setParent(dir);
-                            return new HimeraDirectoryEntry(rs.getString("iname"), inode, stat);
+                            return new HimeraDirectoryEntry(dir, rs.getString(StatProjection.FULL.columnCount() + 1), stat);
                         } catch (SQLException e) {
                             _log.error("failed to fetch next entry: {}", e.getMessage());
                             return null;
@@ -331,7 +353,12 @@ public class FsSqlDriver {
         return true;
     }
 
-    void remove(FsInode inode) {
+    /**
+     * Removes {@code inode} and all its links.
+     *
+     * @return the directories which contained a link to the inode
+     */
+    List<FsInode> remove(FsInode inode) {
         if (inode.isDirectory()) {
             removeTag(inode);
         }
@@ -342,12 +369,13 @@ public class FsSqlDriver {
         _jdbc.update("UPDATE t_inodes SET inlink=0 WHERE inumber=?", inode.ino());
 
         /* Remove all hard-links. */
-        List<Long> parents =
-                _jdbc.queryForList(
+        List<FsInode> parents =
+                _jdbc.query(
                         "SELECT iparent FROM t_dirs WHERE ichild=?",
-                        Long.class, inode.ino());
-        for (Long parent : parents) {
-            decNlink(new FsInode(inode.getFs(), parent));
+                        (rs, rowNum) -> new FsInode(inode.getFs(), rs.getLong("iparent")),
+                        inode.ino());
+        for (FsInode parent : parents) {
+            decNlink(parent);
         }
         int n = _jdbc.update("DELETE FROM t_dirs WHERE ichild=?", inode.ino());
         if (n != parents.size()) {
@@ -355,11 +383,12 @@ public class FsSqlDriver {
         }
 
         removeInodeIfUnlinked(inode);
+        return parents;
     }
 
     public Stat stat(String id) {
         return _jdbc.query(
-                "SELECT * FROM t_inodes WHERE ipnfsid=?",
+                "SELECT " + StatProjection.FULL.columns() + " FROM t_inodes WHERE ipnfsid=?",
                 ps -> ps.setString(1, id),
                 rs -> rs.next() ? toStat(rs) : null);
     }
@@ -371,7 +400,7 @@ public class FsSqlDriver {
     public Stat stat(FsInode inode, int level) {
         if (level == 0) {
             return _jdbc.query(
-                    "SELECT * FROM t_inodes WHERE inumber=?",
+                    "SELECT " + StatProjection.FULL.columns() + " FROM t_inodes WHERE inumber=?",
                     ps -> ps.setLong(1, inode.ino()),
                     rs -> rs.next() ? toStat(rs) : null);
         } else {
@@ -382,32 +411,59 @@ public class FsSqlDriver {
         }
     }
 
-    private Stat toStat(ResultSet rs) throws SQLException
-    {
-        Stat stat = new Stat();
-        stat.setIno(rs.getLong("inumber"));
-        stat.setId(rs.getString("ipnfsid"));
-        stat.setCrTime(rs.getTimestamp("icrtime").getTime());
-        stat.setGeneration(rs.getLong("igeneration"));
-        int rp = rs.getInt("iretention_policy");
-        if (!rs.wasNull()) {
-            stat.setRetentionPolicy(RetentionPolicy.valueOf(rp));
+    /**
+     * Get the stat of many inodes, keyed by inode number. Inodes which do not
+     * exist are omitted.
+     */
+    Map<Long, Stat> stat(Collection<FsInode> inodes) {
+        Map<Long, Stat> stats = new HashMap<>();
+        List<Long> inos = new ArrayList<>(inodes.size());
+        for (FsInode inode : inodes) {
+            inos.add(inode.ino());
         }
-        int al = rs.getInt("iaccess_latency");
-        if (!rs.wasNull()) {
-            stat.setAccessLatency(AccessLatency.valueOf(al));
+        for (List<Long> batch : Lists.partition(inos, IN_LIST_SIZE)) {
+            String in = String.join(",", Collections.nCopies(batch.size(), "?"));
+            _jdbc.query("SELECT " + StatProjection.FULL.columns() + " FROM t_inodes WHERE inumber IN (" + in + ")",
+                        ps -> setInodes(ps, 1, batch),
+                        rs -> {
+                            Stat stat = toStat(rs);
+                            stats.put(stat.getIno(), stat);
+                        });
         }
-        stat.setSize(rs.getLong("isize"));
-        stat.setATime(rs.getTimestamp("iatime").getTime());
-        stat.setCTime(rs.getTimestamp("ictime").getTime());
-        stat.setMTime(rs.getTimestamp("imtime").getTime());
-        stat.setUid(rs.getInt("iuid"));
-        stat.setGid(rs.getInt("igid"));
-        stat.setMode(rs.getInt("imode") | rs.getInt("itype"));
-        stat.setNlink(rs.getInt("inlink"));
-        stat.setDev(17);
-        stat.setRdev(13);
-        return stat;
+        return stats;
+    }
+
+    /**
+     * Returns stat of the inode with only the requested attributes defined. Only
+     * the columns required by {@code attributes} are fetched from the database.
+     *
+     * @param inode
+     * @param attributes
+     * @return stat or null if inode does not exist
+     */
+    Stat stat(FsInode inode, Set<Stat.StatAttributes> attributes) {
+        StatProjection projection = projectionOf(attributes);
+        return _jdbc.query(
+                "SELECT " + projection.columns() + " FROM t_inodes WHERE inumber=?",
+                ps -> ps.setLong(1, inode.ino()),
+                rs -> rs.next() ? projection.decode(rs, 1) : null);
+    }
+
+    private StatProjection projectionOf(Set<Stat.StatAttributes> attributes) {
+        StatProjection projection = _projections.get(attributes);
+        if (projection == null) {
+            projection = new StatProjection(attributes);
+            _projections.putIfAbsent(projection.attributes(), projection);
+        }
+        return projection;
+    }
+
+    /**
+     * Decodes a row starting with the columns of {@link StatProjection#FULL}.
+     */
+    private Stat toStat(ResultSet rs) throws SQLException
+    {
+        return StatProjection.FULL.decode(rs, 1);
     }
 
     private Stat toStatLevel(ResultSet rs) throws SQLException
@@ -505,14 +561,19 @@ public class FsSqlDriver {
         default:
             if (stat == STAT) {
                 return _jdbc.query(
-                        "SELECT c.* FROM t_dirs d JOIN t_inodes c ON d.ichild = c.inumber " +
+                        "SELECT " + StatProjection.FULL.columns("c") + " FROM t_dirs d JOIN t_inodes c ON d.ichild = c.inumber " +
                         "WHERE d.iparent = ? AND d.iname = ?",
                         ps -> {
                             ps.setLong(1, parent.ino());
                             ps.setString(2, name);
                         },
-                        rs -> rs.next() ? new FsInode(parent.getFs(), rs.getLong("inumber"),
-                                                      FsInodeType.INODE, 0, toStat(rs)) : null);
+                        rs -> {
+                            if (!rs.next()) {
+                                return null;
+                            }
+                            Stat inodeStat = toStat(rs);
+                            return new FsInode(parent.getFs(), inodeStat.getIno(), FsInodeType.INODE, 0, inodeStat);
+                        });
             } else {
                 return _jdbc.query("SELECT ichild FROM t_dirs WHERE iparent=? AND iname=?",
                                    ps -> {
@@ -661,6 +722,9 @@ public class FsSqlDriver {
     }
 
     boolean removeInodeIfUnlinked(FsInode inode) {
+        /* The row lock keeps locations from being added while they are copied
+         * to the trash table.
+         */
         List<String> ids
                 = _jdbc.queryForList("SELECT ipnfsid FROM t_inodes WHERE inumber=? AND inlink=0 FOR UPDATE",
                                      String.class, inode.ino());
@@ -786,8 +850,107 @@ public class FsSqlDriver {
                 rs -> rs.next() ? new FsInode(inode.getFs(), rs.getLong("iparent")) : null);
     }
 
+    /**
+     * Returns the ancestors of each of the directories {@code dirs}, keyed by
+     * inode number. The ancestors of a directory start with its parent and end
+     * with the root directory, which has no ancestors. The ancestors of all
+     * directories are resolved with one query per batch of directories.
+     */
+    Map<Long, List<FsInode>> getAncestors(Collection<FsInode> dirs) {
+        Map<Long, List<FsInode>> ancestors = new HashMap<>();
+        if (dirs.isEmpty()) {
+            return ancestors;
+        }
+        FileSystemProvider fs = dirs.iterator().next().getFs();
+        for (FsInode dir : dirs) {
+            ancestors.put(dir.ino(), new ArrayList<>());
+        }
+        List<Long> inos = new ArrayList<>(ancestors.keySet());
+        for (List<Long> batch : Lists.partition(inos, IN_LIST_SIZE)) {
+            queryAncestors(batch, rs -> {
+                ancestors.get(rs.getLong("iorigin")).add(new FsInode(fs, rs.getLong("iparent")));
+            });
+        }
+        return ancestors;
+    }
+
+    /**
+     * Passes the rows of {@link #ancestorsQuery} for directories {@code inos}
+     * to {@code handler}.
+     */
+    void queryAncestors(List<Long> inos, RowCallbackHandler handler) {
+        String in = String.join(",", Collections.nCopies(inos.size(), "?"));
+        _jdbc.query(ancestorsQuery(in),
+                    ps -> {
+                        for (int i = 0; i < inos.size(); i++) {
+                            ps.setLong(i + 1, inos.get(i));
+                        }
+                    },
+                    handler);
+    }
+
+    /**
+     * Returns a query for the ancestors of the directories given by
+     * {@code in}, a list of inode numbers or placeholders. Each row holds the
+     * directory in column iorigin and one of its ancestors in column iparent,
+     * ordered by directory and, starting with the parent, by distance.
+     */
+    String ancestorsQuery(String in) {
+        return "WITH RECURSIVE a (iorigin, ichild, iparent, idepth) AS (" +
+               "SELECT ichild, ichild, iparent, 1 FROM t_dirs WHERE ichild IN (" + in + ") " +
+               "UNION ALL " +
+               "SELECT a.iorigin, d.ichild, d.iparent, a.idepth + 1 FROM t_dirs d, a " +
+               "WHERE d.ichild = a.iparent AND a.iparent <> a.ichild) " +
+               "SELECT iorigin, iparent FROM a WHERE iparent <> ichild ORDER BY iorigin, idepth";
+    }
+
     boolean setInodeAttributes(FsInode inode, int level, Stat stat) {
-        return _jdbc.update(con -> generateAttributeUpdateStatement(con, inode, stat, level)) > 0;
+        return _jdbc.update(con -> generateAttributeUpdateStatement(con, inode, stat, level, -1)) > 0;
+    }
+
+    /**
+     * Update attributes of an inode only if its generation is {@code expectedGeneration}.
+     *
+     * @return true if updated, in which case the generation is now {@code expectedGeneration + 1}
+     */
+    boolean setInodeAttributes(FsInode inode, Stat stat, long expectedGeneration) {
+        return _jdbc.update(con -> generateAttributeUpdateStatement(con, inode, stat, 0, expectedGeneration)) > 0;
+    }
+
+    /**
+     * Update the access time of an inode as with the Linux relatime mount option.
+     * The generation and the change time are not modified.
+     *
+     * @param inode
+     * @param atime new access time
+     * @return true if the access time was updated
+     */
+    boolean setInodeRelATime(FsInode inode, long atime) {
+        return _jdbc.update("UPDATE t_inodes SET iatime=? WHERE inumber=? AND iatime<? " +
+                            "AND (iatime<=imtime OR iatime<=ictime OR iatime<?)",
+                            ps -> {
+                                ps.setTimestamp(1, new Timestamp(atime));
+                                ps.setLong(2, inode.ino());
+                                ps.setTimestamp(3, new Timestamp(atime));
+                                ps.setTimestamp(4, new Timestamp(atime - RELATIME_INTERVAL));
+                            }) > 0;
+    }
+
+    /**
+     * Update the access times of several inodes in one batch. The generation
+     * and the change time are not modified and access times are never moved
+     * backwards.
+     *
+     * @param atimes access time by inode number
+     */
+    void setInodeATimes(Map<Long, Long> atimes) {
+        _jdbc.batchUpdate("UPDATE t_inodes SET iatime=? WHERE inumber=? AND iatime<?",
+                          atimes.entrySet(), atimes.size(),
+                          (ps, entry) -> {
+                              ps.setTimestamp(1, new Timestamp(entry.getValue()));
+                              ps.setLong(2, entry.getKey());
+                              ps.setTimestamp(3, new Timestamp(entry.getValue()));
+                          });
     }
 
     /**
@@ -800,12 +963,12 @@ public class FsSqlDriver {
         /* Since we access t_inodes anyway and the cost of transferring the entire row
          * is negligible, we fill the stat cache as a side effect.
          */
-        return _jdbc.query("SELECT * FROM t_inodes WHERE inumber=?",
+        return _jdbc.query("SELECT " + StatProjection.FULL.columns() + ",iio FROM t_inodes WHERE inumber=?",
                            ps -> ps.setLong(1, inode.ino()),
                            rs -> {
                                if (rs.next()) {
                                    inode.setStatCache(toStat(rs));
-                                   return rs.getInt("iio") == 1;
+                                   return rs.getInt(StatProjection.FULL.columnCount() + 1) == 1;
                                } else {
                                    return false;
                                }
@@ -954,6 +1117,44 @@ public class FsSqlDriver {
     }
 
 
+    /**
+     * Returns up to {@code limit} inodes with location {@code location} of type
+     * {@code type} and an inode number greater than {@code after}, in order of
+     * inode number. Successive pages are fetched by passing the number of the
+     * last inode of the previous page as {@code after}.
+     *
+     * @param fs file system of the returned inodes
+     * @param type location type
+     * @param location the location
+     * @param after inode number after which to start
+     * @param limit maximal number of inodes to return
+     * @param stat whether to fetch the stat of the inodes
+     * @return inodes in order of inode number
+     */
+    List<FsInode> getInodesAtLocation(FileSystemProvider fs, int type, String location, long after, int limit,
+                                      StatCacheOption stat) {
+        String sql = (stat == STAT)
+                ? "SELECT " + StatProjection.FULL.columns("i") + " FROM t_locationinfo l JOIN t_inodes i ON l.inumber = i.inumber " +
+                  "WHERE l.itype=? AND l.ilocation=? AND l.inumber>? ORDER BY l.inumber"
+                : "SELECT inumber FROM t_locationinfo WHERE itype=? AND ilocation=? AND inumber>? ORDER BY inumber";
+        return _jdbc.query(con -> {
+                               PreparedStatement ps = con.prepareStatement(sql);
+                               ps.setMaxRows(limit);
+                               ps.setFetchSize(limit);
+                               ps.setInt(1, type);
+                               ps.setString(2, location);
+                               ps.setLong(3, after);
+                               return ps;
+                           },
+                           (rs, rowNum) -> {
+                               if (stat == STAT) {
+                                   Stat inodeStat = toStat(rs);
+                                   return new FsInode(fs, inodeStat.getIno(), FsInodeType.INODE, 0, inodeStat);
+                               }
+                               return new FsInode(fs, rs.getLong("inumber"));
+                           });
+    }
+
     /**
      *
      * adds a new location for the inode
@@ -1012,20 +1213,27 @@ public class FsSqlDriver {
                         ps.setLong(1, inode.ino());
                     },
                     rs -> {
-                        try (InputStream in = rs.getBinaryStream("ivalue")) {
-                            byte[] data = new byte[Ints.saturatedCast(rs.getLong("isize"))];
-                            // we get null if filed id NULL, e.g not set
-                            if (in != null) {
-                                ByteStreams.readFully(in, data);
-                                tags.put(rs.getString("itagname"), data);
-                            }
-                        } catch (IOException e) {
-                            throw new LobRetrievalFailureException(e.getMessage(), e);
+                        byte[] data = tagValue(rs);
+                        // we get null if filed id NULL, e.g not set
+                        if (data != null) {
+                            tags.put(rs.getString("itagname"), data);
                         }
                     });
         return tags;
     }
 
+    /**
+     * Returns the value of the tag inode in the current row, or null if not set.
+     */
+    private static byte[] tagValue(ResultSet rs) throws SQLException {
+        byte[] value = rs.getBytes("ivalue");
+        /* some databases (hsqldb in particular) fill a full record for
+         * BLOBs and on read reads a full record, which is not what we expect.
+         */
+        int size = Ints.saturatedCast(rs.getLong("isize"));
+        return (value == null || value.length <= size) ? value : Arrays.copyOf(value, size);
+    }
+
     /**
      * creates a new tag for the inode.
      * the inode becomes the tag origin.
@@ -1167,6 +1375,24 @@ public class FsSqlDriver {
             tagId = getTagId(inode, tagName);
         }
 
+        setTagValue(tagId, data, offset, len);
+        return len;
+
+    }
+
+    /**
+     * Sets the value of a tag which directory {@code inode} inherits without
+     * being linked to it. The directory is linked to a new tag inode with the
+     * ownership and mode of the inherited tag.
+     */
+    int setInheritedTag(FsInode inode, String tagName, Stat tagStat, byte[] data, int offset, int len) {
+        long tagId = createTagInode(tagStat.getUid(), tagStat.getGid(), tagStat.getMode());
+        assignTagToDir(tagId, tagName, inode, false, true);
+        setTagValue(tagId, data, offset, len);
+        return len;
+    }
+
+    private void setTagValue(long tagId, byte[] data, int offset, int len) {
         _jdbc.update("UPDATE t_tags_inodes SET ivalue=?, isize=?, imtime=? WHERE itagid=?",
                      ps -> {
                          ps.setBinaryStream(1, new ByteArrayInputStream(data, offset, len), len);
@@ -1174,8 +1400,6 @@ public class FsSqlDriver {
                          ps.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
                          ps.setLong(4, tagId);
                      });
-        return len;
-
     }
 
     void removeTag(FsInode dir, String tag) {
@@ -1216,14 +1440,143 @@ public class FsSqlDriver {
              * For now we decide to ignore the race: It seems unlikely to run into
              * and even if one does, the consequence is merely an orphaned inode.
              */
-            _jdbc.batchUpdate("DELETE FROM t_tags_inodes i WHERE itagid=? " +
-                              "AND NOT EXISTS (SELECT 1 FROM t_tags WHERE itagid=?)",
-                              ids, ids.size(),
-                              (ps, tagid) -> {
-                                  ps.setLong(1, tagid);
-                                  ps.setLong(2, tagid);
+            removeOrphanTagInodes(ids);
+        }
+    }
+
+    private void removeOrphanTagInodes(Collection<Long> ids) {
+        _jdbc.batchUpdate("DELETE FROM t_tags_inodes i WHERE itagid=? " +
+                          "AND NOT EXISTS (SELECT 1 FROM t_tags WHERE itagid=?)",
+                          ids, ids.size(),
+                          (ps, tagid) -> {
+                              ps.setLong(1, tagid);
+                              ps.setLong(2, tagid);
+                          });
+    }
+
+    /**
+     * Links the inherited copies of tag {@code tagName} in the subtree below
+     * {@code dir} to tag inode {@code tagId}, assuming lazy tag inheritance.
+     *
+     * With lazy inheritance, only directories whose tags differed from those
+     * of their parent when inheritance was collapsed still link to inherited
+     * tags. Rather than walking the subtree, these few links are checked for
+     * being below {@code dir} without a directory owning its own copy of the
+     * tag in between.
+     *
+     * @return the number of directories linked to {@code tagId}
+     */
+    int setTagInLazySubtree(FsInode dir, String tagName, long tagId) {
+        List<FsInode> linked =
+                _jdbc.query("SELECT inumber FROM t_tags WHERE itagname=? AND isorign=0 AND itagid<>?",
+                            (rs, row) -> new FsInode(dir.getFs(), rs.getLong("inumber")),
+                            tagName, tagId);
+        if (linked.isEmpty()) {
+            return 0;
+        }
+
+        Map<Long, List<FsInode>> ancestors = getAncestors(linked);
+        Map<Long, List<Long>> paths = new HashMap<>();
+        Set<Long> between = new HashSet<>();
+        for (FsInode inode : linked) {
+            List<Long> path = new ArrayList<>();
+            for (FsInode ancestor : ancestors.get(inode.ino())) {
+                if (ancestor.ino() == dir.ino()) {
+                    paths.put(inode.ino(), path);
+                    between.addAll(path);
+                    break;
+                }
+                path.add(ancestor.ino());
+            }
+        }
+        Set<Long> owners = new HashSet<>();
+        for (List<Long> batch : Lists.partition(new ArrayList<>(between), IN_LIST_SIZE)) {
+            String in = String.join(",", Collections.nCopies(batch.size(), "?"));
+            _jdbc.query("SELECT inumber FROM t_tags WHERE itagname=? AND isorign=1 AND inumber IN (" + in + ")",
+                        ps -> {
+                            ps.setString(1, tagName);
+                            setInodes(ps, 2, batch);
+                        },
+                        rs -> {
+                            owners.add(rs.getLong("inumber"));
+                        });
+        }
+
+        List<Long> inheriting = new ArrayList<>();
+        paths.forEach((ino, path) -> {
+            if (Collections.disjoint(path, owners)) {
+                inheriting.add(ino);
+            }
+        });
+        return relinkTag(inheriting, tagName, tagId);
+    }
+
+    /**
+     * Links the inherited copies of tag {@code tagName} of directories
+     * {@code dirs} to tag inode {@code tagId} and removes the tag inodes no
+     * longer referenced afterwards.
+     *
+     * @return the number of directories linked to {@code tagId}
+     */
+    int relinkTag(List<Long> dirs, String tagName, long tagId) {
+        Set<Long> replaced = new HashSet<>();
+        int n = 0;
+        for (List<Long> batch : Lists.partition(dirs, IN_LIST_SIZE)) {
+            String in = String.join(",", Collections.nCopies(batch.size(), "?"));
+            _jdbc.query("SELECT DISTINCT itagid FROM t_tags " +
+                        "WHERE itagname=? AND isorign=0 AND itagid<>? AND inumber IN (" + in + ")",
+                        ps -> {
+                            ps.setString(1, tagName);
+                            ps.setLong(2, tagId);
+                            setInodes(ps, 3, batch);
+                        },
+                        rs -> {
+                            replaced.add(rs.getLong("itagid"));
+                        });
+            n += _jdbc.update("UPDATE t_tags SET itagid=? " +
+                              "WHERE itagname=? AND isorign=0 AND itagid<>? AND inumber IN (" + in + ")",
+                              ps -> {
+                                  ps.setLong(1, tagId);
+                                  ps.setString(2, tagName);
+                                  ps.setLong(3, tagId);
+                                  setInodes(ps, 4, batch);
                               });
         }
+        if (!replaced.isEmpty()) {
+            removeOrphanTagInodes(replaced);
+        }
+        return n;
+    }
+
+    /**
+     * Returns the subdirectories of {@code parents} which do not own a copy of
+     * tag {@code tagName}.
+     */
+    List<Long> inheritingSubdirectories(List<Long> parents, String tagName) {
+        List<Long> children = new ArrayList<>();
+        for (List<Long> batch : Lists.partition(parents, IN_LIST_SIZE)) {
+            children.addAll(inheritingChildren(batch, tagName));
+        }
+        return children;
+    }
+
+    private List<Long> inheritingChildren(List<Long> parents, String tagName) {
+        String in = String.join(",", Collections.nCopies(parents.size(), "?"));
+        return _jdbc.query("SELECT d.ichild FROM t_dirs d JOIN t_inodes i ON d.ichild = i.inumber " +
+                           "WHERE d.iparent IN (" + in + ") AND d.ichild<>d.iparent AND i.itype=? " +
+                           "AND NOT EXISTS (SELECT 1 FROM t_tags t WHERE t.inumber=d.ichild AND t.itagname=? AND t.isorign=1)",
+                           ps -> {
+                               setInodes(ps, 1, parents);
+                               ps.setInt(parents.size() + 1, UnixPermission.S_IFDIR);
+                               ps.setString(parents.size() + 2, tagName);
+                           },
+                           (rs, row) -> rs.getLong(1));
+    }
+
+    private static void setInodes(PreparedStatement ps, int index, List<Long> inos) throws SQLException {
+        for (int i = 0; i < inos.size(); i++) {
+            ps.setLong(index + i, inos.get(i));
+        }
     }
 
     /**
@@ -1259,35 +1612,80 @@ public class FsSqlDriver {
     }
 
     Stat statTag(FsInode dir, String name) throws ChimeraFsException {
-        Long tagId = getTagId(dir, name);
-
-        if (tagId == null) {
+        Stat stat = _jdbc.query("SELECT i.isize,i.inlink,i.imode,i.iuid,i.igid,i.iatime,i.ictime,i.imtime " +
+                                "FROM t_tags t JOIN t_tags_inodes i ON t.itagid = i.itagid " +
+                                "WHERE t.inumber=? AND t.itagname=?",
+                                ps -> {
+                                    ps.setLong(1, dir.ino());
+                                    ps.setString(2, name);
+                                },
+                                rs -> rs.next() ? toTagStat(rs, dir.ino()) : null);
+        if (stat == null) {
             throw new FileNotFoundHimeraFsException("tag does not exist");
         }
+        return stat;
+    }
 
-        try {
-            return _jdbc.queryForObject("SELECT isize,inlink,imode,iuid,igid,iatime,ictime,imtime " +
-                                        "FROM t_tags_inodes WHERE itagid=?",
-                                        (rs, rowNum) -> {
-                                            Stat ret = new Stat();
-                                            ret.setSize(rs.getLong("isize"));
-                                            ret.setATime(rs.getTimestamp("iatime").getTime());
-                                            ret.setCTime(rs.getTimestamp("ictime").getTime());
-                                            ret.setMTime(rs.getTimestamp("imtime").getTime());
-                                            ret.setUid(rs.getInt("iuid"));
-                                            ret.setGid(rs.getInt("igid"));
-                                            ret.setMode(rs.getInt("imode"));
-                                            ret.setNlink(rs.getInt("inlink"));
-                                            ret.setIno(dir.ino());
-                                            ret.setGeneration(rs.getTimestamp("imtime").getTime());
-                                            ret.setDev(17);
-                                            ret.setRdev(13);
-                                            return ret;
-                                        },
-                                        tagId);
-        } catch (IncorrectResultSizeDataAccessException e) {
-            throw new FileNotFoundHimeraFsException(name);
+    /**
+     * Returns all tags of directory {@code dir} together with their tag inodes.
+     */
+    Map<String, DirectoryTag> getTags(FsInode dir) {
+        Map<String, DirectoryTag> tags = new HashMap<>();
+        _jdbc.query("SELECT t.inumber,t.itagname,t.itagid,i.isize,i.inlink,i.imode,i.iuid,i.igid,i.iatime,i.ictime,i.imtime,i.ivalue " +
+                    "FROM t_tags t JOIN t_tags_inodes i ON t.itagid = i.itagid WHERE t.inumber=?",
+                    ps -> ps.setLong(1, dir.ino()),
+                    rs -> {
+                        tags.put(rs.getString("itagname"), toDirectoryTag(rs));
+                    });
+        return tags;
+    }
+
+    /**
+     * Returns all tags of the directories {@code dirs}, keyed by inode number.
+     * Directories without tags are mapped to an empty map.
+     */
+    Map<Long, Map<String, DirectoryTag>> getTags(Collection<FsInode> dirs) {
+        Map<Long, Map<String, DirectoryTag>> tags = new HashMap<>();
+        for (FsInode dir : dirs) {
+            tags.put(dir.ino(), new HashMap<>());
         }
+        List<Long> inos = new ArrayList<>(tags.keySet());
+        for (List<Long> batch : Lists.partition(inos, IN_LIST_SIZE)) {
+            String in = String.join(",", Collections.nCopies(batch.size(), "?"));
+            _jdbc.query("SELECT t.inumber,t.itagname,t.itagid,i.isize,i.inlink,i.imode,i.iuid,i.igid,i.iatime,i.ictime,i.imtime,i.ivalue " +
+                        "FROM t_tags t JOIN t_tags_inodes i ON t.itagid = i.itagid WHERE t.inumber IN (" + in + ")",
+                        ps -> {
+                            for (int i = 0; i < batch.size(); i++) {
+                                ps.setLong(i + 1, batch.get(i));
+                            }
+                        },
+                        rs -> {
+                            tags.get(rs.getLong("inumber")).put(rs.getString("itagname"), toDirectoryTag(rs));
+                        });
+        }
+        return tags;
+    }
+
+    private static DirectoryTag toDirectoryTag(ResultSet rs) throws SQLException {
+        Stat stat = toTagStat(rs, rs.getLong("inumber"));
+        return new DirectoryTag(rs.getLong("itagid"), stat, tagValue(rs));
+    }
+
+    private static Stat toTagStat(ResultSet rs, long ino) throws SQLException {
+        Stat ret = new Stat();
+        ret.setSize(rs.getLong("isize"));
+        ret.setATime(rs.getTimestamp("iatime").getTime());
+        ret.setCTime(rs.getTimestamp("ictime").getTime());
+        ret.setMTime(rs.getTimestamp("imtime").getTime());
+        ret.setUid(rs.getInt("iuid"));
+        ret.setGid(rs.getInt("igid"));
+        ret.setMode(rs.getInt("imode"));
+        ret.setNlink(rs.getInt("inlink"));
+        ret.setIno(ino);
+        ret.setGeneration(rs.getTimestamp("imtime").getTime());
+        ret.setDev(17);
+        ret.setRdev(13);
+        return ret;
     }
 
     /**
@@ -1332,11 +1730,21 @@ public class FsSqlDriver {
                      destination.ino(), orign.ino());
     }
 
-    void setTagOwner(FsInode_TAG tagInode, int newOwner) throws FileNotFoundHimeraFsException {
-        Long tagId = getTagId(tagInode, tagInode.tagName());
-        if (tagId == null) {
-            throw new FileNotFoundHimeraFsException("tag does not exist");
-        }
+    /**
+     * Links directory {@code dir} to the given tags as inherited tags.
+     */
+    void inheritTags(FsInode dir, Map<String, DirectoryTag> tags) {
+        _jdbc.batchUpdate("INSERT INTO t_tags (inumber,itagid,isorign,itagname) VALUES(?,?,0,?)",
+                          tags.entrySet(),
+                          tags.size(),
+                          (ps, tag) -> {
+                              ps.setLong(1, dir.ino());
+                              ps.setLong(2, tag.getValue().id());
+                              ps.setString(3, tag.getKey());
+                          });
+    }
+
+    void setTagOwner(long tagId, int newOwner) {
         _jdbc.update("UPDATE t_tags_inodes SET iuid=?, ictime=? WHERE itagid=?",
                      ps -> {
                          ps.setInt(1, newOwner);
@@ -1345,11 +1753,7 @@ public class FsSqlDriver {
                      });
     }
 
-    void setTagOwnerGroup(FsInode_TAG tagInode, int newOwner) throws FileNotFoundHimeraFsException {
-        Long tagId = getTagId(tagInode, tagInode.tagName());
-        if (tagId == null) {
-            throw new FileNotFoundHimeraFsException("tag does not exist");
-        }
+    void setTagOwnerGroup(long tagId, int newOwner) {
         _jdbc.update("UPDATE t_tags_inodes SET igid=?, ictime=? WHERE itagid=?",
                      ps -> {
                          ps.setInt(1, newOwner);
@@ -1358,11 +1762,7 @@ public class FsSqlDriver {
                      });
     }
 
-    void setTagMode(FsInode_TAG tagInode, int mode) throws FileNotFoundHimeraFsException {
-        Long tagId = getTagId(tagInode, tagInode.tagName());
-        if (tagId == null) {
-            throw new FileNotFoundHimeraFsException("tag does not exist");
-        }
+    void setTagMode(long tagId, int mode) {
         _jdbc.update("UPDATE t_tags_inodes SET imode=?, ictime=? WHERE itagid=?",
                      ps -> {
                          ps.setInt(1, mode & UnixPermission.S_PERMS);
@@ -1595,17 +1995,40 @@ public class FsSqlDriver {
     List<ACE> readAcl(FsInode inode) {
         return _jdbc.query("SELECT * FROM t_acl WHERE inumber =  ? ORDER BY ace_order",
                            ps -> ps.setLong(1, inode.ino()),
-                           (rs, rowNum) -> {
-                               AceType type =
-                                       (rs.getInt("type") == 0)
-                                       ? AceType.ACCESS_ALLOWED_ACE_TYPE
-                                       : AceType.ACCESS_DENIED_ACE_TYPE;
-                               return new ACE(type,
-                                              rs.getInt("flags"),
-                                              rs.getInt("access_msk"),
-                                              Who.valueOf(rs.getInt("who")),
-                                              rs.getInt("who_id"));
-                           });
+                           (rs, rowNum) -> toAce(rs));
+    }
+
+    /**
+     * Get the Access Control Lists of many inodes, keyed by inode number.
+     * Inodes without ACL are mapped to an empty list.
+     */
+    Map<Long, List<ACE>> readAcls(Collection<FsInode> inodes) {
+        Map<Long, List<ACE>> acls = new HashMap<>();
+        for (FsInode inode : inodes) {
+            acls.put(inode.ino(), new ArrayList<>());
+        }
+        List<Long> inos = new ArrayList<>(acls.keySet());
+        for (List<Long> batch : Lists.partition(inos, IN_LIST_SIZE)) {
+            String in = String.join(",", Collections.nCopies(batch.size(), "?"));
+            _jdbc.query("SELECT * FROM t_acl WHERE inumber IN (" + in + ") ORDER BY inumber, ace_order",
+                        ps -> setInodes(ps, 1, batch),
+                        rs -> {
+                            acls.get(rs.getLong("inumber")).add(toAce(rs));
+                        });
+        }
+        return acls;
+    }
+
+    private static ACE toAce(ResultSet rs) throws SQLException {
+        AceType type =
+                (rs.getInt("type") == 0)
+                ? AceType.ACCESS_ALLOWED_ACE_TYPE
+                : AceType.ACCESS_DENIED_ACE_TYPE;
+        return new ACE(type,
+                       rs.getInt("flags"),
+                       rs.getInt("access_msk"),
+                       Who.valueOf(rs.getInt("who")),
+                       rs.getInt("who_id"));
     }
 
     /**
@@ -1667,6 +2090,16 @@ public class FsSqlDriver {
         return e.getSQLState().equals("23503");
     }
 
+    /**
+     * Check <i>SQLException</i> for a transient failure, like a deadlock or a
+     * serialization failure, after which the transaction may succeed if retried.
+     * @return true if sqlState is of class 40, transaction rollback
+     */
+    public boolean isTransientError(SQLException e) {
+        String sqlState = e.getSQLState();
+        return sqlState != null && sqlState.startsWith("40");
+    }
+
     /**
      *  creates an instance of org.dcache.chimera.&lt;dialect&gt;FsSqlDriver or
      *  default driver, if specific driver not available
@@ -1687,7 +2120,12 @@ public class FsSqlDriver {
         return new FsSqlDriver(dataSource);
     }
 
-    private PreparedStatement generateAttributeUpdateStatement(Connection dbConnection, FsInode inode, Stat stat, int level)
+    /**
+     * @param expectedGeneration for level 0, only update if the inode has this
+     * generation; ignored if negative
+     */
+    private PreparedStatement generateAttributeUpdateStatement(Connection dbConnection, FsInode inode, Stat stat, int level,
+                                                               long expectedGeneration)
 	    throws SQLException {
         final String attrUpdatePrefix =
                 (level == 0)
@@ -1737,6 +2175,10 @@ public class FsSqlDriver {
             sb.append(",iretention_policy=?");
         }
         sb.append(attrUpdateSuffix);
+        boolean isConditional = level == 0 && expectedGeneration >= 0;
+        if (isConditional) {
+            sb.append(" AND igeneration=?");
+        }
 
         String statement = sb.toString();
         PreparedStatement preparedStatement = dbConnection.prepareStatement(statement);
@@ -1772,6 +2214,9 @@ public class FsSqlDriver {
             preparedStatement.setInt(idx++, stat.getRetentionPolicy().getId());
         }
         preparedStatement.setLong(idx++, inode.ino());
+        if (isConditional) {
+            preparedStatement.setLong(idx++, expectedGeneration);
+        }
         return preparedStatement;
     }
 }
@@ -0,0 +1,34 @@
+/*
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.chimera;
+
+/**
+ * Thrown by a conditional update if the generation of an inode differs from
+ * the expected one, i.e. the inode was modified concurrently.
+ */
+public class GenerationMismatchChimeraFsException extends ChimeraFsException {
+
+    private static final long serialVersionUID = 4379263151452780913L;
+
+    public GenerationMismatchChimeraFsException() {
+        super();
+    }
+
+    public GenerationMismatchChimeraFsException(FsInode inode, long expected, long actual) {
+        super("[" + inode + "] has generation " + actual + ", expected " + expected);
+    }
+}
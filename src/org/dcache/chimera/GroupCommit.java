@@ -0,0 +1,185 @@
+/*
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.chimera;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces small, independent updates of many threads into shared
+ * transactions. A background thread collects the updates submitted within a
+ * time window and commits them together; submitting threads block until the
+ * commit of their update.
+ *
+ * An update which fails is undone on its own, without affecting the other
+ * updates of the group. Only if the shared transaction itself fails, every
+ * update of the group is retried in a transaction of its own.
+ *
+ * @param <T> type of the updates
+ */
+class GroupCommit<T> implements AutoCloseable {
+
+    private static final Logger _log = LoggerFactory.getLogger(GroupCommit.class);
+
+    interface Committer<T> {
+        /**
+         * Apply all {@code updates} in a single transaction. An update which
+         * fails is rolled back on its own.
+         *
+         * @return the failure of each update, null for those applied
+         */
+        List<Exception> commit(List<T> updates) throws ChimeraFsException;
+
+        /**
+         * Apply {@code update} in a transaction of its own.
+         */
+        void commit(T update) throws ChimeraFsException;
+    }
+
+    private static class Member<T> extends CompletableFuture<Void> {
+        final T update;
+
+        Member(T update) {
+            this.update = update;
+        }
+    }
+
+    private final BlockingQueue<Member<T>> _queue = new LinkedBlockingQueue<>();
+    private final Committer<T> _committer;
+    private final long _window;
+    private final int _maxGroupSize;
+    private final Thread _thread;
+    /**
+     * Guarded by this, read without lock by the background thread.
+     */
+    private volatile boolean _isClosed;
+
+    /**
+     * @param window time in nanoseconds to wait for further updates after the
+     * first update of a group
+     * @param maxGroupSize maximal number of updates per transaction
+     */
+    GroupCommit(Committer<T> committer, long window, int maxGroupSize) {
+        _committer = committer;
+        _window = window;
+        _maxGroupSize = maxGroupSize;
+        _thread = new Thread(this::run, "chimera-group-commit");
+        _thread.setDaemon(true);
+        _thread.start();
+    }
+
+    /**
+     * Submit {@code update} and wait until it is committed.
+     */
+    void submit(T update) throws ChimeraFsException {
+        Member<T> member = new Member<>(update);
+        boolean isQueued;
+        synchronized (this) {
+            isQueued = !_isClosed && _queue.add(member);
+        }
+        if (!isQueued) {
+            _committer.commit(update);
+            return;
+        }
+        try {
+            Uninterruptibles.getUninterruptibly(member);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ChimeraFsException) {
+                throw (ChimeraFsException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private void run() {
+        List<Member<T>> group = new ArrayList<>(_maxGroupSize);
+        try {
+            while (!_isClosed || !_queue.isEmpty()) {
+                Member<T> first = _queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                group.add(first);
+                long deadline = System.nanoTime() + _window;
+                while (group.size() < _maxGroupSize) {
+                    Member<T> member = _queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (member == null) {
+                        break;
+                    }
+                    group.add(member);
+                }
+                commit(group);
+                group.clear();
+            }
+        } catch (InterruptedException e) {
+            _log.warn("Group commit interrupted with {} updates pending", _queue.size() + group.size());
+        }
+    }
+
+    private void commit(List<Member<T>> group) {
+        try {
+            List<T> updates = new ArrayList<>(group.size());
+            for (Member<T> member : group) {
+                updates.add(member.update);
+            }
+            List<Exception> failures = _committer.commit(updates);
+            for (int i = 0; i < group.size(); i++) {
+                Exception failure = failures.get(i);
+                if (failure == null) {
+                    group.get(i).complete(null);
+                } else {
+                    group.get(i).completeExceptionally(failure);
+                }
+            }
+        } catch (ChimeraFsException | RuntimeException e) {
+            _log.debug("Group of {} updates failed, retrying individually: {}", group.size(), e.getMessage());
+            for (Member<T> member : group) {
+                try {
+                    _committer.commit(member.update);
+                    member.complete(null);
+                } catch (ChimeraFsException | RuntimeException memberFailure) {
+                    member.completeExceptionally(memberFailure);
+                }
+            }
+        }
+    }
+
+    /**
+     * Commit pending updates and stop the background thread. Updates submitted
+     * afterwards are committed by the submitting thread.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            _isClosed = true;
+        }
+        Uninterruptibles.joinUninterruptibly(_thread);
+    }
+}
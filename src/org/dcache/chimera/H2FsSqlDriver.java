@@ -17,6 +17,7 @@
 package org.dcache.chimera;
 
 import org.springframework.jdbc.JdbcUpdateAffectedIncorrectNumberOfRowsException;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 
@@ -28,6 +29,8 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.EnumSet;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import org.dcache.acl.enums.AceFlags;
 import org.dcache.acl.enums.RsType;
@@ -182,8 +185,24 @@ public class H2FsSqlDriver extends FsSqlDriver {
                      });
     }
 
+    @Override
+    void queryAncestors(List<Long> inos, RowCallbackHandler handler) {
+        /* H2 ignores parameters within recursive queries, hence the inode
+         * numbers are inlined.
+         */
+        String in = inos.stream().map(String::valueOf).collect(Collectors.joining(","));
+        _jdbc.query(ancestorsQuery(in), handler);
+    }
+
     @Override
     public boolean isForeignKeyError(SQLException e) {
         return "23506".endsWith(e.getSQLState());
     }
+
+    @Override
+    public boolean isTransientError(SQLException e) {
+        /* HYT00 is a lock timeout, 90131 a concurrent update in MVStore.
+         */
+        return super.isTransientError(e) || "HYT00".equals(e.getSQLState()) || "90131".equals(e.getSQLState());
+    }
 }
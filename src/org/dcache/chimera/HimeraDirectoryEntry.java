@@ -22,7 +22,8 @@ public class HimeraDirectoryEntry {
 
     private final String _name;
     private final Stat _stat;
-    private final FsInode _inode;
+    private final FsInode _parent;
+    private FsInode _inode;
 
     public HimeraDirectoryEntry(String name, FsInode inode) throws ChimeraFsException {
         this(name, inode, inode.statCache());
@@ -30,11 +31,27 @@ public class HimeraDirectoryEntry {
 
     public HimeraDirectoryEntry(String name, FsInode inode, Stat stat) {
         _inode = inode;
+        _parent = null;
+        _name = name;
+        _stat = stat;
+    }
+
+    /**
+     * Creates an entry of directory {@code parent}. The inode object is only
+     * created if requested.
+     */
+    HimeraDirectoryEntry(FsInode parent, String name, Stat stat) {
+        _inode = null;
+        _parent = parent;
         _name = name;
         _stat = stat;
     }
 
     public FsInode getInode() {
+        if (_inode == null) {
+            _inode = new FsInode(_parent.getFs(), _stat.getIno(), FsInodeType.INODE, 0, _stat);
+            _inode.setParent(_parent);
+        }
         return _inode;
     }
 
@@ -0,0 +1,97 @@
+/*
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.chimera;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.dcache.acl.ACE;
+import org.dcache.acl.enums.AceFlags;
+import org.dcache.acl.enums.RsType;
+
+import static java.util.stream.Collectors.toList;
+import static org.dcache.acl.enums.AceFlags.*;
+
+/**
+ * The ACEs which new files and directories inherit from a directory, derived
+ * once from the ACL of the directory.
+ *
+ * @Immutable
+ */
+class InheritableAcl {
+
+    static final InheritableAcl EMPTY =
+            new InheritableAcl(Collections.emptyList(), Collections.emptyList());
+
+    /**
+     * Flags removed from ACEs inherited by files.
+     */
+    static final EnumSet<AceFlags> FILE_MASK = EnumSet.of(INHERIT_ONLY_ACE, DIRECTORY_INHERIT_ACE, FILE_INHERIT_ACE);
+
+    /**
+     * ACEs inherited by files have one of these flags.
+     */
+    static final EnumSet<AceFlags> FILE_FLAGS = EnumSet.of(FILE_INHERIT_ACE);
+
+    /**
+     * Flags removed from ACEs inherited by directories.
+     */
+    static final EnumSet<AceFlags> DIRECTORY_MASK = EnumSet.of(INHERIT_ONLY_ACE);
+
+    /**
+     * ACEs inherited by directories have one of these flags.
+     */
+    static final EnumSet<AceFlags> DIRECTORY_FLAGS = EnumSet.of(FILE_INHERIT_ACE, DIRECTORY_INHERIT_ACE);
+
+    private final List<ACE> _files;
+    private final List<ACE> _directories;
+
+    private InheritableAcl(List<ACE> files, List<ACE> directories) {
+        _files = files;
+        _directories = directories;
+    }
+
+    /**
+     * @param acl ACL of a directory
+     */
+    static InheritableAcl of(List<ACE> acl) {
+        List<ACE> files = inherit(acl, FILE_MASK, FILE_FLAGS);
+        List<ACE> directories = inherit(acl, DIRECTORY_MASK, DIRECTORY_FLAGS);
+        return files.isEmpty() && directories.isEmpty() ? EMPTY : new InheritableAcl(files, directories);
+    }
+
+    private static List<ACE> inherit(List<ACE> acl, EnumSet<AceFlags> mask, EnumSet<AceFlags> flags) {
+        int msk = valueOf(mask);
+        int flgs = valueOf(flags);
+        return Collections.unmodifiableList(acl.stream()
+                .filter(ace -> (ace.getFlags() & flgs) > 0)
+                .map(ace -> new ACE(ace.getType(), (ace.getFlags() | msk) ^ msk, ace.getAccessMsk(), ace.getWho(), ace.getWhoID()))
+                .collect(toList()));
+    }
+
+    private static int valueOf(EnumSet<AceFlags> flags) {
+        return flags.stream().mapToInt(AceFlags::getValue).reduce(0, (a, b) -> a | b);
+    }
+
+    /**
+     * @return the ACEs inherited by new objects of type {@code type}
+     */
+    List<ACE> inheritedBy(RsType type) {
+        return type == RsType.DIR ? _directories : _files;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.chimera;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The online locations of an inode, ordered by preference: higher priority
+ * first and, among locations of equal priority, the most recently accessed
+ * and then the most recently created first.
+ *
+ * @Immutable
+ */
+class InodeLocations {
+
+    private static final Comparator<StorageLocatable> PREFERENCE =
+            Comparator.comparingInt(StorageLocatable::priority)
+                    .thenComparingLong(StorageLocatable::accessTime)
+                    .thenComparingLong(StorageLocatable::creationTime)
+                    .reversed();
+
+    private final List<StorageLocatable> _locations;
+
+    InodeLocations(List<StorageLocatable> locations) {
+        List<StorageLocatable> sorted = new ArrayList<>(locations);
+        sorted.sort(PREFERENCE);
+        _locations = Collections.unmodifiableList(sorted);
+    }
+
+    /**
+     * @return all locations in order of preference
+     */
+    List<StorageLocatable> all() {
+        return _locations;
+    }
+
+    /**
+     * @return locations of type {@code type} in order of preference
+     */
+    List<StorageLocatable> ofType(int type) {
+        List<StorageLocatable> locations = new ArrayList<>();
+        for (int i = 0; i < _locations.size(); i++) {
+            StorageLocatable location = _locations.get(i);
+            if (location.type() == type) {
+                locations.add(location);
+            }
+        }
+        return locations;
+    }
+
+    /**
+     * @return the preferred location of type {@code type}, or null if there
+     * is none
+     */
+    StorageLocatable best(int type) {
+        for (int i = 0; i < _locations.size(); i++) {
+            StorageLocatable location = _locations.get(i);
+            if (location.type() == type) {
+                return location;
+            }
+        }
+        return null;
+    }
+}
@@ -21,9 +21,12 @@ import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.dao.ConcurrencyFailureException;
 import org.springframework.dao.DataAccessException;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.dao.NonTransientDataAccessResourceException;
@@ -33,27 +36,49 @@ import org.springframework.transaction.TransactionException;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.TransactionSystemException;
 import org.springframework.transaction.support.DefaultTransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.sql.DataSource;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.StringTokenizer;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.dcache.acl.ACE;
 import org.dcache.acl.enums.RsType;
+import org.dcache.chimera.RoutingDataSource.Workload;
+import org.dcache.chimera.metrics.FsMetrics;
+import org.dcache.chimera.metrics.SqlProfiler;
 import org.dcache.chimera.posix.Stat;
 import org.dcache.chimera.store.InodeStorageInformation;
 import org.dcache.chimera.store.Checksum;
@@ -96,6 +121,16 @@ public class JdbcFs implements FileSystemProvider {
      * minimal binary handle size which can be processed.
     */
     private static final int MIN_HANDLE_LEN = 4;
+
+    /**
+     * number of inodes fetched per query when streaming the inodes of a location.
+     */
+    private static final int LOCATION_PAGE_SIZE = 1000;
+
+    /**
+     * number of directories updated per transaction by setTagRecursive.
+     */
+    private static final int TAG_BATCH_SIZE = 1000;
     /**
      * SQL query engine
      */
@@ -106,10 +141,74 @@ public class JdbcFs implements FileSystemProvider {
      */
     private final DataSource _dbConnectionsPool;
 
+    /**
+     * Routes connections by workload, or null if the data source does not.
+     */
+    private final RoutingDataSource _router;
+
     private final PlatformTransactionManager _tx;
 
     private final TransactionDefinition _txDefinition = new DefaultTransactionDefinition();
 
+    /**
+     * Operation latencies and transaction counters.
+     */
+    private final FsMetrics _metrics = new FsMetrics();
+
+    /**
+     * Retry policy of transactions failed due to transient errors.
+     */
+    private volatile int _maxTransactionRetries = 3;
+    private volatile long _retryBaseDelay = TimeUnit.MILLISECONDS.toNanos(10);
+    private volatile long _retryMaxDelay = TimeUnit.MILLISECONDS.toNanos(200);
+
+    /**
+     * Optional coalescing of small updates into shared transactions.
+     */
+    private volatile GroupCommit<FallibleTransactionCallback<?>> _groupCommit;
+
+    /**
+     * Handling of access time only updates.
+     */
+    private volatile AtimePolicy _atimePolicy = AtimePolicy.STRICT;
+    private final AtimeBuffer _atimeBuffer = new AtimeBuffer();
+    private ScheduledExecutorService _atimeFlusher;
+
+    /**
+     * Optional in-process locks of directory entries.
+     */
+    private volatile NamespaceLocks _namespaceLocks;
+
+    /**
+     * Optional cache of the stat of inodes looked up by file handle.
+     */
+    private volatile Cache<Long, Stat> _handleCache;
+
+    /**
+     * Optional cache of the content of magic files.
+     */
+    private volatile MagicValueCache _magicValueCache;
+
+    /**
+     * Optional cache of directory tags.
+     */
+    private volatile TagCache _tagCache;
+
+    /**
+     * How new directories inherit the tags of their parent.
+     */
+    private volatile TagInheritance _tagInheritance = TagInheritance.COPY;
+
+    /**
+     * Optional cache of the ACEs inherited from directories.
+     */
+    private volatile Cache<Long, InheritableAcl> _aclCache;
+
+    /**
+     * Optional cache of the online locations of inodes.
+     */
+    private volatile Cache<Long, InodeLocations> _locationCache;
+
     /*
      * A dummy constant key force bay cache interface. the value doesn't
      * matter - only that it's the same value every time
@@ -178,6 +277,9 @@ public class JdbcFs implements FileSystemProvider {
     public JdbcFs(DataSource dataSource, PlatformTransactionManager txManager, int id) throws ChimeraFsException, SQLException
     {
         _dbConnectionsPool = dataSource;
+        _router = dataSource.isWrapperFor(RoutingDataSource.class)
+                ? dataSource.unwrap(RoutingDataSource.class)
+                : null;
         _fsId = id;
 
         _tx = txManager;
@@ -186,28 +288,78 @@ public class JdbcFs implements FileSystemProvider {
         _sqlDriver = FsSqlDriver.getDriverInstance(dataSource);
     }
 
+    /**
+     * Returns metrics registry of this file system. Use {@link FsMetrics#registerMBean}
+     * to expose it through JMX.
+     */
+    public FsMetrics getMetrics() {
+        return _metrics;
+    }
+
+    /**
+     * Enable or, if {@code profiler} is null, disable profiling of SQL statements
+     * issued by file system operations.
+     */
+    public void setSqlProfiler(SqlProfiler profiler) {
+        _sqlDriver._jdbc.setProfiler(profiler);
+        _metrics.setSqlProfiler(profiler);
+    }
+
     private FsInode getWormID() throws ChimeraFsException {
 
         return this.path2inode("/admin/etc/config");
     }
 
-    private <T> T inTransaction(FallibleTransactionCallback<T> callback)
+    /**
+     * Run {@code callback} in a transaction and record it as operation {@code op}.
+     * Transactions which fail due to a deadlock or a serialization failure are
+     * retried with a randomized, exponentially growing delay. Only the outermost
+     * transaction is retried, as a nested one cannot be rolled back independently.
+     */
+    private <T> T inTransaction(String op, FallibleTransactionCallback<T> callback)
             throws ChimeraFsException
+    {
+        long start = _metrics.enter(op);
+        Workload workload = route(Workload.WRITE);
+        try {
+            boolean outermost = !TransactionSynchronizationManager.isActualTransactionActive();
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    return inTransaction(callback);
+                } catch (ChimeraFsException | RuntimeException e) {
+                    if (!outermost || attempt > _maxTransactionRetries || !isTransient(e) || !backoff(attempt)) {
+                        throw e;
+                    }
+                    _metrics.retried(causeOf(e));
+                    _log.debug("Retrying {} after transient failure: {}", op, e.getMessage());
+                }
+            }
+        } catch (ChimeraFsException | RuntimeException e) {
+            _metrics.failed(op, start, e);
+            throw e;
+        } finally {
+            route(workload);
+            _metrics.exit(op, start);
+        }
+    }
+
+    private <T> T inTransaction(FallibleTransactionCallback<T> callback) throws ChimeraFsException
     {
         TransactionStatus status = _tx.getTransaction(_txDefinition);
         T result;
         try {
             result = callback.doInTransaction(status);
             _tx.commit(status);
+            if (status.isNewTransaction()) {
+                _metrics.committed();
+                written();
+            }
         } catch (ChimeraFsException e) {
             rollbackOnException(status, e);
             throw e;
-        } catch (NonTransientDataAccessResourceException e) {
-            rollbackOnException(status, e);
-            throw new BackEndErrorHimeraFsException(e.getMessage(), e);
         } catch (DataAccessException e) {
             rollbackOnException(status, e);
-            throw new IOHimeraFsException(e.getMessage(), e);
+            throw translate(e);
         } catch (Exception e) {
             rollbackOnException(status, e);
             throw e;
@@ -215,6 +367,242 @@ public class JdbcFs implements FileSystemProvider {
         return result;
     }
 
+    private static ChimeraFsException translate(DataAccessException e)
+    {
+        if (e instanceof NonTransientDataAccessResourceException) {
+            return new BackEndErrorHimeraFsException(e.getMessage(), e);
+        }
+        return new IOHimeraFsException(e.getMessage(), e);
+    }
+
+    /**
+     * Run {@code callback} in a transaction, holding the in-process locks of
+     * entry {@code name} in directory {@code parent}, if enabled.
+     */
+    private <T> T inTransaction(String op, FsInode parent, String name,
+                                FallibleTransactionCallback<T> callback) throws ChimeraFsException
+    {
+        return inTransaction(op, parent, name, parent, name, callback);
+    }
+
+    /**
+     * Run {@code callback} in a transaction, holding the in-process locks of
+     * two directory entries, if enabled. Locks are only taken by the outermost
+     * transaction, as waiting for them while holding a connection would defeat
+     * their purpose.
+     */
+    private <T> T inTransaction(String op, FsInode parent1, String name1, FsInode parent2, String name2,
+                                FallibleTransactionCallback<T> callback) throws ChimeraFsException
+    {
+        NamespaceLocks locks = _namespaceLocks;
+        if (locks == null || TransactionSynchronizationManager.isActualTransactionActive()) {
+            return inTransaction(op, callback);
+        }
+        try (NamespaceLocks.Held held = locks.lock(parent1.ino(), name1, parent2.ino(), name2)) {
+            return inTransaction(op, callback);
+        }
+    }
+
+    /**
+     * Serialize conflicting namespace mutations within this JVM before they
+     * acquire a database connection. Creation, removal and renaming of an
+     * entry given by parent directory and name are serialized per entry, and
+     * the number of such mutations running concurrently per directory is limited.
+     *
+     * @param stripes number of lock stripes, zero to disable
+     * @param directoryConcurrency maximal number of concurrent mutations per directory
+     */
+    public void setNamespaceLocks(int stripes, int directoryConcurrency)
+    {
+        _namespaceLocks = stripes > 0 ? new NamespaceLocks(stripes, directoryConcurrency) : null;
+    }
+
+    /**
+     * Run small, independent update {@code callback} as operation {@code op}.
+     * With group commit enabled, the update is committed together with those
+     * of other threads, unless the caller already runs a transaction.
+     */
+    private void inGroupTransaction(String op, FallibleTransactionCallback<?> callback)
+            throws ChimeraFsException
+    {
+        GroupCommit<FallibleTransactionCallback<?>> groupCommit = _groupCommit;
+        if (groupCommit == null || TransactionSynchronizationManager.isActualTransactionActive()) {
+            inTransaction(op, callback);
+        } else {
+            measure(op, Workload.WRITE, () -> {
+                groupCommit.submit(callback);
+                written();
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Enable group commit of setInodeAttributes, addInodeLocation, setInodeChecksum
+     * and setStorageInfo. Updates submitted by different threads within
+     * {@code window} are committed in one transaction; an update which fails
+     * is rolled back to a savepoint without affecting the others.
+     *
+     * @param window time to collect updates, zero to disable group commit
+     * @param maxGroupSize maximal number of updates per transaction
+     */
+    public synchronized void setGroupCommit(long window, TimeUnit unit, int maxGroupSize)
+    {
+        GroupCommit<FallibleTransactionCallback<?>> groupCommit = _groupCommit;
+        _groupCommit = window > 0
+                ? new GroupCommit<>(new GroupCommit.Committer<FallibleTransactionCallback<?>>()
+                    {
+                        @Override
+                        public List<Exception> commit(List<FallibleTransactionCallback<?>> updates)
+                                throws ChimeraFsException
+                        {
+                            return inTransaction("groupCommit", status -> {
+                                List<Exception> failures = new ArrayList<>(updates.size());
+                                for (FallibleTransactionCallback<?> update : updates) {
+                                    Object savepoint = status.createSavepoint();
+                                    try {
+                                        update.doInTransaction(status);
+                                        status.releaseSavepoint(savepoint);
+                                        failures.add(null);
+                                    } catch (ChimeraFsException | RuntimeException e) {
+                                        if (isTransient(e)) {
+                                            throw e;
+                                        }
+                                        status.rollbackToSavepoint(savepoint);
+                                        failures.add(e instanceof DataAccessException
+                                                     ? translate((DataAccessException) e) : e);
+                                    }
+                                }
+                                return failures;
+                            });
+                        }
+
+                        @Override
+                        public void commit(FallibleTransactionCallback<?> update) throws ChimeraFsException
+                        {
+                            inTransaction("groupCommit", update);
+                        }
+                    }, unit.toNanos(window), maxGroupSize)
+                : null;
+        if (groupCommit != null) {
+            groupCommit.close();
+        }
+    }
+
+    /**
+     * Set the number of retries and the delays between retries of transactions
+     * which failed due to a transient error. The delay before the n-th retry is
+     * chosen randomly between half and all of {@code min(maxDelay, baseDelay * 2^(n-1))}.
+     *
+     * @param maxRetries maximal number of retries, zero to disable retries
+     */
+    public void setTransactionRetryPolicy(int maxRetries, long baseDelay, long maxDelay, TimeUnit unit)
+    {
+        _maxTransactionRetries = maxRetries;
+        _retryBaseDelay = unit.toNanos(baseDelay);
+        _retryMaxDelay = unit.toNanos(maxDelay);
+    }
+
+    /**
+     * Returns true if {@code t} or any of its causes indicates that the
+     * transaction may succeed if retried.
+     */
+    boolean isTransient(Throwable t)
+    {
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConcurrencyFailureException) {
+                return true;
+            }
+            if (cause instanceof SQLException && _sqlDriver.isTransientError((SQLException) cause)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the SQLState of a transient failure or, if not caused by an
+     * SQLException, the type of the exception.
+     */
+    private static String causeOf(Throwable t)
+    {
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException && ((SQLException) cause).getSQLState() != null) {
+                return ((SQLException) cause).getSQLState();
+            }
+        }
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConcurrencyFailureException) {
+                return cause.getClass().getSimpleName();
+            }
+        }
+        return t.getClass().getSimpleName();
+    }
+
+    /**
+     * Sleep before retry {@code attempt}.
+     *
+     * @return false if interrupted
+     */
+    private boolean backoff(int attempt)
+    {
+        long delay = Math.min(_retryMaxDelay, _retryBaseDelay << Math.min(attempt - 1, 20));
+        try {
+            TimeUnit.NANOSECONDS.sleep(delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Set the workload of the current thread for connections of the routing data source.
+     *
+     * @return the previous workload
+     */
+    private Workload route(Workload workload)
+    {
+        return _router == null ? workload : _router.route(workload);
+    }
+
+    /**
+     * Record a commit by the current thread with the routing data source.
+     */
+    private void written()
+    {
+        if (_router != null) {
+            _router.written();
+        }
+    }
+
+    /**
+     * Run non-transactional read-only {@code operation} and record it as operation {@code op}.
+     */
+    private <T> T measure(String op, FallibleOperation<T> operation) throws ChimeraFsException
+    {
+        return measure(op, Workload.READ, operation);
+    }
+
+    /**
+     * Run non-transactional {@code operation} on a connection for {@code workload}
+     * and record it as operation {@code op}.
+     */
+    private <T> T measure(String op, Workload workload, FallibleOperation<T> operation) throws ChimeraFsException
+    {
+        long start = _metrics.enter(op);
+        Workload previous = route(workload);
+        try {
+            return operation.call();
+        } catch (ChimeraFsException | RuntimeException e) {
+            _metrics.failed(op, start, e);
+            throw e;
+        } finally {
+            route(previous);
+            _metrics.exit(op, start);
+        }
+    }
+
     /**
      * Perform a rollback, handling rollback exceptions properly.
      * @param status object representing the transaction
@@ -222,9 +610,16 @@ public class JdbcFs implements FileSystemProvider {
      * @throws TransactionException in case of a rollback error
      */
     private void rollbackOnException(TransactionStatus status, Throwable ex) throws TransactionException {
+        if (status.isCompleted()) {
+            // failed on commit
+            return;
+        }
         _log.debug("Initiating transaction rollback on application exception", ex);
         try {
             _tx.rollback(status);
+            if (status.isNewTransaction()) {
+                _metrics.rolledBack();
+            }
         } catch (TransactionSystemException e) {
             _log.error("Application exception overridden by rollback exception", ex);
             e.initApplicationException(ex);
@@ -247,12 +642,12 @@ public class JdbcFs implements FileSystemProvider {
     @Override
     public FsInode createLink(String src, String dest) throws ChimeraFsException {
         File file = new File(src);
-        return inTransaction(status -> createLink(path2inode(file.getParent()), file.getName(), dest));
+        return createLink(path2inode(file.getParent()), file.getName(), dest);
     }
 
     @Override
     public FsInode createLink(FsInode parent, String name, String dest) throws ChimeraFsException {
-        return inTransaction(status -> createLink(parent, name, 0, 0, 0644, dest.getBytes()));
+        return createLink(parent, name, 0, 0, 0644, dest.getBytes());
     }
 
     @Override
@@ -260,7 +655,7 @@ public class JdbcFs implements FileSystemProvider {
 
         checkNameLength(name);
 
-        return inTransaction(status -> {
+        return inTransaction("createLink", parent, name, status -> {
             FsInode inode;
             try {
                 Stat stat = parent.statCache();
@@ -269,10 +664,9 @@ public class JdbcFs implements FileSystemProvider {
                 // link is a regular file where content is a reference
                 _sqlDriver.setInodeIo(inode, true);
                 _sqlDriver.write(inode, 0, 0, dest, 0, dest.length);
-                _sqlDriver.copyAcl(parent, inode, RsType.FILE,
-                                   EnumSet.of(INHERIT_ONLY_ACE, DIRECTORY_INHERIT_ACE, FILE_INHERIT_ACE),
-                                   EnumSet.of(FILE_INHERIT_ACE));
+                inheritAcl(parent, inode, RsType.FILE);
                 fillIdCaches(inode);
+                invalidateStat(parent);
             } catch (DuplicateKeyException e) {
                 throw new FileExistsChimeraFsException(e);
             }
@@ -295,11 +689,12 @@ public class JdbcFs implements FileSystemProvider {
 
         checkNameLength(name);
 
-        return inTransaction(status -> {
+        return inTransaction("createHLink", parent, name, status -> {
             try {
                 _sqlDriver.createEntryInParent(parent, name, inode);
                 _sqlDriver.incNlink(inode);
                 _sqlDriver.incNlink(parent);
+                invalidateStat(parent, inode);
             } catch (DuplicateKeyException e) {
                 throw new FileExistsChimeraFsException(e);
             }
@@ -310,17 +705,17 @@ public class JdbcFs implements FileSystemProvider {
     @Override
     public FsInode createFile(String path) throws ChimeraFsException {
         File file = new File(path);
-        return inTransaction(status -> createFile(path2inode(file.getParent()), file.getName()));
+        return createFile(path2inode(file.getParent()), file.getName());
     }
 
     @Override
     public FsInode createFile(FsInode parent, String name) throws ChimeraFsException {
-        return inTransaction(status -> createFile(parent, name, 0, 0, 0644));
+        return createFile(parent, name, 0, 0, 0644);
     }
 
     @Override
     public FsInode createFileLevel(FsInode inode, int level) throws ChimeraFsException {
-        return inTransaction(status -> _sqlDriver.createLevel(inode, 0, 0, 0644 | UnixPermission.S_IFREG, level));
+        return inTransaction("createFileLevel", status -> _sqlDriver.createLevel(inode, 0, 0, 0644 | UnixPermission.S_IFREG, level));
     }
 
     @Override
@@ -348,7 +743,7 @@ public class JdbcFs implements FileSystemProvider {
 
             if (name.startsWith(".(use)(") && (cmd.length == 3)) {
                 int level = Integer.parseInt(cmd[1]);
-                return inTransaction(status -> {
+                return inTransaction("createFile", status -> {
                     FsInode useInode = _sqlDriver.inodeOf(parent, cmd[2], STAT);
                     if (useInode == null) {
                         throw new FileNotFoundHimeraFsException(cmd[2]);
@@ -369,7 +764,7 @@ public class JdbcFs implements FileSystemProvider {
                 if (accessLevel == 0) {
                     return id2inode(cmd[1], NO_STAT);
                 }
-                return inTransaction(status -> {
+                return inTransaction("createFile", status -> {
                     try {
                         FsInode accessInode = id2inode(cmd[1], STAT);
                         Stat stat = accessInode.statCache();
@@ -388,7 +783,7 @@ public class JdbcFs implements FileSystemProvider {
         checkNameLength(name);
         checkArgument(UnixPermission.getType(type) != UnixPermission.S_IFDIR);
 
-        return inTransaction(status -> {
+        return inTransaction("createFile", parent, name, status -> {
             try {
                 Stat parentStat = parent.statCache();
                 if (parentStat == null) {
@@ -401,10 +796,9 @@ public class JdbcFs implements FileSystemProvider {
 
                 int gid = (parentStat.getMode() & UnixPermission.S_ISGID) != 0 ? parentStat.getGid() : group;
                 FsInode inode = _sqlDriver.createFile(parent, name, owner, gid, mode, type);
-                _sqlDriver.copyAcl(parent, inode, RsType.FILE,
-                                   EnumSet.of(INHERIT_ONLY_ACE, DIRECTORY_INHERIT_ACE, FILE_INHERIT_ACE),
-                                   EnumSet.of(FILE_INHERIT_ACE));
+                inheritAcl(parent, inode, RsType.FILE);
                 fillIdCaches(inode);
+                invalidateStat(parent);
                 return inode;
             } catch (DuplicateKeyException e) {
                 throw new FileExistsChimeraFsException(e);
@@ -430,7 +824,7 @@ public class JdbcFs implements FileSystemProvider {
         checkNameLength(name);
         checkArgument((type & UnixPermission.S_IFDIR) == 0);
 
-        inTransaction(status -> {
+        inTransaction("createFileWithId", parent, name, status -> {
             try {
                 if (!parent.exists()) {
                     throw new FileNotFoundHimeraFsException("parent=" + parent.toString());
@@ -441,10 +835,9 @@ public class JdbcFs implements FileSystemProvider {
                 Stat stat = parent.statCache();
                 int gid = (stat.getMode() & UnixPermission.S_ISGID) != 0 ? stat.getGid() : group;
                 FsInode inode = _sqlDriver.createFileWithId(parent, id, name, owner, gid, mode, type);
-                _sqlDriver.copyAcl(parent, inode, RsType.FILE,
-                                   EnumSet.of(INHERIT_ONLY_ACE, DIRECTORY_INHERIT_ACE, FILE_INHERIT_ACE),
-                                   EnumSet.of(FILE_INHERIT_ACE));
+                inheritAcl(parent, inode, RsType.FILE);
                 fillIdCaches(inode);
+                invalidateStat(parent);
                 return null;
             } catch (DuplicateKeyException e) {
                 throw new FileExistsChimeraFsException(e);
@@ -463,12 +856,22 @@ public class JdbcFs implements FileSystemProvider {
 
     @Override
     public String[] listDir(FsInode dir) throws ChimeraFsException {
-        return _sqlDriver.listDir(dir);
+        return measure("listDir", Workload.SCAN, () -> _sqlDriver.listDir(dir));
     }
 
     @Override
     public DirectoryStreamB<HimeraDirectoryEntry> newDirectoryStream(FsInode dir) throws IOHimeraFsException {
-        return _sqlDriver.newDirectoryStream(dir);
+        long start = _metrics.enter("newDirectoryStream");
+        Workload workload = route(Workload.SCAN);
+        try {
+            return _sqlDriver.newDirectoryStream(dir);
+        } catch (RuntimeException e) {
+            _metrics.failed("newDirectoryStream", start, e);
+            throw e;
+        } finally {
+            route(workload);
+            _metrics.exit("newDirectoryStream", start);
+        }
     }
 
     @Override
@@ -481,30 +884,32 @@ public class JdbcFs implements FileSystemProvider {
             throw new InvalidArgumentChimeraException("Cannot delete file system root.");
         }
 
-        inTransaction(status -> {
-            FsInode parent = path2inode(parentPath);
-            String name = filePath.getName();
+        FsInode parent = path2inode(parentPath);
+        String name = filePath.getName();
+        inTransaction("remove", parent, name, status -> {
             FsInode inode = _sqlDriver.inodeOf(parent, name, STAT);
             if (inode == null || !_sqlDriver.remove(parent, name, inode)) {
                 throw new FileNotFoundHimeraFsException(path);
             }
+            invalidateStat(parent, inode);
             return null;
         });
     }
 
     @Override
     public void remove(FsInode directory, String name, FsInode inode) throws ChimeraFsException {
-        inTransaction(status -> {
+        inTransaction("remove", directory, name, status -> {
             if (!_sqlDriver.remove(directory, name, inode)) {
                 throw new FileNotFoundHimeraFsException(name);
             }
+            invalidateStat(directory, inode);
             return null;
         });
     }
 
     @Override
     public void remove(FsInode inode) throws ChimeraFsException {
-        inTransaction(status -> {
+        inTransaction("remove", status -> {
             if (inode.type() != FsInodeType.INODE) {
                 // now allowed
                 throw new InvalidArgumentChimeraException("Not a file.");
@@ -518,7 +923,9 @@ public class JdbcFs implements FileSystemProvider {
             if (inode.isDirectory() && inode.statCache().getNlink() > 2) {
                 throw new DirNotEmptyHimeraFsException("Directory is not empty");
             }
-            _sqlDriver.remove(inode);
+            List<FsInode> parents = _sqlDriver.remove(inode);
+            invalidateStat(inode);
+            invalidateStat(parents.toArray(new FsInode[parents.size()]));
             return null;
         });
     }
@@ -535,15 +942,43 @@ public class JdbcFs implements FileSystemProvider {
 
     @Override
     public Stat stat(FsInode inode, int level) throws ChimeraFsException {
-        Stat stat = _sqlDriver.stat(inode, level);
-        if (stat == null) {
-            throw new FileNotFoundHimeraFsException(inode.toString());
-        }
-        if (level == 0) {
-            _inoCache.put(stat.getId(), stat.getIno());
-            _idCache.put(stat.getIno(), stat.getId());
+        return measure("stat", () -> {
+            Stat stat = _sqlDriver.stat(inode, level);
+            if (stat == null) {
+                throw new FileNotFoundHimeraFsException(inode.toString());
+            }
+            if (level == 0) {
+                _inoCache.put(stat.getId(), stat.getIno());
+                _idCache.put(stat.getIno(), stat.getId());
+            }
+            return stat;
+        });
+    }
+
+    @Override
+    public Stat stat(FsInode inode, EnumSet<Stat.StatAttributes> attributes) throws ChimeraFsException {
+        return measure("stat", () -> {
+            Stat stat = _sqlDriver.stat(inode, attributes);
+            if (stat == null) {
+                throw new FileNotFoundHimeraFsException(inode.toString());
+            }
+            return stat;
+        });
+    }
+
+    @Override
+    public Map<FsInode, Stat> stat(Collection<FsInode> inodes) throws ChimeraFsException {
+        Map<Long, Stat> stats = measure("stat", () -> _sqlDriver.stat(inodes));
+        Map<FsInode, Stat> result = new LinkedHashMap<>();
+        for (FsInode inode : inodes) {
+            Stat stat = stats.get(inode.ino());
+            if (stat != null) {
+                _inoCache.put(stat.getId(), stat.getIno());
+                _idCache.put(stat.getIno(), stat.getId());
+                result.put(inode, stat);
+            }
         }
-        return stat;
+        return result;
     }
 
     @Override
@@ -551,7 +986,7 @@ public class JdbcFs implements FileSystemProvider {
         int li = path.lastIndexOf('/');
         String file = path.substring(li + 1);
         String dir = (li > 1) ? path.substring(0, li) : "/";
-        return inTransaction(status -> mkdir(path2inode(dir), file));
+        return mkdir(path2inode(dir), file);
     }
 
     @Override
@@ -563,7 +998,7 @@ public class JdbcFs implements FileSystemProvider {
     public FsInode mkdir(FsInode parent, String name, int owner, int group, int mode) throws ChimeraFsException {
         checkNameLength(name);
 
-        return inTransaction(status -> {
+        return inTransaction("mkdir", parent, name, status -> {
             try {
                 if (!parent.isDirectory()) {
                     throw new NotDirChimeraException(parent);
@@ -580,10 +1015,12 @@ public class JdbcFs implements FileSystemProvider {
                 }
 
                 FsInode inode = _sqlDriver.mkdir(parent, name, owner, gid, perm);
-                _sqlDriver.copyTags(parent, inode);
-                _sqlDriver.copyAcl(parent, inode, RsType.DIR, EnumSet.of(INHERIT_ONLY_ACE),
-                                   EnumSet.of(FILE_INHERIT_ACE, DIRECTORY_INHERIT_ACE));
+                if (_tagInheritance == TagInheritance.COPY) {
+                    _sqlDriver.copyTags(parent, inode);
+                }
+                inheritAcl(parent, inode, RsType.DIR);
                 fillIdCaches(inode);
+                invalidateStat(parent);
                 return inode;
             } catch (DuplicateKeyException e) {
                 throw new FileExistsChimeraFsException(name, e);
@@ -591,6 +1028,33 @@ public class JdbcFs implements FileSystemProvider {
         });
     }
 
+    /**
+     * Adds the ACEs which {@code inode} of type {@code type} inherits from
+     * directory {@code parent} to the ACL of {@code inode}.
+     */
+    private void inheritAcl(FsInode parent, FsInode inode, RsType type)
+    {
+        Cache<Long, InheritableAcl> cache = _aclCache;
+        if (cache == null) {
+            if (type == RsType.DIR) {
+                _sqlDriver.copyAcl(parent, inode, type, InheritableAcl.DIRECTORY_MASK, InheritableAcl.DIRECTORY_FLAGS);
+            } else {
+                _sqlDriver.copyAcl(parent, inode, type, InheritableAcl.FILE_MASK, InheritableAcl.FILE_FLAGS);
+            }
+            return;
+        }
+
+        InheritableAcl acl = cache.getIfPresent(parent.ino());
+        if (acl == null) {
+            acl = InheritableAcl.of(_sqlDriver.readAcl(parent));
+            cache.put(parent.ino(), acl);
+        }
+        List<ACE> inherited = acl.inheritedBy(type);
+        if (!inherited.isEmpty()) {
+            _sqlDriver.writeAcl(inode, type, inherited);
+        }
+    }
+
     private void fillIdCaches(FsInode inode)
     {
         Stat stat = inode.getStatCache();
@@ -607,7 +1071,7 @@ public class JdbcFs implements FileSystemProvider {
     {
         checkNameLength(name);
 
-        return inTransaction(status -> {
+        return inTransaction("mkdir", parent, name, status -> {
             try {
                 if (!parent.isDirectory()) {
                     throw new NotDirChimeraException(parent);
@@ -625,6 +1089,7 @@ public class JdbcFs implements FileSystemProvider {
                 _sqlDriver.createTags(inode, owner, gid, perm & 0666, tags);
                 _sqlDriver.writeAcl(inode, RsType.DIR, acl);
                 fillIdCaches(inode);
+                invalidateStat(parent);
                 return inode;
             } catch (DuplicateKeyException e) {
                 throw new FileExistsChimeraFsException(name, e);
@@ -639,16 +1104,22 @@ public class JdbcFs implements FileSystemProvider {
 
     @Override
     public FsInode path2inode(String path, FsInode startFrom) throws ChimeraFsException {
-        FsInode inode = _sqlDriver.path2inode(startFrom, path);
-        if (inode == null) {
-            throw new FileNotFoundHimeraFsException(path);
-        }
-        fillIdCaches(inode);
-        return inode;
+        return measure("path2inode", () -> {
+            FsInode inode = _sqlDriver.path2inode(startFrom, path);
+            if (inode == null) {
+                throw new FileNotFoundHimeraFsException(path);
+            }
+            fillIdCaches(inode);
+            return inode;
+        });
     }
 
     @Override
     public String inode2id(FsInode inode) throws ChimeraFsException {
+        return measure("inode2id", () -> inode2id0(inode));
+    }
+
+    private String inode2id0(FsInode inode) throws ChimeraFsException {
         try {
             return _idCache.get(inode.ino(), () -> {
                 String id = _sqlDriver.getId(inode);
@@ -666,6 +1137,10 @@ public class JdbcFs implements FileSystemProvider {
 
     @Override
     public FsInode id2inode(String id, StatCacheOption option) throws ChimeraFsException {
+        return measure("id2inode", () -> id2inode0(id, option));
+    }
+
+    private FsInode id2inode0(String id, StatCacheOption option) throws ChimeraFsException {
         if (option == NO_STAT) {
             try {
                 return new FsInode(this, _inoCache.get(id, () -> {
@@ -700,16 +1175,22 @@ public class JdbcFs implements FileSystemProvider {
     public List<FsInode> path2inodes(String path, FsInode startFrom)
         throws ChimeraFsException
     {
-        List<FsInode> inodes = _sqlDriver.path2inodes(startFrom, path);
-        if (inodes.isEmpty()) {
-            throw new FileNotFoundHimeraFsException(path);
-        }
-        fillIdCaches(inodes.get(inodes.size() - 1));
-        return inodes;
+        return measure("path2inodes", () -> {
+            List<FsInode> inodes = _sqlDriver.path2inodes(startFrom, path);
+            if (inodes.isEmpty()) {
+                throw new FileNotFoundHimeraFsException(path);
+            }
+            fillIdCaches(inodes.get(inodes.size() - 1));
+            return inodes;
+        });
     }
 
     @Override
     public FsInode inodeOf(FsInode parent, String name, StatCacheOption cacheOption) throws ChimeraFsException {
+        return measure("inodeOf", () -> inodeOf0(parent, name, cacheOption));
+    }
+
+    private FsInode inodeOf0(FsInode parent, String name, StatCacheOption cacheOption) throws ChimeraFsException {
         // only if it's PNFS command
         if (name.startsWith(".(")) {
 
@@ -938,66 +1419,168 @@ public class JdbcFs implements FileSystemProvider {
      */
     @Override
     public String inode2path(FsInode inode, FsInode startFrom) throws ChimeraFsException {
-        return _sqlDriver.inode2path(inode, startFrom);
+        return measure("inode2path", () -> _sqlDriver.inode2path(inode, startFrom));
     }
 
     @Override
     public boolean removeFileMetadata(String path, int level) throws ChimeraFsException {
-        return inTransaction(status -> _sqlDriver.removeInodeLevel(path2inode(path), level));
+        return inTransaction("removeFileMetadata", status -> _sqlDriver.removeInodeLevel(path2inode(path), level));
     }
 
     @Override
     public FsInode getParentOf(FsInode inode) throws ChimeraFsException {
-        return _sqlDriver.getParentOf(inode);
+        return measure("getParentOf", () -> _sqlDriver.getParentOf(inode));
+    }
+
+    /**
+     * Set the policy for updates which only change the access time of an inode.
+     *
+     * @param interval with {@link AtimePolicy#COARSE}, the interval at which
+     * buffered access times are written; ignored otherwise
+     */
+    public synchronized void setAtimePolicy(AtimePolicy policy, long interval, TimeUnit unit)
+    {
+        checkArgument(policy != AtimePolicy.COARSE || interval > 0,
+                      "Flush interval must be positive: %s", interval);
+        if (_atimeFlusher != null) {
+            _atimeFlusher.shutdown();
+            _atimeFlusher = null;
+        }
+        flushAtimes();
+        if (policy == AtimePolicy.COARSE) {
+            _atimeFlusher = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("atime-flusher-thread-%d").setDaemon(true).build());
+            _atimeFlusher.scheduleWithFixedDelay(this::flushAtimes, interval, interval, unit);
+        }
+        _atimePolicy = policy;
+    }
+
+    /**
+     * Write buffered access times.
+     */
+    void flushAtimes()
+    {
+        Map<Long, Long> atimes = _atimeBuffer.drain();
+        if (!atimes.isEmpty()) {
+            try {
+                inTransaction("flushAtimes", status -> {
+                    _sqlDriver.setInodeATimes(atimes);
+                    return null;
+                });
+            } catch (ChimeraFsException | RuntimeException e) {
+                _log.warn("Failed to update access time of {} inodes: {}", atimes.size(), e.toString());
+            }
+        }
+    }
+
+    /**
+     * Apply an update of the access time of {@code inode} according to the
+     * access time policy.
+     *
+     * @return false if the update is to be applied like any other attribute update
+     */
+    private boolean setInodeATime(FsInode inode, int level, Stat stat) throws ChimeraFsException
+    {
+        AtimePolicy policy = _atimePolicy;
+        if (policy == AtimePolicy.STRICT || level != 0 || inode.type() != FsInodeType.INODE
+                || !stat.isDefinedOnly(Stat.StatAttributes.ATIME)) {
+            return false;
+        }
+        switch (policy) {
+        case RELATIME:
+            inGroupTransaction("setInodeAttributes", status -> {
+                _sqlDriver.setInodeRelATime(inode, stat.getATime());
+                invalidateStat(inode);
+                return null;
+            });
+            break;
+        case COARSE:
+            _atimeBuffer.record(inode.ino(), stat.getATime());
+            break;
+        case OFF:
+            break;
+        }
+        return true;
     }
 
     @Override
     public void setInodeAttributes(FsInode inode, int level, Stat stat) throws ChimeraFsException {
-        inTransaction(status -> {
+        if (setInodeATime(inode, level, stat)) {
+            return;
+        }
+        inGroupTransaction("setInodeAttributes", status -> {
             switch (inode.type()) {
             case INODE:
             case PSET:
                 boolean applied = _sqlDriver.setInodeAttributes(inode, level, stat);
                 if (!applied) {
-                    /**
-                     * there are two cases why update can fail: 1. inode
-                     * does not exists 2. we try to set a size on a non file
-                     * object
-                     */
-                    Stat s = _sqlDriver.stat(inode);
-                    if (s == null) {
-                        throw new FileNotFoundHimeraFsException();
-                    }
-                    if ((s.getMode() & UnixPermission.F_TYPE) == UnixPermission.S_IFDIR) {
-                        throw new IsDirChimeraException(inode);
-                    }
-                    throw new InvalidArgumentChimeraException();
+                    throw attributeUpdateFailure(inode, -1);
                 }
+                invalidateStat(inode);
                 break;
             case TAG:
+                long tagId = tagIdOf((FsInode_TAG) inode);
                 if (stat.isDefined(Stat.StatAttributes.MODE)) {
-                    _sqlDriver.setTagMode((FsInode_TAG) inode, stat.getMode());
+                    _sqlDriver.setTagMode(tagId, stat.getMode());
                 }
                 if (stat.isDefined(Stat.StatAttributes.UID)) {
-                    _sqlDriver.setTagOwner((FsInode_TAG) inode, stat.getUid());
+                    _sqlDriver.setTagOwner(tagId, stat.getUid());
                 }
                 if (stat.isDefined(Stat.StatAttributes.GID)) {
-                    _sqlDriver.setTagOwnerGroup((FsInode_TAG) inode, stat.getGid());
+                    _sqlDriver.setTagOwnerGroup(tagId, stat.getGid());
                 }
                 break;
             }
             return null;
         });
+        if (inode.type() == FsInodeType.TAG) {
+            invalidateTags(cache -> cache.invalidate(((FsInode_TAG) inode).tagName()));
+        }
     }
 
     @Override
-    public boolean isIoEnabled(FsInode inode) throws ChimeraFsException {
-        return _sqlDriver.isIoEnabled(inode);
+    public long setInodeAttributes(FsInode inode, Stat stat, long expectedGeneration) throws ChimeraFsException {
+        if (inode.type() != FsInodeType.INODE && inode.type() != FsInodeType.PSET) {
+            throw new InvalidArgumentChimeraException("Conditional update of " + inode.type() + " not supported");
+        }
+        return inTransaction("setInodeAttributes", status -> {
+            if (!_sqlDriver.setInodeAttributes(inode, stat, expectedGeneration)) {
+                throw attributeUpdateFailure(inode, expectedGeneration);
+            }
+            invalidateStat(inode);
+            return expectedGeneration + 1;
+        });
+    }
+
+    /**
+     * Determine why an update of the attributes of {@code inode} did not apply.
+     * An update fails if the inode does not exist, if it has a generation other
+     * than {@code expectedGeneration} or if a size is set on a non-file object.
+     *
+     * @param expectedGeneration expected generation of a conditional update, or -1
+     */
+    private ChimeraFsException attributeUpdateFailure(FsInode inode, long expectedGeneration) {
+        Stat s = _sqlDriver.stat(inode, EnumSet.of(Stat.StatAttributes.MODE, Stat.StatAttributes.GENERATION));
+        if (s == null) {
+            return new FileNotFoundHimeraFsException();
+        }
+        if (expectedGeneration >= 0 && s.getGeneration() != expectedGeneration) {
+            return new GenerationMismatchChimeraFsException(inode, expectedGeneration, s.getGeneration());
+        }
+        if ((s.getMode() & UnixPermission.F_TYPE) == UnixPermission.S_IFDIR) {
+            return new IsDirChimeraException(inode);
+        }
+        return new InvalidArgumentChimeraException();
+    }
+
+    @Override
+    public boolean isIoEnabled(FsInode inode) throws ChimeraFsException {
+        return measure("isIoEnabled", () -> _sqlDriver.isIoEnabled(inode));
     }
 
     @Override
     public void setInodeIo(FsInode inode, boolean enable) throws ChimeraFsException {
-        inTransaction(status -> {
+        inTransaction("setInodeIo", status -> {
             _sqlDriver.setInodeIo(inode, enable);
             return null;
         });
@@ -1009,13 +1592,15 @@ public class JdbcFs implements FileSystemProvider {
 
     @Override
     public int write(FsInode inode, int level, long beginIndex, byte[] data, int offset, int len) throws ChimeraFsException {
-        return inTransaction(status -> {
+        return inTransaction("write", status -> {
             try {
                 if (level == 0 && !inode.isIoEnabled()) {
                     _log.debug("{}: IO (write) not allowed", inode);
                     return -1;
                 }
-                return _sqlDriver.write(inode, level, beginIndex, data, offset, len);
+                int n = _sqlDriver.write(inode, level, beginIndex, data, offset, len);
+                invalidateStat(inode);
+                return n;
             } catch (ForeignKeyViolationException e) {
                 throw new FileNotFoundHimeraFsException(e);
             }
@@ -1028,11 +1613,13 @@ public class JdbcFs implements FileSystemProvider {
 
     @Override
     public int read(FsInode inode, int level, long beginIndex, byte[] data, int offset, int len) throws ChimeraFsException {
-        if (level == 0 && !inode.isIoEnabled()) {
-            _log.debug("{}: IO(read) not allowed", inode);
-            return -1;
-        }
-        return _sqlDriver.read(inode, level, beginIndex, data, offset, len);
+        return measure("read", () -> {
+            if (level == 0 && !inode.isIoEnabled()) {
+                _log.debug("{}: IO(read) not allowed", inode);
+                return -1;
+            }
+            return _sqlDriver.read(inode, level, beginIndex, data, offset, len);
+        });
     }
 
     @Override
@@ -1052,7 +1639,7 @@ public class JdbcFs implements FileSystemProvider {
     public boolean rename(FsInode inode, FsInode srcDir, String source, FsInode destDir, String dest) throws ChimeraFsException {
         checkNameLength(dest);
 
-        return inTransaction(status -> {
+        boolean renamed = inTransaction("rename", srcDir, source, destDir, dest, status -> {
             if (!destDir.isDirectory()) {
                 throw new NotDirChimeraException(destDir);
             }
@@ -1072,16 +1659,37 @@ public class JdbcFs implements FileSystemProvider {
                 }
 
                 if (!_sqlDriver.remove(destDir, dest, destInode)) {
-                    // Concurrent modification - retry
-                    return rename(inode, srcDir, source, destDir, dest);
+                    // Concurrent modification - retry the transaction
+                    throw new ConcurrencyFailureException("Concurrent modification of " + dest);
                 }
+                invalidateStat(destInode);
+            }
+
+            /* With lazy tag inheritance, a directory moved to another parent
+             * keeps the tags it inherited so far. The cached tags of the
+             * directories below it were resolved through the old parent.
+             */
+            if (_tagInheritance == TagInheritance.LAZY && srcDir.ino() != destDir.ino() && inode.isDirectory()) {
+                Map<String, DirectoryTag> inherited = lazyTags(srcDir, null);
+                inherited.keySet().removeAll(_sqlDriver.getTags(inode).keySet());
+                _sqlDriver.inheritTags(inode, inherited);
+                invalidateTags(TagCache::invalidateAll);
             }
 
             if (!_sqlDriver.rename(inode, srcDir, source, destDir, dest)) {
                 throw new FileNotFoundHimeraFsException(source);
             }
+            invalidateStat(inode, srcDir, destDir);
             return true;
         });
+
+        /* Renaming a directory changes the path of all entries below it.
+         */
+        MagicValueCache cache = _magicValueCache;
+        if (renamed && cache != null) {
+            cache.invalidateAll(FsInodeType.PATHOF);
+        }
+        return renamed;
     }
 
     /////////////////////////////////////////////////////////////////////
@@ -1091,30 +1699,133 @@ public class JdbcFs implements FileSystemProvider {
     ////////////////////////////////////////////////////////////////////
     @Override
     public List<StorageLocatable> getInodeLocations(FsInode inode, int type) throws ChimeraFsException {
-        return _sqlDriver.getInodeLocations(inode, type);
+        InodeLocations locations = cachedLocations(inode);
+        if (locations != null) {
+            return locations.ofType(type);
+        }
+        return measure("getInodeLocations", () -> _sqlDriver.getInodeLocations(inode, type));
     }
 
     @Override
     public List<StorageLocatable> getInodeLocations(FsInode inode) throws ChimeraFsException {
-        return _sqlDriver.getInodeLocations(inode);
+        InodeLocations locations = cachedLocations(inode);
+        if (locations != null) {
+            return new ArrayList<>(locations.all());
+        }
+        return measure("getInodeLocations", () -> _sqlDriver.getInodeLocations(inode));
+    }
+
+    @Override
+    public StorageLocatable getBestInodeLocation(FsInode inode, int type) throws ChimeraFsException {
+        InodeLocations locations = cachedLocations(inode);
+        if (locations == null) {
+            locations = new InodeLocations(measure("getInodeLocations", () -> _sqlDriver.getInodeLocations(inode, type)));
+        }
+        return locations.best(type);
+    }
+
+    @Override
+    public Stream<FsInode> getInodesAtLocation(int type, String location, StatCacheOption stat) {
+        return getInodesAtLocation(type, location, stat, LOCATION_PAGE_SIZE);
+    }
+
+    Stream<FsInode> getInodesAtLocation(int type, String location, StatCacheOption stat, int pageSize) {
+        Iterator<FsInode> inodes = new AbstractIterator<FsInode>() {
+            private Iterator<FsInode> _page = Collections.emptyIterator();
+            private long _last;
+            private boolean _exhausted;
+
+            @Override
+            protected FsInode computeNext() {
+                if (!_page.hasNext()) {
+                    if (_exhausted) {
+                        return endOfData();
+                    }
+                    List<FsInode> page;
+                    try {
+                        page = measure("getInodesAtLocation",
+                                       () -> _sqlDriver.getInodesAtLocation(JdbcFs.this, type, location, _last, pageSize, stat));
+                    } catch (ChimeraFsException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    _exhausted = page.size() < pageSize;
+                    if (page.isEmpty()) {
+                        return endOfData();
+                    }
+                    _last = page.get(page.size() - 1).ino();
+                    _page = page.iterator();
+                }
+                return _page.next();
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(inodes,
+                Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Returns the locations of {@code inode} from the location cache, loading
+     * them on a miss. Returns null if the cache is disabled or cannot be used
+     * within the current transaction.
+     */
+    private InodeLocations cachedLocations(FsInode inode) throws ChimeraFsException {
+        Cache<Long, InodeLocations> cache = _locationCache;
+        if (cache == null || TransactionSynchronizationManager.isActualTransactionActive()) {
+            return null;
+        }
+        InodeLocations locations = cache.getIfPresent(inode.ino());
+        if (locations == null) {
+            locations = new InodeLocations(measure("getInodeLocations", () -> _sqlDriver.getInodeLocations(inode)));
+            cache.put(inode.ino(), locations);
+        }
+        return locations;
+    }
+
+    private void invalidateLocations(FsInode inode) {
+        Cache<Long, InodeLocations> cache = _locationCache;
+        if (cache != null) {
+            invalidate(() -> cache.invalidate(inode.ino()));
+        }
+    }
+
+    /**
+     * Cache the online locations of inodes. The cache is kept consistent with
+     * location updates through this instance; updates by other instances
+     * become visible after at most {@code ttl}.
+     *
+     * @param size maximal number of inodes to cache, zero to disable
+     * @param ttl time after which the locations of an inode expire
+     * @param unit unit of {@code ttl}
+     */
+    public void setLocationCache(long size, long ttl, TimeUnit unit)
+    {
+        _locationCache = size > 0
+                ? CacheBuilder.newBuilder()
+                        .maximumSize(size)
+                        .expireAfterWrite(ttl, unit)
+                        .build()
+                : null;
     }
 
     @Override
     public void addInodeLocation(FsInode inode, int type, String location) throws ChimeraFsException {
-        inTransaction(status -> {
+        inGroupTransaction("addInodeLocation", status -> {
             try {
                 _sqlDriver.addInodeLocation(inode, type, location);
             } catch (ForeignKeyViolationException e) {
                 throw new FileNotFoundHimeraFsException(e);
             }
+            invalidateLocations(inode);
+            invalidateMagicValue(inode.ino(), FsInodeType.PLOC);
             return null;
         });
     }
 
     @Override
     public void clearInodeLocation(FsInode inode, int type, String location) throws ChimeraFsException {
-        inTransaction(status -> {
+        inTransaction("clearInodeLocation", status -> {
             _sqlDriver.clearInodeLocation(inode, type, location);
+            invalidateLocations(inode);
+            invalidateMagicValue(inode.ino(), FsInodeType.PLOC);
             return null;
         });
     }
@@ -1126,12 +1837,64 @@ public class JdbcFs implements FileSystemProvider {
     ////////////////////////////////////////////////////////////////////
     @Override
     public String[] tags(FsInode inode) throws ChimeraFsException {
-        return _sqlDriver.tags(inode);
+        Map<String, DirectoryTag> tags = resolvedTags(inode);
+        if (tags != null) {
+            return tags.keySet().toArray(new String[tags.size()]);
+        }
+        return measure("tags", () -> _sqlDriver.tags(inode));
     }
 
     @Override
     public Map<String, byte[]> getAllTags(FsInode inode) throws ChimeraFsException {
-        return _sqlDriver.getAllTags(inode);
+        Map<String, DirectoryTag> tags = resolvedTags(inode);
+        if (tags != null) {
+            return valuesOf(tags);
+        }
+        return measure("getAllTags", () -> _sqlDriver.getAllTags(inode));
+    }
+
+    @Override
+    public Map<FsInode, Map<String, byte[]>> getAllTags(Collection<FsInode> inodes) throws ChimeraFsException {
+        TagCache cache = TransactionSynchronizationManager.isActualTransactionActive() ? null : _tagCache;
+        Map<FsInode, Map<String, DirectoryTag>> tags = new LinkedHashMap<>();
+        /* Tags of directories not in the cache are fetched in batches, with lazy
+         * inheritance together with those of their ancestors.
+         */
+        List<FsInode> missing = new ArrayList<>();
+        for (FsInode inode : inodes) {
+            Map<String, DirectoryTag> cached = cache == null ? null : cache.getIfPresent(inode);
+            if (cached == null) {
+                missing.add(inode);
+            }
+            tags.put(inode, cached);
+        }
+        if (!missing.isEmpty()) {
+            Map<Long, Map<String, DirectoryTag>> loaded = measure("getTags",
+                    () -> _tagInheritance == TagInheritance.LAZY
+                          ? lazyTags(missing, cache)
+                          : _sqlDriver.getTags(missing));
+            for (FsInode inode : missing) {
+                Map<String, DirectoryTag> dirTags = loaded.get(inode.ino());
+                if (cache != null) {
+                    cache.put(inode, dirTags);
+                }
+                tags.put(inode, dirTags);
+            }
+        }
+
+        Map<FsInode, Map<String, byte[]>> values = new LinkedHashMap<>();
+        tags.forEach((inode, dirTags) -> values.put(inode, valuesOf(dirTags)));
+        return values;
+    }
+
+    private static Map<String, byte[]> valuesOf(Map<String, DirectoryTag> tags) {
+        Map<String, byte[]> values = new HashMap<>();
+        tags.forEach((name, tag) -> {
+            if (tag.value() != null) {
+                values.put(name, tag.value().clone());
+            }
+        });
+        return values;
     }
 
     @Override
@@ -1141,70 +1904,320 @@ public class JdbcFs implements FileSystemProvider {
 
     @Override
     public void createTag(FsInode inode, String name, int uid, int gid, int mode) throws ChimeraFsException {
-        inTransaction(status -> {
+        TagInheritance inheritance = _tagInheritance;
+        inTransaction("createTag", status -> {
             try {
+                if (inheritance == TagInheritance.LAZY && lazyTags(inode, null).containsKey(name)) {
+                    throw new FileExistsChimeraFsException();
+                }
                 _sqlDriver.createTag(inode, name, uid, gid, mode);
                 return null;
             } catch (DuplicateKeyException e) {
                 throw new FileExistsChimeraFsException();
             }
         });
+        if (inheritance == TagInheritance.LAZY) {
+            invalidateTags(TagCache::invalidateAll);
+        } else {
+            invalidateTags(cache -> cache.invalidate(inode));
+        }
     }
 
     @Override
     public int setTag(FsInode inode, String tagName, byte[] data, int offset, int len) throws ChimeraFsException {
-        return inTransaction(status -> _sqlDriver.setTag(inode, tagName, data, offset, len));
+        int n = inTransaction("setTag", status -> {
+            if (_tagInheritance == TagInheritance.LAZY && _sqlDriver.getTagId(inode, tagName) == null) {
+                DirectoryTag tag = lazyTags(inode, null).get(tagName);
+                if (tag == null) {
+                    throw new FileNotFoundHimeraFsException("tag does not exist");
+                }
+                return _sqlDriver.setInheritedTag(inode, tagName, tag.stat(), data, offset, len);
+            }
+            return _sqlDriver.setTag(inode, tagName, data, offset, len);
+        });
+        invalidateTags(cache -> cache.invalidate(tagName));
+        return n;
+    }
+
+    @Override
+    public void setTagRecursive(FsInode dir, String tagName, byte[] value) throws ChimeraFsException {
+        TagInheritance inheritance = _tagInheritance;
+        try {
+            long tagId = inTransaction("setTagRecursive", status -> {
+                setTag(dir, tagName, value, 0, value.length);
+                long id = _sqlDriver.getTagId(dir, tagName);
+                if (inheritance == TagInheritance.LAZY) {
+                    _sqlDriver.setTagInLazySubtree(dir, tagName, id);
+                }
+                return id;
+            });
+
+            /* With copied tags, the subtree is walked level by level and the
+             * inheriting directories are relinked in transactions of their own.
+             * The subtree is thus not updated atomically.
+             */
+            if (inheritance == TagInheritance.COPY) {
+                List<Long> level = Collections.singletonList(dir.ino());
+                while (!level.isEmpty()) {
+                    List<Long> parents = level;
+                    level = measure("getSubdirectories", Workload.WRITE,
+                                    () -> _sqlDriver.inheritingSubdirectories(parents, tagName));
+                    for (List<Long> batch : Lists.partition(level, TAG_BATCH_SIZE)) {
+                        inTransaction("setTagInSubtree", status -> _sqlDriver.relinkTag(batch, tagName, tagId));
+                    }
+                }
+            }
+        } finally {
+            invalidateTags(cache -> cache.invalidate(tagName));
+        }
     }
 
     @Override
     public void removeTag(FsInode dir, String tagName) throws ChimeraFsException
     {
-        inTransaction(status -> {
+        inTransaction("removeTag", status -> {
             _sqlDriver.removeTag(dir, tagName);
             return null;
         });
+        if (_tagInheritance == TagInheritance.LAZY) {
+            invalidateTags(cache -> cache.invalidate(tagName));
+        } else {
+            invalidateTags(cache -> cache.invalidate(dir));
+        }
     }
 
     @Override
     public void removeTag(FsInode dir) throws ChimeraFsException {
-        inTransaction(status -> {
+        inTransaction("removeTag", status -> {
             _sqlDriver.removeTag(dir);
             return null;
         });
+        if (_tagInheritance == TagInheritance.LAZY) {
+            invalidateTags(TagCache::invalidateAll);
+        } else {
+            invalidateTags(cache -> cache.invalidate(dir));
+        }
     }
 
     @Override
     public int getTag(FsInode inode, String tagName, byte[] data, int offset, int len) throws ChimeraFsException {
-        return _sqlDriver.getTag(inode, tagName, data, offset, len);
+        Map<String, DirectoryTag> tags = resolvedTags(inode);
+        if (tags != null) {
+            DirectoryTag tag = tags.get(tagName);
+            if (tag == null || tag.value() == null) {
+                return 0;
+            }
+            int n = Math.min(len, tag.value().length);
+            System.arraycopy(tag.value(), 0, data, offset, n);
+            return n;
+        }
+        return measure("getTag", () -> _sqlDriver.getTag(inode, tagName, data, offset, len));
     }
 
     @Override
     public Stat statTag(FsInode dir, String name) throws ChimeraFsException {
-        return _sqlDriver.statTag(dir, name);
+        Map<String, DirectoryTag> tags = resolvedTags(dir);
+        if (tags != null) {
+            DirectoryTag tag = tags.get(name);
+            if (tag == null) {
+                throw new FileNotFoundHimeraFsException("tag does not exist");
+            }
+            return tag.stat();
+        }
+        return measure("statTag", () -> _sqlDriver.statTag(dir, name));
     }
 
     @Override
     public void setTagOwner(FsInode_TAG tagInode, String name, int owner) throws ChimeraFsException {
-        inTransaction(status -> {
-            _sqlDriver.setTagOwner(tagInode, owner);
+        inTransaction("setTagOwner", status -> {
+            _sqlDriver.setTagOwner(tagIdOf(tagInode), owner);
             return null;
         });
+        invalidateTags(cache -> cache.invalidate(tagInode.tagName()));
     }
 
     @Override
     public void setTagOwnerGroup(FsInode_TAG tagInode, String name, int owner) throws ChimeraFsException {
-        inTransaction(status -> {
-            _sqlDriver.setTagOwnerGroup(tagInode, owner);
+        inTransaction("setTagOwnerGroup", status -> {
+            _sqlDriver.setTagOwnerGroup(tagIdOf(tagInode), owner);
             return null;
         });
+        invalidateTags(cache -> cache.invalidate(tagInode.tagName()));
     }
 
     @Override
     public void setTagMode(FsInode_TAG tagInode, String name, int mode) throws ChimeraFsException {
-        inTransaction(status -> {
-            _sqlDriver.setTagMode(tagInode, mode);
+        inTransaction("setTagMode", status -> {
+            _sqlDriver.setTagMode(tagIdOf(tagInode), mode);
             return null;
         });
+        invalidateTags(cache -> cache.invalidate(tagInode.tagName()));
+    }
+
+    /**
+     * Set how new directories inherit the tags of their parent. All instances
+     * sharing a namespace must use the same mode.
+     */
+    public void setTagInheritance(TagInheritance inheritance)
+    {
+        _tagInheritance = inheritance;
+        invalidateTags(TagCache::invalidateAll);
+    }
+
+    /**
+     * Cache the tags of directories, including their values and stat. The
+     * cache is kept consistent with tag updates through this instance; updates
+     * by other instances become visible after at most {@code ttl}.
+     *
+     * @param size maximal number of directories to cache, zero to disable
+     * @param ttl time after which the tags of a directory expire
+     * @param unit unit of {@code ttl}
+     */
+    public void setTagCache(long size, long ttl, TimeUnit unit)
+    {
+        _tagCache = size > 0 ? new TagCache(size, ttl, unit) : null;
+    }
+
+    /**
+     * Cache the ACEs which new files and directories inherit from their parent
+     * directory. Creating an entry in a directory without inheritable ACEs then
+     * runs no ACL statements at all. The cache is kept consistent with ACL
+     * updates through this instance; updates by other instances become visible
+     * after at most {@code ttl}.
+     *
+     * @param size maximal number of directories to cache, zero to disable
+     * @param ttl time after which the inheritable ACEs of a directory expire
+     * @param unit unit of {@code ttl}
+     */
+    public void setAclCache(long size, long ttl, TimeUnit unit)
+    {
+        _aclCache = size > 0
+                ? CacheBuilder.newBuilder()
+                        .maximumSize(size)
+                        .expireAfterWrite(ttl, unit)
+                        .build()
+                : null;
+    }
+
+    /**
+     * Returns the id of the tag inode of {@code tagInode}.
+     */
+    private long tagIdOf(FsInode_TAG tagInode) throws ChimeraFsException {
+        Long id = _sqlDriver.getTagId(tagInode, tagInode.tagName());
+        if (id == null && _tagInheritance == TagInheritance.LAZY) {
+            DirectoryTag tag = lazyTags(tagInode, null).get(tagInode.tagName());
+            id = tag == null ? null : tag.id();
+        }
+        if (id == null) {
+            throw new FileNotFoundHimeraFsException("tag does not exist");
+        }
+        return id;
+    }
+
+    /**
+     * Returns the tags of directory {@code dir}, or null if these are to be
+     * read directly from the tables. The tag cache is bypassed within
+     * transactions, as these may see uncommitted tag updates.
+     */
+    private Map<String, DirectoryTag> resolvedTags(FsInode dir) throws ChimeraFsException {
+        TagCache cache = TransactionSynchronizationManager.isActualTransactionActive() ? null : _tagCache;
+        if (_tagInheritance == TagInheritance.LAZY) {
+            return cache == null
+                    ? measure("getTags", () -> lazyTags(dir, null))
+                    : cache.get(dir, () -> measure("getTags", () -> lazyTags(dir, cache)));
+        }
+        if (cache != null) {
+            return cache.get(dir, () -> measure("getTags", () -> _sqlDriver.getTags(dir)));
+        }
+        return null;
+    }
+
+    /**
+     * Resolves the tags of directory {@code dir} with lazy inheritance. The tags
+     * of ancestors are taken from {@code cache}, unless null.
+     */
+    private Map<String, DirectoryTag> lazyTags(FsInode dir, TagCache cache) {
+        return lazyTags(Collections.singletonList(dir), cache).get(dir.ino());
+    }
+
+    /**
+     * Resolves the tags of directories {@code dirs} with lazy inheritance, keyed
+     * by inode number. The ancestors of all directories are read with one query,
+     * and the tags of these directories and of their ancestors with another.
+     * Ancestors found in {@code cache}, unless null, end the walk up to the root
+     * directory, and those resolved on the way are added to it.
+     */
+    private Map<Long, Map<String, DirectoryTag>> lazyTags(Collection<FsInode> dirs, TagCache cache) {
+        Map<Long, List<FsInode>> ancestors = _sqlDriver.getAncestors(dirs);
+
+        Map<Long, Map<String, DirectoryTag>> resolved = new HashMap<>();
+        Map<Long, FsInode> uncached = new HashMap<>();
+        for (FsInode dir : dirs) {
+            uncached.put(dir.ino(), dir);
+            for (FsInode ancestor : ancestors.get(dir.ino())) {
+                Map<String, DirectoryTag> cached = cache == null ? null : cache.getIfPresent(ancestor);
+                if (cached != null) {
+                    resolved.put(ancestor.ino(), cached);
+                    break;
+                }
+                uncached.put(ancestor.ino(), ancestor);
+            }
+        }
+        Map<Long, Map<String, DirectoryTag>> own = _sqlDriver.getTags(uncached.values());
+
+        Map<Long, Map<String, DirectoryTag>> tags = new HashMap<>();
+        for (FsInode dir : dirs) {
+            List<FsInode> chain = new ArrayList<>();
+            chain.add(dir);
+            chain.addAll(ancestors.get(dir.ino()));
+
+            int known = 0;
+            while (known < chain.size() && !resolved.containsKey(chain.get(known).ino())) {
+                known++;
+            }
+            Map<String, DirectoryTag> inherited =
+                    known < chain.size() ? resolved.get(chain.get(known).ino()) : Collections.emptyMap();
+            for (int i = known - 1; i >= 0; i--) {
+                FsInode inheritor = chain.get(i);
+                Map<String, DirectoryTag> dirTags = own.get(inheritor.ino());
+                inherited.forEach((name, tag) -> dirTags.putIfAbsent(name, tag.inheritedBy(inheritor)));
+                resolved.put(inheritor.ino(), dirTags);
+                if (cache != null && i > 0) {
+                    cache.put(inheritor, dirTags);
+                }
+                inherited = dirTags;
+            }
+            tags.put(dir.ino(), resolved.get(dir.ino()));
+        }
+        return tags;
+    }
+
+    /**
+     * Apply {@code invalidation} to the tag cache. Within a transaction it is
+     * applied once more after the transaction completes, so that values loaded
+     * concurrently before the commit are not retained.
+     */
+    private void invalidateTags(Consumer<TagCache> invalidation) {
+        TagCache cache = _tagCache;
+        if (cache != null) {
+            invalidate(() -> invalidation.accept(cache));
+        }
+    }
+
+    /**
+     * Runs {@code invalidation} now and, if called within a transaction, once
+     * more after the transaction completes.
+     */
+    private static void invalidate(Runnable invalidation) {
+        invalidation.run();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    invalidation.run();
+                }
+            });
+        }
     }
 
     ///////////////////////////////////////////////////////////////
@@ -1223,7 +2236,7 @@ public class JdbcFs implements FileSystemProvider {
      */
     @Override
     public void setStorageInfo(FsInode inode, InodeStorageInformation storageInfo) throws ChimeraFsException {
-        inTransaction(status -> {
+        inGroupTransaction("setStorageInfo", status -> {
             try {
                 _sqlDriver.setStorageInfo(inode, storageInfo);
             } catch (ForeignKeyViolationException e) {
@@ -1235,7 +2248,24 @@ public class JdbcFs implements FileSystemProvider {
 
     @Override
     public InodeStorageInformation getStorageInfo(FsInode inode) throws ChimeraFsException {
-        return _sqlDriver.getStorageInfo(inode);
+        return measure("getStorageInfo", () -> _sqlDriver.getStorageInfo(inode));
+    }
+
+    @Override
+    public InodeStorageInformation getEffectiveStorageInfo(FsInode dir) throws ChimeraFsException {
+        TagCache cache = TransactionSynchronizationManager.isActualTransactionActive() ? null : _tagCache;
+        if (cache == null) {
+            return resolveStorageInfo(dir);
+        }
+        return cache.getStorageInfo(dir, () -> Optional.ofNullable(resolveStorageInfo(dir))).orElse(null);
+    }
+
+    private InodeStorageInformation resolveStorageInfo(FsInode dir) throws ChimeraFsException {
+        Map<String, DirectoryTag> tags = resolvedTags(dir);
+        if (tags == null) {
+            tags = measure("getTags", () -> _sqlDriver.getTags(dir));
+        }
+        return TagStorageInfo.resolve(dir, tags);
     }
 
     /*
@@ -1243,7 +2273,7 @@ public class JdbcFs implements FileSystemProvider {
      */
     @Override
     public void setInodeChecksum(FsInode inode, int type, String checksum) throws ChimeraFsException {
-        inTransaction(status -> {
+        inGroupTransaction("setInodeChecksum", status -> {
             try {
                 _sqlDriver.setInodeChecksum(inode, type, checksum);
             } catch (ForeignKeyViolationException e) {
@@ -1251,19 +2281,21 @@ public class JdbcFs implements FileSystemProvider {
             }
             return null;
         });
+        invalidateMagicValue(inode.ino(), FsInodeType.PCRC);
     }
 
     @Override
     public void removeInodeChecksum(FsInode inode, int type) throws ChimeraFsException {
-        inTransaction(status -> {
+        inTransaction("removeInodeChecksum", status -> {
             _sqlDriver.removeInodeChecksum(inode, type);
             return null;
         });
+        invalidateMagicValue(inode.ino(), FsInodeType.PCRC);
     }
 
     @Override
     public Set<Checksum> getInodeChecksums(FsInode inode) throws ChimeraFsException {
-        return new HashSet<>(_sqlDriver.getInodeChecksums(inode));
+        return measure("getInodeChecksums", () -> new HashSet<>(_sqlDriver.getInodeChecksums(inode)));
     }
 
     /**
@@ -1274,7 +2306,17 @@ public class JdbcFs implements FileSystemProvider {
      */
     @Override
     public List<ACE> getACL(FsInode inode) throws ChimeraFsException {
-        return _sqlDriver.readAcl(inode);
+        return measure("getACL", () -> _sqlDriver.readAcl(inode));
+    }
+
+    @Override
+    public Map<FsInode, List<ACE>> getACL(Collection<FsInode> inodes) throws ChimeraFsException {
+        Map<Long, List<ACE>> acls = measure("getACL", () -> _sqlDriver.readAcls(inodes));
+        Map<FsInode, List<ACE>> result = new LinkedHashMap<>();
+        for (FsInode inode : inodes) {
+            result.put(inode, acls.get(inode.ino()));
+        }
+        return result;
     }
 
     /**
@@ -1284,7 +2326,7 @@ public class JdbcFs implements FileSystemProvider {
      */
     @Override
     public void setACL(FsInode inode, List<ACE> acl) throws ChimeraFsException {
-        inTransaction(status -> {
+        inTransaction("setACL", status -> {
             boolean modified = _sqlDriver.deleteAcl(inode);
             if (!acl.isEmpty()) {
                 _sqlDriver.writeAcl(inode, inode.isDirectory() ? RsType.DIR : RsType.FILE, acl);
@@ -1293,9 +2335,15 @@ public class JdbcFs implements FileSystemProvider {
             if (modified) {
                 // empty stat will update ctime
                 _sqlDriver.setInodeAttributes(inode, 0, new Stat());
+                invalidateStat(inode);
+            }
+            Cache<Long, InheritableAcl> cache = _aclCache;
+            if (cache != null) {
+                invalidate(() -> cache.invalidate(inode.ino()));
             }
             return null;
         });
+        inode.setCompiledAcl(null);
     }
 
     private static void checkNameLength(String name) throws InvalidNameChimeraException {
@@ -1305,7 +2353,7 @@ public class JdbcFs implements FileSystemProvider {
     }
 
     public FsStat getFsStat0() throws ChimeraFsException {
-        return _sqlDriver.getFsStat();
+        return measure("getFsStat", () -> _sqlDriver.getFsStat());
     }
 
     @Override
@@ -1354,6 +2402,18 @@ public class JdbcFs implements FileSystemProvider {
         return sb.toString();
     }
 
+    /**
+     * Execute the operations of {@code compound} in one transaction. Operations
+     * of this file system called by the compound join that transaction; the
+     * transaction is retried as a whole on transient errors.
+     */
+    @Override
+    public void execute(Compound compound) throws ChimeraFsException {
+        inTransaction("compound", status -> {
+            compound.execute(this);
+            return null;
+        });
+    }
 
     /*
      * (non-Javadoc)
@@ -1361,91 +2421,208 @@ public class JdbcFs implements FileSystemProvider {
      */
     @Override
     public void close() throws IOException {
-	// enforced by the interface
+        setAtimePolicy(AtimePolicy.STRICT, 0, TimeUnit.MILLISECONDS);
+        setGroupCommit(0, TimeUnit.MILLISECONDS, 0);
+        _metrics.unregisterMBean();
     }
 
     @Override
     public FsInode inodeFromBytes(byte[] handle) throws ChimeraFsException {
-        FsInode inode;
+        return inodeFromBytes(ByteBuffer.wrap(handle));
+    }
+
+    /**
+     * Decode the file handle in the remaining bytes of {@code handle}. The
+     * buffer is not modified, and no copy of it is made.
+     */
+    public FsInode inodeFromBytes(ByteBuffer handle) throws ChimeraFsException {
+        FsInode inode = decodeHandle(handle.slice());
+        Cache<Long, Stat> cache = _handleCache;
+        if (cache == null || inode.type() != FsInodeType.INODE || inode.getLevel() != 0
+                || TransactionSynchronizationManager.isActualTransactionActive()) {
+            return inode;
+        }
+
+        Stat stat = cache.getIfPresent(inode.ino());
+        if (stat == null) {
+            try {
+                stat = stat(inode, 0);
+            } catch (FileNotFoundHimeraFsException e) {
+                return inode;
+            }
+            cache.put(inode.ino(), stat);
+        }
+        return new FsInode(this, inode.ino(), FsInodeType.INODE, 0, new Stat(stat));
+    }
+
+    /**
+     * Cache the stat of regular inodes looked up by file handle for repeated
+     * lookups of the same inode. Updates through this instance invalidate the
+     * cached stat; updates by other instances may be seen only after {@code ttl}.
+     *
+     * @param size maximal number of cached inodes, zero to disable
+     * @param ttl time after which a cached stat expires
+     * @param unit unit of {@code ttl}
+     */
+    public void setHandleCache(long size, long ttl, TimeUnit unit)
+    {
+        _handleCache = size > 0
+                ? CacheBuilder.newBuilder()
+                        .maximumSize(size)
+                        .expireAfterWrite(ttl, unit)
+                        .build()
+                : null;
+    }
+
+    /**
+     * Invalidate the cached stat of {@code inodes}, updated by the current transaction.
+     */
+    private void invalidateStat(FsInode... inodes)
+    {
+        Cache<Long, Stat> cache = _handleCache;
+        if (cache != null) {
+            invalidate(() -> {
+                for (FsInode inode : inodes) {
+                    cache.invalidate(inode.ino());
+                }
+            });
+        }
+    }
 
-        if (handle.length < MIN_HANDLE_LEN) {
+    private FsInode decodeHandle(ByteBuffer b) throws ChimeraFsException {
+        if (b.remaining() < MIN_HANDLE_LEN) {
             throw new FileNotFoundHimeraFsException("File handle too short");
         }
 
-        ByteBuffer b = ByteBuffer.wrap(handle);
-        int fsid = b.get();
-        int type = b.get();
-        int len = b.get(); // eat the file id size.
-        long ino = b.getLong();
-        int opaqueLen = b.get();
+        try {
+            int fsid = b.get();
+            FsInodeType inodeType = FsInodeType.valueOf(b.get());
+            int version = b.get() & 0xFF;
+            long ino = b.getLong();
+
+            if ((version & FsInode.HANDLE_VERSION_FLAG) == 0) {
+                return decodeLegacyHandle(b, inodeType, ino);
+            }
+            if (version != (FsInode.HANDLE_VERSION_FLAG | FsInode.HANDLE_VERSION)) {
+                throw new FileNotFoundHimeraFsException("Unsupported file handle version: "
+                        + (version & ~FsInode.HANDLE_VERSION_FLAG));
+            }
+
+            int level = b.get();
+            int opaqueLen = b.get() & 0xFF;
+            if (opaqueLen > b.remaining()) {
+                throw new FileNotFoundHimeraFsException("Bad Opaque len");
+            }
+
+            switch (inodeType) {
+                case INODE:
+                    return new FsInode(this, ino, level);
+                case TAG:
+                    return new FsInode_TAG(this, ino, getString(b, opaqueLen));
+                case PSET:
+                    List<String> args = new ArrayList<>();
+                    int end = b.position() + opaqueLen;
+                    while (b.position() < end) {
+                        int len = b.get() & 0xFF;
+                        if (b.position() + len > end) {
+                            throw new FileNotFoundHimeraFsException("Bad Opaque len");
+                        }
+                        args.add(getString(b, len));
+                    }
+                    return new FsInode_PSET(this, ino, args.toArray(new String[args.size()]));
+                default:
+                    return newInode(inodeType, ino);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new FileNotFoundHimeraFsException("File handle too short");
+        }
+    }
+
+    /**
+     * Decode handles generated before handles were versioned. The level and
+     * the arguments of PSET inodes are stored as text.
+     */
+    private FsInode decodeLegacyHandle(ByteBuffer b, FsInodeType inodeType, long ino)
+            throws ChimeraFsException {
+        int opaqueLen = b.get() & 0xFF;
         if (opaqueLen > b.remaining()) {
             throw new FileNotFoundHimeraFsException("Bad Opaque len");
         }
 
-        byte[] opaque = new byte[opaqueLen];
-        b.get(opaque);
-
-        FsInodeType inodeType = FsInodeType.valueOf(type);
-
         switch (inodeType) {
             case INODE:
-                int level = Integer.parseInt( new String(opaque));
-                inode = new FsInode(this, ino, level);
-                break;
+                int level = 0;
+                for (int i = 0; i < opaqueLen; i++) {
+                    int digit = Character.digit(b.get(), 10);
+                    if (digit < 0) {
+                        throw new FileNotFoundHimeraFsException("Bad inode level");
+                    }
+                    level = level * 10 + digit;
+                }
+                return new FsInode(this, ino, level);
+            case TAG:
+                return new FsInode_TAG(this, ino, getString(b, opaqueLen));
+            case PSET:
+                return new FsInode_PSET(this, ino, getArgs(getString(b, opaqueLen)));
+            default:
+                return newInode(inodeType, ino);
+        }
+    }
 
+    private FsInode newInode(FsInodeType inodeType, long ino) throws ChimeraFsException {
+        switch (inodeType) {
             case ID:
-                inode = new FsInode_ID(this, ino);
-                break;
+                return new FsInode_ID(this, ino);
 
             case TAGS:
-                inode = new FsInode_TAGS(this, ino);
-                break;
-
-            case TAG:
-                String tag = new String(opaque);
-                inode = new FsInode_TAG(this, ino, tag);
-                break;
+                return new FsInode_TAGS(this, ino);
 
             case NAMEOF:
-                inode = new FsInode_NAMEOF(this, ino);
-                break;
+                return new FsInode_NAMEOF(this, ino);
+
             case PARENT:
-                inode = new FsInode_PARENT(this, ino);
-                break;
+                return new FsInode_PARENT(this, ino);
 
             case PATHOF:
-                inode = new FsInode_PATHOF(this, ino);
-                break;
+                return new FsInode_PATHOF(this, ino);
 
             case CONST:
-                inode = new FsInode_CONST(this, ino);
-                break;
-
-            case PSET:
-                inode = new FsInode_PSET(this, ino, getArgs(opaque));
-                break;
+                return new FsInode_CONST(this, ino);
 
             case PCUR:
-                inode = new FsInode_PCUR(this, ino);
-                break;
+                return new FsInode_PCUR(this, ino);
 
             case PLOC:
-                inode = new FsInode_PLOC(this, ino);
-                break;
+                return new FsInode_PLOC(this, ino);
 
             case PCRC:
-                inode = new FsInode_PCRC(this, ino);
-                break;
+                return new FsInode_PCRC(this, ino);
 
             default:
                 throw new FileNotFoundHimeraFsException("Unsupported file handle type: " + inodeType);
         }
-        return inode;
     }
 
-    private String[] getArgs(byte[] bytes) {
+    /**
+     * Read a UTF-8 string of {@code len} bytes, directly from the backing
+     * array if there is one.
+     */
+    private static String getString(ByteBuffer b, int len) {
+        String s;
+        if (b.hasArray()) {
+            s = new String(b.array(), b.arrayOffset() + b.position(), len, StandardCharsets.UTF_8);
+            b.position(b.position() + len);
+        } else {
+            byte[] bytes = new byte[len];
+            b.get(bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return s;
+    }
+
+    private String[] getArgs(String s) {
 
-        StringTokenizer st = new StringTokenizer(new String(bytes), "[:]");
+        StringTokenizer st = new StringTokenizer(s, "[:]");
         int argc = st.countTokens();
         String[] args = new String[argc];
         for (int i = 0; i < argc; i++) {
@@ -1465,6 +2642,39 @@ public class JdbcFs implements FileSystemProvider {
         throw new ChimeraFsException(NOT_IMPL);
     }
 
+    @Override
+    public byte[] getMagicValue(FsInode inode, MagicValueCache.Loader loader) throws ChimeraFsException {
+        MagicValueCache cache = _magicValueCache;
+        if (cache == null) {
+            return loader.load();
+        }
+        return cache.get(inode, loader);
+    }
+
+    /**
+     * Cache the content of magic files, like checksums, locality and path of
+     * a file, for repeated reads. Cached content is dropped when the checksums
+     * or locations of the file change or any entry is renamed, and otherwise
+     * expires after {@code ttl}. Content which depends on anything else, like
+     * the locality of a file, may thus be stale for up to {@code ttl}.
+     *
+     * @param size maximal number of cached values, zero to disable
+     * @param ttl time after which a cached value expires
+     * @param unit unit of {@code ttl}
+     */
+    public void setMagicValueCache(long size, long ttl, TimeUnit unit)
+    {
+        _magicValueCache = size > 0 ? new MagicValueCache(size, ttl, unit) : null;
+    }
+
+    private void invalidateMagicValue(long ino, FsInodeType type)
+    {
+        MagicValueCache cache = _magicValueCache;
+        if (cache != null) {
+            invalidate(() -> cache.invalidate(ino, type));
+        }
+    }
+
     /**
      * To maintain the abstraction level, we relegate the actual
      * callout to the subclass.
@@ -1488,6 +2698,11 @@ public class JdbcFs implements FileSystemProvider {
         T doInTransaction(TransactionStatus status) throws ChimeraFsException;
     }
 
+    private interface FallibleOperation<T>
+    {
+        T call() throws ChimeraFsException;
+    }
+
     private static class RootInode extends FsInode
     {
         public RootInode(FileSystemProvider fs, long ino)
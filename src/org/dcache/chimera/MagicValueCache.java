@@ -0,0 +1,109 @@
+/*
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.chimera;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Short-lived cache of the content of magic files, like
+ * {@code .(get)(file)(checksum)} or {@code .(pathof)(file)}. NFS clients read
+ * these files in small chunks, each through a new {@link FsInode}; the cache
+ * is shared by all of them.
+ *
+ * Cached content is invalidated by the file system when the data it is
+ * computed from changes, and in any case expires after a fixed time. A hit
+ * thus needs no database round-trip.
+ *
+ * @Threadsafe
+ */
+public class MagicValueCache {
+
+    /**
+     * Computes the content of a magic file.
+     */
+    @FunctionalInterface
+    public interface Loader {
+        byte[] load() throws ChimeraFsException;
+    }
+
+    private static class Key {
+        private final long _ino;
+        private final FsInodeType _type;
+
+        Key(long ino, FsInodeType type) {
+            _ino = ino;
+            _type = type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return _ino == other._ino && _type == other._type;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(_ino, _type);
+        }
+    }
+
+    private final Cache<Key, byte[]> _values;
+
+    /**
+     * @param size maximal number of cached values
+     * @param ttl time after which a value expires
+     * @param unit unit of {@code ttl}
+     */
+    MagicValueCache(long size, long ttl, TimeUnit unit) {
+        _values = CacheBuilder.newBuilder()
+                .maximumSize(size)
+                .expireAfterWrite(ttl, unit)
+                .build();
+    }
+
+    /**
+     * Returns the content of magic file {@code inode}, computing it with
+     * {@code loader} unless cached. The returned array must not be modified.
+     */
+    byte[] get(FsInode inode, Loader loader) throws ChimeraFsException {
+        Key key = new Key(inode.ino(), inode.type());
+        byte[] content = _values.getIfPresent(key);
+        if (content == null) {
+            content = loader.load();
+            _values.put(key, content);
+        }
+        return content;
+    }
+
+    void invalidate(long ino, FsInodeType type) {
+        _values.invalidate(new Key(ino, type));
+    }
+
+    void invalidateAll(FsInodeType type) {
+        _values.asMap().keySet().removeIf(key -> key._type == type);
+    }
+}
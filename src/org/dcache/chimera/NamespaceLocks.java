@@ -0,0 +1,106 @@
+/*
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.chimera;
+
+import com.google.common.util.concurrent.Striped;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * In-process lock table for namespace mutations. Mutations of the same
+ * directory entry are serialized by a lock keyed by parent inumber and name,
+ * and the number of concurrent mutations of a directory is limited by a
+ * semaphore keyed by the parent inumber. Conflicting mutations thus wait in
+ * memory rather than on row locks in the database while holding a connection.
+ *
+ * Locks and semaphores are striped: unrelated keys may share a stripe, which
+ * only causes spurious waiting. Stripes are always acquired in index order,
+ * entry locks before directory semaphores, so that acquiring the stripes of
+ * two entries cannot deadlock.
+ *
+ * @Threadsafe
+ */
+class NamespaceLocks {
+
+    /**
+     * Stripes held by a thread, released by {@link #close()}.
+     */
+    interface Held extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private final Striped<Lock> _entries;
+    private final Striped<Semaphore> _directories;
+
+    /**
+     * @param stripes number of stripes of each table
+     * @param directoryConcurrency maximal number of concurrent mutations per directory
+     */
+    NamespaceLocks(int stripes, int directoryConcurrency) {
+        _entries = Striped.lock(stripes);
+        _directories = Striped.semaphore(stripes, directoryConcurrency);
+    }
+
+    /**
+     * Lock entry {@code name} of directory {@code parent}.
+     */
+    Held lock(long parent, String name) {
+        return lock(parent, name, parent, name);
+    }
+
+    /**
+     * Lock two entries, e.g. the source and the destination of a rename.
+     */
+    Held lock(long parent1, String name1, long parent2, String name2) {
+        int e1 = index(31 * Long.hashCode(parent1) + name1.hashCode(), _entries.size());
+        int e2 = index(31 * Long.hashCode(parent2) + name2.hashCode(), _entries.size());
+        int d1 = index(Long.hashCode(parent1), _directories.size());
+        int d2 = index(Long.hashCode(parent2), _directories.size());
+
+        Lock entry1 = _entries.getAt(Math.min(e1, e2));
+        Lock entry2 = e1 == e2 ? null : _entries.getAt(Math.max(e1, e2));
+        Semaphore directory1 = _directories.getAt(Math.min(d1, d2));
+        Semaphore directory2 = d1 == d2 ? null : _directories.getAt(Math.max(d1, d2));
+
+        entry1.lock();
+        if (entry2 != null) {
+            entry2.lock();
+        }
+        directory1.acquireUninterruptibly();
+        if (directory2 != null) {
+            directory2.acquireUninterruptibly();
+        }
+
+        return () -> {
+            if (directory2 != null) {
+                directory2.release();
+            }
+            directory1.release();
+            if (entry2 != null) {
+                entry2.unlock();
+            }
+            entry1.unlock();
+        };
+    }
+
+    private static int index(int hash, int size) {
+        int h = hash ^ (hash >>> 16);
+        return Math.floorMod(h, size);
+    }
+}
@@ -21,6 +21,7 @@ import org.slf4j.LoggerFactory;
 
 import javax.sql.DataSource;
 
+import java.sql.SQLException;
 import java.util.EnumSet;
 
 import org.dcache.acl.enums.AceFlags;
@@ -67,6 +68,13 @@ class OracleFsSqlDriver extends FsSqlDriver {
                 inode.ino());
     }
 
+    @Override
+    String ancestorsQuery(String in) {
+        return "SELECT CONNECT_BY_ROOT ichild AS iorigin, iparent FROM t_dirs WHERE iparent <> ichild " +
+               "START WITH ichild IN (" + in + ") CONNECT BY NOCYCLE ichild = PRIOR iparent " +
+               "ORDER BY iorigin, LEVEL";
+    }
+
     @Override
     void copyAcl(FsInode source, FsInode inode, RsType type, EnumSet<AceFlags> mask, EnumSet<AceFlags> flags) {
         int msk = EnumSet.complementOf(mask).stream().mapToInt(AceFlags::getValue).reduce(0, (a, b) -> a | b);
@@ -82,4 +90,11 @@ class OracleFsSqlDriver extends FsSqlDriver {
                          ps.setInt(5, flgs);
                      });
     }
+
+    @Override
+    public boolean isTransientError(SQLException e) {
+        /* ORA-00060 deadlock detected, ORA-08177 can't serialize access.
+         */
+        return e.getErrorCode() == 60 || e.getErrorCode() == 8177 || super.isTransientError(e);
+    }
 }
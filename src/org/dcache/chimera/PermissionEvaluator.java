@@ -0,0 +1,139 @@
+/*
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.chimera;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.dcache.acl.ACE;
+import org.dcache.acl.enums.AccessMask;
+import org.dcache.chimera.posix.Stat;
+import org.dcache.chimera.posix.UnixUser;
+
+/**
+ * Evaluates access requests against the ACL and mode of inodes.
+ *
+ * The ACL of an inode is compiled on first use and cached in the
+ * {@link FsInode} together with its stat. Once compiled, checks run
+ * without allocations. The compiled ACL is dropped with the cached stat,
+ * so a refreshed stat re-reads the ACL as well.
+ *
+ * Access is requested as a bit mask of {@link AccessMask} values, which
+ * {@link #maskOf} computes from a set.
+ */
+public class PermissionEvaluator {
+
+    private final FileSystemProvider _fs;
+
+    public PermissionEvaluator(FileSystemProvider fs) {
+        _fs = fs;
+    }
+
+    /**
+     * @return bit mask of {@code access}
+     */
+    public static int maskOf(Set<AccessMask> access) {
+        int mask = 0;
+        for (AccessMask m : access) {
+            mask |= m.getValue();
+        }
+        return mask;
+    }
+
+    /**
+     * @param user the user requesting access
+     * @param inode the inode to access
+     * @param access bit mask of requested {@link AccessMask} values
+     * @return true if all of {@code access} is granted to {@code user}
+     * @throws ChimeraFsException
+     */
+    public boolean canAccess(UnixUser user, FsInode inode, int access) throws ChimeraFsException {
+        return compiled(inode).canAccess(user, inode.statCache(), access);
+    }
+
+    public boolean canAccess(UnixUser user, FsInode inode, Set<AccessMask> access) throws ChimeraFsException {
+        return canAccess(user, inode, maskOf(access));
+    }
+
+    /**
+     * Checks access to many inodes, e.g. the entries of a directory listing.
+     * The ACLs of inodes without a compiled ACL are fetched at once, as are
+     * the stats of inodes without a cached stat.
+     *
+     * @param user the user requesting access
+     * @param inodes the inodes to access
+     * @param access bit mask of requested {@link AccessMask} values
+     * @param allowed array receiving the result for each of {@code inodes}
+     * @throws ChimeraFsException
+     */
+    public void canAccess(UnixUser user, List<FsInode> inodes, int access, boolean[] allowed)
+            throws ChimeraFsException {
+        List<FsInode> missing = null;
+        List<FsInode> unstated = null;
+        for (FsInode inode : inodes) {
+            if (inode.getStatCache() == null) {
+                if (inode.type() != FsInodeType.INODE || inode.getLevel() != 0) {
+                    inode.stat();
+                } else {
+                    if (unstated == null) {
+                        unstated = new ArrayList<>();
+                    }
+                    unstated.add(inode);
+                }
+            }
+            if (inode.getCompiledAcl() == null) {
+                if (missing == null) {
+                    missing = new ArrayList<>();
+                }
+                missing.add(inode);
+            }
+        }
+        if (unstated != null) {
+            Map<FsInode, Stat> stats = _fs.stat(unstated);
+            for (FsInode inode : unstated) {
+                Stat stat = stats.get(inode);
+                if (stat == null) {
+                    throw new FileNotFoundHimeraFsException(inode.toString());
+                }
+                inode.setStatCache(stat);
+            }
+        }
+        if (missing != null) {
+            Map<FsInode, List<ACE>> acls = _fs.getACL(missing);
+            for (FsInode inode : missing) {
+                inode.setCompiledAcl(CompiledAcl.of(acls.get(inode)));
+            }
+        }
+
+        for (int i = 0; i < inodes.size(); i++) {
+            FsInode inode = inodes.get(i);
+            allowed[i] = inode.getCompiledAcl().canAccess(user, inode.statCache(), access);
+        }
+    }
+
+    private CompiledAcl compiled(FsInode inode) throws ChimeraFsException {
+        inode.statCache();
+        CompiledAcl acl = inode.getCompiledAcl();
+        if (acl == null) {
+            acl = CompiledAcl.of(_fs.getACL(inode));
+            inode.setCompiledAcl(acl);
+        }
+        return acl;
+    }
+}
@@ -24,6 +24,7 @@ import org.springframework.dao.IncorrectUpdateSemanticsDataAccessException;
 import javax.sql.DataSource;
 
 import java.io.File;
+import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -289,4 +290,12 @@ public class PgSQLFsSqlDriver extends FsSqlDriver {
                          ps.setString(10, location);
                      });
     }
+
+    @Override
+    public boolean isTransientError(SQLException e) {
+        /* 40001 serialization failure and 40P01 deadlock are covered by class 40,
+         * 55P03 is lock not available.
+         */
+        return super.isTransientError(e) || "55P03".equals(e.getSQLState());
+    }
 }
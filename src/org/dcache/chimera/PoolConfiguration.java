@@ -0,0 +1,132 @@
+/*
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.chimera;
+
+/**
+ * Sizing of the connection pools created by {@link FsFactory}.
+ *
+ * By default a single pool serves all operations. Setting a non-zero size for
+ * the read or the scan pool creates a separate pool for short read-only lookups
+ * or for long running directory listings, so that neither can starve the other
+ * or the writers.
+ *
+ * Setting a replica URL connects the read and scan pools to a read-only
+ * replica of the database instead of the primary.
+ */
+public class PoolConfiguration {
+
+    private String _name = "chimera";
+    private int _maximumPoolSize = 3;
+    private int _minimumIdle = 0;
+    private long _connectionTimeout = 30000;
+    private int _readPoolSize = 0;
+    private int _scanPoolSize = 0;
+    private String _replicaUrl;
+    private long _pinWindow = 0;
+
+    public String getName() {
+        return _name;
+    }
+
+    /**
+     * @param name prefix of the pool names, as used in metrics
+     */
+    public void setName(String name) {
+        _name = name;
+    }
+
+    public int getMaximumPoolSize() {
+        return _maximumPoolSize;
+    }
+
+    /**
+     * @param maximumPoolSize maximal number of connections of the write pool
+     */
+    public void setMaximumPoolSize(int maximumPoolSize) {
+        _maximumPoolSize = maximumPoolSize;
+    }
+
+    public int getMinimumIdle() {
+        return _minimumIdle;
+    }
+
+    /**
+     * @param minimumIdle minimal number of idle connections kept in each pool
+     */
+    public void setMinimumIdle(int minimumIdle) {
+        _minimumIdle = minimumIdle;
+    }
+
+    public long getConnectionTimeout() {
+        return _connectionTimeout;
+    }
+
+    /**
+     * @param connectionTimeout maximal time in milliseconds to wait for a connection
+     */
+    public void setConnectionTimeout(long connectionTimeout) {
+        _connectionTimeout = connectionTimeout;
+    }
+
+    public int getReadPoolSize() {
+        return _readPoolSize;
+    }
+
+    /**
+     * @param readPoolSize size of the pool for read-only operations, or zero
+     * to use the write pool.
+     */
+    public void setReadPoolSize(int readPoolSize) {
+        _readPoolSize = readPoolSize;
+    }
+
+    public int getScanPoolSize() {
+        return _scanPoolSize;
+    }
+
+    /**
+     * @param scanPoolSize size of the pool for directory listings, or zero
+     * to use the read pool of a replica, if any, and the write pool otherwise.
+     */
+    public void setScanPoolSize(int scanPoolSize) {
+        _scanPoolSize = scanPoolSize;
+    }
+
+    public String getReplicaUrl() {
+        return _replicaUrl;
+    }
+
+    /**
+     * @param replicaUrl JDBC URL of a read-only replica, or null to read from
+     * the primary. The replica is accessed with the credentials of the primary.
+     */
+    public void setReplicaUrl(String replicaUrl) {
+        _replicaUrl = replicaUrl;
+    }
+
+    public long getPinWindow() {
+        return _pinWindow;
+    }
+
+    /**
+     * @param pinWindow time in milliseconds during which reads following a
+     * commit by the same thread go to the primary.
+     */
+    public void setPinWindow(long pinWindow) {
+        _pinWindow = pinWindow;
+    }
+}
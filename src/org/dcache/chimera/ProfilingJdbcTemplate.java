@@ -0,0 +1,213 @@
+/*
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.chimera;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.CallableStatementCallback;
+import org.springframework.jdbc.core.CallableStatementCreator;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterDisposer;
+import org.springframework.jdbc.core.PreparedStatementCallback;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.SqlProvider;
+import org.springframework.jdbc.core.StatementCallback;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import javax.sql.DataSource;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.dcache.chimera.metrics.SqlProfiler;
+
+/**
+ * JdbcTemplate which optionally reports all executed statements to a
+ * {@link SqlProfiler}. Without a profiler it behaves as a plain JdbcTemplate.
+ *
+ * Connections are wrapped after they are obtained from the transaction
+ * synchronization, so that profiling does not affect transaction demarcation.
+ * Every statement of the template is created by one of the {@code execute}
+ * methods overridden below, which hand the wrapped connection to the callback.
+ */
+class ProfilingJdbcTemplate extends JdbcTemplate {
+
+    private volatile SqlProfiler _profiler;
+
+    ProfilingJdbcTemplate(DataSource dataSource) {
+        super(dataSource);
+    }
+
+    void setProfiler(SqlProfiler profiler) {
+        _profiler = profiler;
+    }
+
+    /**
+     * Wrap a connection obtained outside of this template, e.g. for streaming.
+     */
+    Connection profiled(Connection con) {
+        SqlProfiler profiler = _profiler;
+        return profiler == null ? con : profiler.wrap(con);
+    }
+
+    @Override
+    public <T> T execute(ConnectionCallback<T> action) throws DataAccessException {
+        if (_profiler == null) {
+            return super.execute(action);
+        }
+        return super.execute(new ProfiledConnectionCallback<>(action));
+    }
+
+    @Override
+    public <T> T execute(StatementCallback<T> action) throws DataAccessException {
+        if (_profiler == null) {
+            return super.execute(action);
+        }
+        return super.execute(new ProfiledStatementCallback<>(action));
+    }
+
+    @Override
+    public <T> T execute(PreparedStatementCreator psc, PreparedStatementCallback<T> action)
+            throws DataAccessException {
+        if (_profiler == null) {
+            return super.execute(psc, action);
+        }
+        return super.execute(new ProfiledPreparedStatementCreator(psc), action);
+    }
+
+    @Override
+    public <T> T execute(CallableStatementCreator csc, CallableStatementCallback<T> action)
+            throws DataAccessException {
+        if (_profiler == null) {
+            return super.execute(csc, action);
+        }
+        return super.execute(new ProfiledCallableStatementCreator(csc), action);
+    }
+
+    private static String getSql(Object sqlProvider) {
+        return sqlProvider instanceof SqlProvider ? ((SqlProvider) sqlProvider).getSql() : null;
+    }
+
+    private static void cleanupParameters(Object parameterDisposer) {
+        if (parameterDisposer instanceof ParameterDisposer) {
+            ((ParameterDisposer) parameterDisposer).cleanupParameters();
+        }
+    }
+
+    private class ProfiledConnectionCallback<T> implements ConnectionCallback<T>, SqlProvider {
+
+        private final ConnectionCallback<T> _action;
+
+        ProfiledConnectionCallback(ConnectionCallback<T> action) {
+            _action = action;
+        }
+
+        @Override
+        public T doInConnection(Connection con) throws SQLException, DataAccessException {
+            return _action.doInConnection(profiled(con));
+        }
+
+        @Override
+        public String getSql() {
+            return ProfilingJdbcTemplate.getSql(_action);
+        }
+    }
+
+    /**
+     * Mirrors {@link JdbcTemplate#execute(StatementCallback)}, but creates the
+     * statement from the wrapped connection.
+     */
+    private class ProfiledStatementCallback<T> implements ConnectionCallback<T>, SqlProvider {
+
+        private final StatementCallback<T> _action;
+
+        ProfiledStatementCallback(StatementCallback<T> action) {
+            _action = action;
+        }
+
+        @Override
+        public T doInConnection(Connection con) throws SQLException, DataAccessException {
+            Statement stmt = profiled(con).createStatement();
+            try {
+                applyStatementSettings(stmt);
+                T result = _action.doInStatement(stmt);
+                handleWarnings(stmt);
+                return result;
+            } finally {
+                JdbcUtils.closeStatement(stmt);
+            }
+        }
+
+        @Override
+        public String getSql() {
+            return ProfilingJdbcTemplate.getSql(_action);
+        }
+    }
+
+    private class ProfiledPreparedStatementCreator
+            implements PreparedStatementCreator, SqlProvider, ParameterDisposer {
+
+        private final PreparedStatementCreator _psc;
+
+        ProfiledPreparedStatementCreator(PreparedStatementCreator psc) {
+            _psc = psc;
+        }
+
+        @Override
+        public PreparedStatement createPreparedStatement(Connection con) throws SQLException {
+            return _psc.createPreparedStatement(profiled(con));
+        }
+
+        @Override
+        public String getSql() {
+            return ProfilingJdbcTemplate.getSql(_psc);
+        }
+
+        @Override
+        public void cleanupParameters() {
+            ProfilingJdbcTemplate.cleanupParameters(_psc);
+        }
+    }
+
+    private class ProfiledCallableStatementCreator
+            implements CallableStatementCreator, SqlProvider, ParameterDisposer {
+
+        private final CallableStatementCreator _csc;
+
+        ProfiledCallableStatementCreator(CallableStatementCreator csc) {
+            _csc = csc;
+        }
+
+        @Override
+        public CallableStatement createCallableStatement(Connection con) throws SQLException {
+            return _csc.createCallableStatement(profiled(con));
+        }
+
+        @Override
+        public String getSql() {
+            return ProfilingJdbcTemplate.getSql(_csc);
+        }
+
+        @Override
+        public void cleanupParameters() {
+            ProfilingJdbcTemplate.cleanupParameters(_csc);
+        }
+    }
+}
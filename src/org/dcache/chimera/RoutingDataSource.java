@@ -0,0 +1,173 @@
+/*
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.chimera;
+
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+import javax.sql.DataSource;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link DataSource} which hands out connections of one of up to three
+ * pools, depending on the kind of work the calling thread is doing.
+ *
+ * {@link JdbcFs} declares the workload of each operation with {@link #route}.
+ * Transactions always use the write pool; the connection is bound to the
+ * transaction when it begins, so that lookups inside a transaction stay on it.
+ *
+ * The read and scan pools may be connected to a read-only replica of the
+ * primary database. As a replica lags behind, a thread which committed a
+ * transaction through this data source may be pinned to the primary for a
+ * configurable window, so that it reads its own writes.
+ *
+ * @Threadsafe
+ */
+public class RoutingDataSource extends AbstractDataSource implements Closeable {
+
+    public enum Workload {
+        /**
+         * Short read-only lookups.
+         */
+        READ,
+        /**
+         * Transactions.
+         */
+        WRITE,
+        /**
+         * Long running directory listings.
+         */
+        SCAN
+    }
+
+    /**
+     * Workload of the current thread.
+     */
+    private final ThreadLocal<Workload> _workload = ThreadLocal.withInitial(() -> Workload.WRITE);
+
+    /**
+     * Time in nanoseconds of the last commit of the current thread.
+     */
+    private final ThreadLocal<long[]> _lastWrite = ThreadLocal.withInitial(() -> new long[1]);
+
+    private final DataSource _write;
+    private final DataSource _read;
+    private final DataSource _scan;
+
+    /**
+     * Time in nanoseconds during which reads following a commit go to the write pool.
+     */
+    private volatile long _pinWindow;
+
+    /**
+     * @param write pool for transactions
+     * @param read pool for read-only lookups, or null to use {@code write}
+     * @param scan pool for directory listings, or null to use {@code write}
+     */
+    public RoutingDataSource(DataSource write, DataSource read, DataSource scan) {
+        _write = write;
+        _read = read == null ? write : read;
+        _scan = scan == null ? write : scan;
+    }
+
+    /**
+     * Set the workload of the current thread.
+     *
+     * @return the previous workload, to be restored when the operation completes
+     */
+    Workload route(Workload workload) {
+        Workload previous = _workload.get();
+        _workload.set(workload);
+        return previous;
+    }
+
+    /**
+     * Record that the current thread committed a transaction.
+     */
+    void written() {
+        _lastWrite.get()[0] = System.nanoTime();
+    }
+
+    /**
+     * Reads by a thread within {@code window} after its last commit go to the
+     * write pool. Zero, the default, disables pinning.
+     */
+    public void setPinWindow(long window, TimeUnit unit) {
+        _pinWindow = unit.toNanos(window);
+    }
+
+    public long getPinWindow(TimeUnit unit) {
+        return unit.convert(_pinWindow, TimeUnit.NANOSECONDS);
+    }
+
+    DataSource dataSourceFor(Workload workload) {
+        switch (workload) {
+        case READ:
+            return isPinned() ? _write : _read;
+        case SCAN:
+            return isPinned() ? _write : _scan;
+        default:
+            return _write;
+        }
+    }
+
+    private boolean isPinned() {
+        long window = _pinWindow;
+        if (window == 0) {
+            return false;
+        }
+        long lastWrite = _lastWrite.get()[0];
+        return lastWrite != 0 && System.nanoTime() - lastWrite < window;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return dataSourceFor(_workload.get()).getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return dataSourceFor(_workload.get()).getConnection(username, password);
+    }
+
+    /**
+     * Close all pools.
+     */
+    @Override
+    public void close() {
+        close(_write);
+        if (_read != _write) {
+            close(_read);
+        }
+        if (_scan != _write && _scan != _read) {
+            close(_scan);
+        }
+    }
+
+    private static void close(DataSource dataSource) {
+        if (dataSource instanceof Closeable) {
+            try {
+                ((Closeable) dataSource).close();
+            } catch (java.io.IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.chimera;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import org.dcache.chimera.posix.Stat;
+import org.dcache.chimera.posix.Stat.StatAttributes;
+import org.dcache.chimera.store.AccessLatency;
+import org.dcache.chimera.store.RetentionPolicy;
+
+/**
+ * A projection of {@code t_inodes} onto the columns required to fill a given
+ * set of {@link Stat} attributes.
+ *
+ * The select list is computed once per attribute set and the rows are decoded
+ * by column index, in the order in which the columns were selected. Attributes
+ * which are not backed by a column (device numbers) are filled with constants.
+ *
+ * @Immutable
+ */
+class StatProjection {
+
+    /**
+     * Device numbers reported for every inode.
+     */
+    static final int DEV = 17;
+    static final int RDEV = 13;
+
+    /**
+     * Projection of all attributes stored in {@code t_inodes}.
+     */
+    static final StatProjection FULL =
+            new StatProjection(EnumSet.complementOf(EnumSet.of(StatAttributes.BLK_SIZE)));
+
+    private final EnumSet<StatAttributes> _attributes;
+
+    /**
+     * Attributes backed by a column, in select list order.
+     */
+    private final StatAttributes[] _columnAttributes;
+
+    private final String[] _columnNames;
+
+    private final String _columns;
+
+    private final int _columnCount;
+
+    StatProjection(Set<StatAttributes> attributes) {
+        _attributes = attributes.isEmpty()
+                ? EnumSet.noneOf(StatAttributes.class)
+                : EnumSet.copyOf(attributes);
+
+        List<StatAttributes> columnAttributes = new ArrayList<>();
+        List<String> columnNames = new ArrayList<>();
+        for (StatAttributes attribute : _attributes) {
+            switch (attribute) {
+            case MODE:
+                columnNames.add("imode");
+                columnNames.add("itype");
+                columnAttributes.add(attribute);
+                break;
+            default:
+                String column = columnOf(attribute);
+                if (column != null) {
+                    columnNames.add(column);
+                    columnAttributes.add(attribute);
+                }
+            }
+        }
+
+        if (columnNames.isEmpty()) {
+            /* Nothing to fetch, but we still have to check that the inode exists.
+             */
+            columnNames.add("inumber");
+        }
+
+        _columnAttributes = columnAttributes.toArray(new StatAttributes[columnAttributes.size()]);
+        _columnNames = columnNames.toArray(new String[columnNames.size()]);
+        _columns = String.join(",", _columnNames);
+        _columnCount = _columnNames.length;
+    }
+
+    /**
+     * @return comma separated list of selected columns, without table alias.
+     */
+    String columns() {
+        return _columns;
+    }
+
+    /**
+     * @param alias table alias
+     * @return comma separated list of selected columns qualified by {@code alias}.
+     */
+    String columns(String alias) {
+        StringBuilder sb = new StringBuilder();
+        for (String column : _columnNames) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(alias).append('.').append(column);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the number of columns in the select list.
+     */
+    int columnCount() {
+        return _columnCount;
+    }
+
+    Set<StatAttributes> attributes() {
+        return _attributes;
+    }
+
+    /**
+     * Decodes the current row of {@code rs}.
+     *
+     * @param rs result set positioned on a row
+     * @param offset index of the first column of this projection in the row
+     * @return stat with exactly the attributes of this projection defined
+     */
+    Stat decode(ResultSet rs, int offset) throws SQLException {
+        Stat stat = new Stat();
+        int idx = offset;
+        for (StatAttributes attribute : _columnAttributes) {
+            switch (attribute) {
+            case INO:
+                stat.setIno(rs.getLong(idx++));
+                break;
+            case FILEID:
+                stat.setId(rs.getString(idx++));
+                break;
+            case MODE:
+                int mode = rs.getInt(idx++);
+                stat.setMode(mode | rs.getInt(idx++));
+                break;
+            case NLINK:
+                stat.setNlink(rs.getInt(idx++));
+                break;
+            case UID:
+                stat.setUid(rs.getInt(idx++));
+                break;
+            case GID:
+                stat.setGid(rs.getInt(idx++));
+                break;
+            case SIZE:
+                stat.setSize(rs.getLong(idx++));
+                break;
+            case GENERATION:
+                stat.setGeneration(rs.getLong(idx++));
+                break;
+            case ATIME:
+                stat.setATime(millis(rs, idx++));
+                break;
+            case MTIME:
+                stat.setMTime(millis(rs, idx++));
+                break;
+            case CTIME:
+                stat.setCTime(millis(rs, idx++));
+                break;
+            case CRTIME:
+                stat.setCrTime(millis(rs, idx++));
+                break;
+            case ACCESS_LATENCY:
+                int al = rs.getInt(idx++);
+                if (!rs.wasNull()) {
+                    stat.setAccessLatency(AccessLatency.valueOf(al));
+                }
+                break;
+            case RETENTION_POLICY:
+                int rp = rs.getInt(idx++);
+                if (!rs.wasNull()) {
+                    stat.setRetentionPolicy(RetentionPolicy.valueOf(rp));
+                }
+                break;
+            default:
+                throw new AssertionError("Unexpected attribute: " + attribute);
+            }
+        }
+        if (_attributes.contains(StatAttributes.DEV)) {
+            stat.setDev(DEV);
+        }
+        if (_attributes.contains(StatAttributes.RDEV)) {
+            stat.setRdev(RDEV);
+        }
+        return stat;
+    }
+
+    /**
+     * Returns the value of a TIMESTAMP column as milliseconds since the epoch.
+     * JDBC has no primitive accessor for timestamps, so every call allocates a
+     * {@link java.sql.Timestamp} inside the driver. With H2 1.4 on JDK 17 that
+     * is 32 bytes per column, i.e. 128 of the roughly 208 bytes per row which
+     * {@code StatDecodingBenchmark.decodeByIndex -prof gc} reports for a full
+     * stat. The object is not retained.
+     */
+    static long millis(ResultSet rs, int idx) throws SQLException {
+        return rs.getTimestamp(idx).getTime();
+    }
+
+    private static String columnOf(StatAttributes attribute) {
+        switch (attribute) {
+        case INO:
+            return "inumber";
+        case FILEID:
+            return "ipnfsid";
+        case NLINK:
+            return "inlink";
+        case UID:
+            return "iuid";
+        case GID:
+            return "igid";
+        case SIZE:
+            return "isize";
+        case GENERATION:
+            return "igeneration";
+        case ATIME:
+            return "iatime";
+        case MTIME:
+            return "imtime";
+        case CTIME:
+            return "ictime";
+        case CRTIME:
+            return "icrtime";
+        case ACCESS_LATENCY:
+            return "iaccess_latency";
+        case RETENTION_POLICY:
+            return "iretention_policy";
+        default:
+            return null;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.chimera;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.dcache.chimera.store.InodeStorageInformation;
+
+/**
+ * Cache of the tags of directories, keyed by the inode number of the directory.
+ *
+ * Tag inodes are shared between the directory which is the origin of a tag and
+ * the directories which inherited it. Changes to a tag inode thus invalidate
+ * all directories having a tag of that name.
+ *
+ * The storage information derived from the tags of a directory is cached
+ * alongside and dropped with any invalidation by tag name.
+ *
+ * @Threadsafe
+ */
+class TagCache {
+
+    private final Cache<Long, Map<String, DirectoryTag>> _tags;
+    private final Cache<Long, Optional<InodeStorageInformation>> _storageInfo;
+
+    /**
+     * @param size maximal number of cached directories
+     * @param ttl time after which the tags of a directory expire
+     * @param unit unit of {@code ttl}
+     */
+    TagCache(long size, long ttl, TimeUnit unit) {
+        _tags = CacheBuilder.newBuilder()
+                .maximumSize(size)
+                .expireAfterWrite(ttl, unit)
+                .build();
+        _storageInfo = CacheBuilder.newBuilder()
+                .maximumSize(size)
+                .expireAfterWrite(ttl, unit)
+                .build();
+    }
+
+    /**
+     * Returns the tags of directory {@code dir}, loading them with
+     * {@code loader} unless cached.
+     */
+    Map<String, DirectoryTag> get(FsInode dir, Callable<Map<String, DirectoryTag>> loader)
+            throws ChimeraFsException {
+        return get(_tags, dir.ino(), loader);
+    }
+
+    /**
+     * @return the cached tags of directory {@code dir}, or null
+     */
+    Map<String, DirectoryTag> getIfPresent(FsInode dir) {
+        return _tags.getIfPresent(dir.ino());
+    }
+
+    void put(FsInode dir, Map<String, DirectoryTag> tags) {
+        _tags.put(dir.ino(), tags);
+    }
+
+    /**
+     * Returns the storage information of directory {@code dir}, resolving it
+     * with {@code loader} unless cached.
+     */
+    Optional<InodeStorageInformation> getStorageInfo(FsInode dir,
+                                                     Callable<Optional<InodeStorageInformation>> loader)
+            throws ChimeraFsException {
+        return get(_storageInfo, dir.ino(), loader);
+    }
+
+    private static <V> V get(Cache<Long, V> cache, long ino, Callable<V> loader) throws ChimeraFsException {
+        try {
+            return cache.get(ino, loader);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ChimeraFsException) {
+                throw (ChimeraFsException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Invalidate the tags of directory {@code dir}.
+     */
+    void invalidate(FsInode dir) {
+        _tags.invalidate(dir.ino());
+        _storageInfo.invalidate(dir.ino());
+    }
+
+    /**
+     * Invalidate the tags of all directories.
+     */
+    void invalidateAll() {
+        _tags.invalidateAll();
+        _storageInfo.invalidateAll();
+    }
+
+    /**
+     * Invalidate the tags of all directories having a tag {@code name}.
+     */
+    void invalidate(String name) {
+        _tags.asMap().values().removeIf(tags -> tags.containsKey(name));
+        _storageInfo.invalidateAll();
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.chimera;
+
+/**
+ * How new directories inherit the tags of their parent directory.
+ *
+ * All instances sharing a namespace must use the same mode. Once inherited
+ * rows have been collapsed by {@code changelog-lazy-tags.xml}, only
+ * {@link #LAZY} gives correct results.
+ */
+public enum TagInheritance {
+
+    /**
+     * mkdir links the new directory to all tags of its parent. Later changes
+     * to the tags of the parent do not affect existing subdirectories, unless
+     * the tag inode itself is changed.
+     */
+    COPY,
+
+    /**
+     * mkdir does not link any tags. A directory has the tags it has links to,
+     * plus those of its parent which it has no link of the same name for.
+     *
+     * Setting the value of an inherited tag creates a link with a copy of the
+     * tag, as with {@link #COPY}. Moving a directory to another parent links
+     * it to its inherited tags first, so that it keeps them. Unlike with
+     * {@link #COPY}, creating or removing a tag of a directory is visible in
+     * all subdirectories inheriting from it.
+     */
+    LAZY
+}
@@ -0,0 +1,85 @@
+/*
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.chimera;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.dcache.chimera.store.InodeStorageInformation;
+
+/**
+ * Derives the storage information of new files from the tags of their
+ * directory, following the OSM conventions of dCache: the store name is
+ * taken from the {@code StoreName} line of the {@code OSMTemplate} tag and
+ * the storage group from the {@code sGroup} tag. The HSM name is given by
+ * the {@code HSMType} tag and defaults to {@code osm}.
+ */
+class TagStorageInfo {
+
+    static final String HSM_TYPE = "HSMType";
+    static final String OSM_TEMPLATE = "OSMTemplate";
+    static final String STORAGE_GROUP = "sGroup";
+
+    private static final String DEFAULT_HSM = "osm";
+    private static final String STORE_NAME = "StoreName";
+    private static final String DEFAULT_STORAGE_GROUP = "*";
+
+    private TagStorageInfo() {
+    }
+
+    /**
+     * @return the storage information of {@code dir}, or null if its tags do
+     * not define one
+     */
+    static InodeStorageInformation resolve(FsInode dir, Map<String, DirectoryTag> tags) {
+        String hsm = firstLine(tags.get(HSM_TYPE));
+        if (hsm == null) {
+            hsm = DEFAULT_HSM;
+        }
+        if (!hsm.equals(DEFAULT_HSM)) {
+            return null;
+        }
+
+        String store = null;
+        DirectoryTag template = tags.get(OSM_TEMPLATE);
+        if (template != null && template.value() != null) {
+            for (String line : new String(template.value(), StandardCharsets.UTF_8).split("\n")) {
+                String[] s = line.trim().split("\\s+", 2);
+                if (s.length == 2 && s[0].equals(STORE_NAME)) {
+                    store = s[1].trim();
+                    break;
+                }
+            }
+        }
+        if (store == null || store.isEmpty()) {
+            return null;
+        }
+
+        String group = firstLine(tags.get(STORAGE_GROUP));
+        return new InodeStorageInformation(dir, hsm, store, group == null ? DEFAULT_STORAGE_GROUP : group);
+    }
+
+    private static String firstLine(DirectoryTag tag) {
+        if (tag == null || tag.value() == null) {
+            return null;
+        }
+        String value = new String(tag.value(), StandardCharsets.UTF_8);
+        int end = value.indexOf('\n');
+        value = (end < 0 ? value : value.substring(0, end)).trim();
+        return value.isEmpty() ? null : value;
+    }
+}
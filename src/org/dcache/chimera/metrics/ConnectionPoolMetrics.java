@@ -0,0 +1,72 @@
+/*
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.chimera.metrics;
+
+import com.zaxxer.hikari.metrics.MetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Time spent waiting for a connection, per connection pool. Installed into
+ * HikariCP pools as their {@link MetricsTrackerFactory}.
+ *
+ * @Threadsafe
+ */
+public class ConnectionPoolMetrics implements MetricsTrackerFactory {
+
+    private final ConcurrentMap<String, LatencyHistogram> _waits = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> _timeouts = new ConcurrentHashMap<>();
+
+    @Override
+    public MetricsTracker create(String poolName, PoolStats poolStats) {
+        LongAdder timeouts = _timeouts.computeIfAbsent(poolName, k -> new LongAdder());
+        LatencyHistogram waits = _waits.computeIfAbsent(poolName, k -> new LatencyHistogram());
+        return new MetricsTracker() {
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                waits.record(elapsedAcquiredNanos);
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                timeouts.increment();
+            }
+        };
+    }
+
+    /**
+     * @return connection wait time statistics by pool name. Failures are
+     * requests which timed out.
+     */
+    public Map<String, OperationStatistics> getWaits() {
+        Map<String, OperationStatistics> waits = new TreeMap<>();
+        _waits.forEach((name, histogram) ->
+                waits.put(name, OperationStatistics.of(histogram, _timeouts.get(name).sum())));
+        return waits;
+    }
+
+    public void reset() {
+        _waits.values().forEach(LatencyHistogram::reset);
+        _timeouts.values().forEach(LongAdder::reset);
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.chimera.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Registry of file system operation metrics: latency histograms and failure
+ * counts per operation, transaction commit and rollback counts and failures
+ * by exception type.
+ *
+ * Operations may nest, e.g. {@code createFile(path)} calls {@code path2inode}.
+ * Only the outermost operation of a thread is recorded, so that each call of
+ * the public API is accounted exactly once.
+ *
+ * @Threadsafe
+ */
+public class FsMetrics implements FsMetricsMXBean {
+
+    private static final Logger _log = LoggerFactory.getLogger(FsMetrics.class);
+
+    /**
+     * Marker returned by {@link #enter(String)} for nested operations.
+     */
+    public static final long NESTED = -1;
+
+    private final ConcurrentMap<String, LatencyHistogram> _latencies = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> _failures = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> _exceptions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> _retries = new ConcurrentHashMap<>();
+    private final LongAdder _commits = new LongAdder();
+    private final LongAdder _rollbacks = new LongAdder();
+
+    /**
+     * Operation nesting depth of the current thread.
+     */
+    private final ThreadLocal<int[]> _depth = ThreadLocal.withInitial(() -> new int[1]);
+
+    private ObjectName _mbeanName;
+
+    /**
+     * Optional profiler of SQL statements per operation.
+     */
+    private volatile SqlProfiler _profiler;
+
+    /**
+     * Optional connection pool metrics.
+     */
+    private volatile ConnectionPoolMetrics _pools;
+
+    public void setSqlProfiler(SqlProfiler profiler) {
+        _profiler = profiler;
+    }
+
+    public SqlProfiler getSqlProfiler() {
+        return _profiler;
+    }
+
+    public void setConnectionPoolMetrics(ConnectionPoolMetrics pools) {
+        _pools = pools;
+    }
+
+    /**
+     * Marks the beginning of an operation. Must be paired with {@link #exit}.
+     *
+     * @param operation name of the operation
+     * @return start time in nanoseconds of an outermost operation or {@link #NESTED}.
+     */
+    public long enter(String operation) {
+        if (_depth.get()[0]++ != 0) {
+            return NESTED;
+        }
+        SqlProfiler profiler = _profiler;
+        if (profiler != null) {
+            profiler.begin(operation);
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Marks the end of an operation started with {@link #enter(String)}.
+     *
+     * @param operation name of the operation
+     * @param start value returned by {@link #enter(String)}
+     */
+    public void exit(String operation, long start) {
+        _depth.get()[0]--;
+        if (start != NESTED) {
+            latency(operation).record(System.nanoTime() - start);
+            SqlProfiler profiler = _profiler;
+            if (profiler != null) {
+                profiler.end();
+            }
+        }
+    }
+
+    /**
+     * Records failure of an operation.
+     *
+     * @param operation name of the operation
+     * @param start value returned by {@link #enter(String)}
+     * @param t cause of the failure
+     */
+    public void failed(String operation, long start, Throwable t) {
+        if (start != NESTED) {
+            counter(_failures, operation).increment();
+            counter(_exceptions, t.getClass().getName()).increment();
+        }
+    }
+
+    /**
+     * Records that a transaction is retried after a transient failure.
+     *
+     * @param cause SQLState or exception type of the failure
+     */
+    public void retried(String cause) {
+        counter(_retries, cause).increment();
+    }
+
+    public void committed() {
+        _commits.increment();
+    }
+
+    public void rolledBack() {
+        _rollbacks.increment();
+    }
+
+    /**
+     * @param operation name of the operation
+     * @return latency histogram of the operation
+     */
+    public LatencyHistogram latency(String operation) {
+        LatencyHistogram histogram = _latencies.get(operation);
+        return histogram != null ? histogram : _latencies.computeIfAbsent(operation, k -> new LatencyHistogram());
+    }
+
+    private static LongAdder counter(ConcurrentMap<String, LongAdder> counters, String key) {
+        LongAdder counter = counters.get(key);
+        return counter != null ? counter : counters.computeIfAbsent(key, k -> new LongAdder());
+    }
+
+    @Override
+    public Map<String, OperationStatistics> getOperations() {
+        Map<String, OperationStatistics> operations = new TreeMap<>();
+        _latencies.forEach((name, histogram) -> {
+            LongAdder failures = _failures.get(name);
+            operations.put(name, OperationStatistics.of(histogram, failures == null ? 0 : failures.sum()));
+        });
+        return operations;
+    }
+
+    @Override
+    public long getCommits() {
+        return _commits.sum();
+    }
+
+    @Override
+    public long getRollbacks() {
+        return _rollbacks.sum();
+    }
+
+    @Override
+    public Map<String, Long> getExceptions() {
+        Map<String, Long> exceptions = new TreeMap<>();
+        _exceptions.forEach((name, count) -> exceptions.put(name, count.sum()));
+        return exceptions;
+    }
+
+    @Override
+    public Map<String, Long> getRetries() {
+        Map<String, Long> retries = new TreeMap<>();
+        _retries.forEach((cause, count) -> retries.put(cause, count.sum()));
+        return retries;
+    }
+
+    @Override
+    public Map<String, OperationStatistics> getConnectionWaits() {
+        ConnectionPoolMetrics pools = _pools;
+        return pools == null ? Collections.emptyMap() : pools.getWaits();
+    }
+
+    @Override
+    public void reset() {
+        _latencies.values().forEach(LatencyHistogram::reset);
+        _failures.values().forEach(LongAdder::reset);
+        _exceptions.values().forEach(LongAdder::reset);
+        _retries.values().forEach(LongAdder::reset);
+        _commits.reset();
+        _rollbacks.reset();
+        ConnectionPoolMetrics pools = _pools;
+        if (pools != null) {
+            pools.reset();
+        }
+    }
+
+    /**
+     * Register this registry with the platform MBean server as
+     * {@code org.dcache.chimera:type=FsMetrics,name=<name>}.
+     *
+     * @param name name to distinguish multiple file system instances
+     */
+    public synchronized void registerMBean(String name) throws JMException {
+        unregisterMBean();
+        Hashtable<String, String> properties = new Hashtable<>();
+        properties.put("type", "FsMetrics");
+        properties.put("name", ObjectName.quote(name));
+        ObjectName objectName = new ObjectName("org.dcache.chimera", properties);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        _mbeanName = objectName;
+    }
+
+    /**
+     * Remove this registry from the platform MBean server, if registered.
+     */
+    public synchronized void unregisterMBean() {
+        if (_mbeanName != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            try {
+                server.unregisterMBean(_mbeanName);
+            } catch (JMException e) {
+                _log.warn("Failed to unregister {}: {}", _mbeanName, e.getMessage());
+            }
+            _mbeanName = null;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.chimera.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link FsMetrics}.
+ */
+public interface FsMetricsMXBean {
+
+    /**
+     * @return statistics by operation name.
+     */
+    Map<String, OperationStatistics> getOperations();
+
+    /**
+     * @return number of committed transactions.
+     */
+    long getCommits();
+
+    /**
+     * @return number of rolled back transactions.
+     */
+    long getRollbacks();
+
+    /**
+     * @return number of failed operations by exception class.
+     */
+    Map<String, Long> getExceptions();
+
+    /**
+     * @return number of transactions retried after a transient failure by cause.
+     */
+    Map<String, Long> getRetries();
+
+    /**
+     * @return time spent waiting for a connection by pool name.
+     */
+    Map<String, OperationStatistics> getConnectionWaits();
+
+    /**
+     * Reset all counters and histograms.
+     */
+    void reset();
+}
@@ -0,0 +1,168 @@
+/*
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.chimera.metrics;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * SQL statements issued by a single file system operation.
+ *
+ * An instance is confined to the thread executing the operation.
+ */
+public class OperationProfile {
+
+    /**
+     * Aggregated executions of a single SQL statement.
+     */
+    public static class StatementStatistics {
+
+        private final String _sql;
+        private int _executions;
+        private long _rows;
+        private long _nanos;
+
+        StatementStatistics(String sql) {
+            _sql = sql;
+        }
+
+        void executed(long nanos) {
+            _executions++;
+            _nanos += nanos;
+        }
+
+        void rows(long rows) {
+            _rows += rows;
+        }
+
+        void time(long nanos) {
+            _nanos += nanos;
+        }
+
+        public String getSql() {
+            return _sql;
+        }
+
+        public int getExecutions() {
+            return _executions;
+        }
+
+        public long getRows() {
+            return _rows;
+        }
+
+        public long getNanos() {
+            return _nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%5d x %7d rows %10.3f ms  %s", _executions, _rows, _nanos / 1e6, _sql);
+        }
+    }
+
+    private final String _operation;
+    private final long _start;
+    private long _elapsed;
+    private final Map<String, StatementStatistics> _statements = new LinkedHashMap<>();
+
+    OperationProfile(String operation) {
+        _operation = operation;
+        _start = System.nanoTime();
+    }
+
+    StatementStatistics statement(String sql) {
+        return _statements.computeIfAbsent(sql, StatementStatistics::new);
+    }
+
+    void finish() {
+        _elapsed = System.nanoTime() - _start;
+    }
+
+    public String getOperation() {
+        return _operation;
+    }
+
+    /**
+     * @return wall clock time of the operation in nanoseconds.
+     */
+    public long getElapsed() {
+        return _elapsed;
+    }
+
+    /**
+     * @return number of statements sent to the database (round trips).
+     */
+    public int getStatements() {
+        int n = 0;
+        for (StatementStatistics s : _statements.values()) {
+            n += s.getExecutions();
+        }
+        return n;
+    }
+
+    /**
+     * @return total number of rows fetched or modified.
+     */
+    public long getRows() {
+        long n = 0;
+        for (StatementStatistics s : _statements.values()) {
+            n += s.getRows();
+        }
+        return n;
+    }
+
+    /**
+     * @return time spent in the database driver in nanoseconds.
+     */
+    public long getSqlTime() {
+        long n = 0;
+        for (StatementStatistics s : _statements.values()) {
+            n += s.getNanos();
+        }
+        return n;
+    }
+
+    /**
+     * @return statistics by distinct SQL statement, in order of first execution.
+     */
+    public Collection<StatementStatistics> getStatementStatistics() {
+        return _statements.values();
+    }
+
+    /**
+     * Throws {@link AssertionError} if the operation issued more than {@code maxStatements}
+     * statements. Intended for tests which guard against N+1 query patterns.
+     */
+    public void assertStatementsAtMost(int maxStatements) {
+        if (getStatements() > maxStatements) {
+            throw new AssertionError("Expected at most " + maxStatements + " statements, but was:\n" + this);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%s: %.3f ms, %d statements, %d rows, %.3f ms in SQL",
+                _operation, _elapsed / 1e6, getStatements(), getRows(), getSqlTime() / 1e6));
+        for (StatementStatistics s : _statements.values()) {
+            sb.append("\n    ").append(s);
+        }
+        return sb.toString();
+    }
+}
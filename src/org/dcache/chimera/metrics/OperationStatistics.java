@@ -0,0 +1,93 @@
+/*
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.chimera.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Immutable snapshot of the statistics of a single file system operation.
+ * Times are in milliseconds.
+ */
+public class OperationStatistics {
+
+    private final long _count;
+    private final long _failures;
+    private final double _mean;
+    private final double _p50;
+    private final double _p99;
+    private final double _p999;
+    private final double _max;
+
+    @ConstructorProperties({"count", "failures", "mean", "p50", "p99", "p999", "max"})
+    public OperationStatistics(long count, long failures, double mean, double p50,
+            double p99, double p999, double max) {
+        _count = count;
+        _failures = failures;
+        _mean = mean;
+        _p50 = p50;
+        _p99 = p99;
+        _p999 = p999;
+        _max = max;
+    }
+
+    static OperationStatistics of(LatencyHistogram histogram, long failures) {
+        return new OperationStatistics(histogram.getCount(), failures,
+                toMillis(histogram.getMean()),
+                toMillis(histogram.getPercentile(0.5)),
+                toMillis(histogram.getPercentile(0.99)),
+                toMillis(histogram.getPercentile(0.999)),
+                toMillis(histogram.getMax()));
+    }
+
+    private static double toMillis(double nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    public long getCount() {
+        return _count;
+    }
+
+    public long getFailures() {
+        return _failures;
+    }
+
+    public double getMean() {
+        return _mean;
+    }
+
+    public double getP50() {
+        return _p50;
+    }
+
+    public double getP99() {
+        return _p99;
+    }
+
+    public double getP999() {
+        return _p999;
+    }
+
+    public double getMax() {
+        return _max;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d failures=%d mean=%.3fms p50=%.3fms p99=%.3fms p999=%.3fms max=%.3fms",
+                _count, _failures, _mean, _p50, _p99, _p999, _max);
+    }
+}
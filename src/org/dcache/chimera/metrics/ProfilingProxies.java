@@ -0,0 +1,116 @@
+/*
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.chimera.metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * JDBC proxies which report statement execution to a {@link SqlProfiler}.
+ */
+class ProfilingProxies {
+
+    private ProfilingProxies() { /* utility class */ }
+
+    static Connection connection(Connection target, SqlProfiler profiler) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    Object result = invoke(target, method, args);
+                    switch (method.getName()) {
+                    case "prepareStatement":
+                        return statement(PreparedStatement.class, (Statement) result, (String) args[0], profiler);
+                    case "prepareCall":
+                        return statement(CallableStatement.class, (Statement) result, (String) args[0], profiler);
+                    case "createStatement":
+                        return statement(Statement.class, (Statement) result, null, profiler);
+                    default:
+                        return result;
+                    }
+                });
+    }
+
+    private static Statement statement(Class<? extends Statement> type, Statement target, String preparedSql,
+            SqlProfiler profiler) {
+        InvocationHandler handler = (proxy, method, args) -> {
+            String name = method.getName();
+            if (!name.startsWith("execute")) {
+                return invoke(target, method, args);
+            }
+
+            String sql = (args != null && args.length > 0 && args[0] instanceof String)
+                    ? (String) args[0] : preparedSql;
+            if (sql == null) {
+                sql = "<batch>";
+            }
+            OperationProfile.StatementStatistics statistics = profiler.statement(sql);
+            if (statistics == null) {
+                return invoke(target, method, args);
+            }
+
+            long start = System.nanoTime();
+            Object result = invoke(target, method, args);
+            statistics.executed(System.nanoTime() - start);
+
+            if (result instanceof ResultSet) {
+                return resultSet((ResultSet) result, statistics);
+            } else if (result instanceof Integer) {
+                statistics.rows((Integer) result);
+            } else if (result instanceof Long) {
+                statistics.rows((Long) result);
+            } else if (result instanceof int[]) {
+                for (int n : (int[]) result) {
+                    statistics.rows(Math.max(n, 0));
+                }
+            }
+            return result;
+        };
+        return (Statement) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    private static ResultSet resultSet(ResultSet target, OperationProfile.StatementStatistics statistics) {
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+                new Class<?>[]{ResultSet.class},
+                (proxy, method, args) -> {
+                    if (!method.getName().equals("next")) {
+                        return invoke(target, method, args);
+                    }
+                    long start = System.nanoTime();
+                    Object result = invoke(target, method, args);
+                    statistics.time(System.nanoTime() - start);
+                    if (Boolean.TRUE.equals(result)) {
+                        statistics.rows(1);
+                    }
+                    return result;
+                });
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
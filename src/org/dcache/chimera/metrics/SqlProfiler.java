@@ -0,0 +1,115 @@
+/*
+ * This library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program (see the file COPYING.LIB for more
+ * details); if not, write to the Free Software Foundation, Inc.,
+ * 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.dcache.chimera.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Counts SQL statements, rows and time spent in the database per file system
+ * operation. Operations slower than a threshold are logged together with a
+ * breakdown by statement.
+ *
+ * The profiler is fed by connections wrapped with {@link #wrap(Connection)};
+ * statements executed outside of an operation are ignored.
+ *
+ * @Threadsafe
+ */
+public class SqlProfiler {
+
+    private static final Logger _log = LoggerFactory.getLogger(SqlProfiler.class);
+
+    private final ThreadLocal<OperationProfile> _current = new ThreadLocal<>();
+    private final ThreadLocal<OperationProfile> _last = new ThreadLocal<>();
+    private final List<Consumer<OperationProfile>> _listeners = new CopyOnWriteArrayList<>();
+    private volatile long _slowThreshold = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * Operations which take longer are logged with a statement breakdown.
+     */
+    public void setSlowThreshold(long time, TimeUnit unit) {
+        _slowThreshold = unit.toNanos(time);
+    }
+
+    /**
+     * Register a listener, which is called with the profile of every completed operation
+     * in the thread that executed it.
+     */
+    public void addListener(Consumer<OperationProfile> listener) {
+        _listeners.add(listener);
+    }
+
+    public void removeListener(Consumer<OperationProfile> listener) {
+        _listeners.remove(listener);
+    }
+
+    /**
+     * @return profile of the last operation completed by the current thread or null.
+     */
+    public OperationProfile getLastProfile() {
+        return _last.get();
+    }
+
+    /**
+     * Start profiling of {@code operation} in the current thread.
+     */
+    public void begin(String operation) {
+        _current.set(new OperationProfile(operation));
+    }
+
+    /**
+     * Complete profiling of the current operation.
+     */
+    public void end() {
+        OperationProfile profile = _current.get();
+        if (profile == null) {
+            return;
+        }
+        _current.remove();
+        profile.finish();
+        _last.set(profile);
+        if (profile.getElapsed() > _slowThreshold) {
+            _log.warn("Slow operation {}", profile);
+        }
+        for (Consumer<OperationProfile> listener : _listeners) {
+            listener.accept(profile);
+        }
+    }
+
+    /**
+     * @return statistics of {@code sql} in the current operation or null if there is
+     * no operation in progress.
+     */
+    OperationProfile.StatementStatistics statement(String sql) {
+        OperationProfile profile = _current.get();
+        return profile == null ? null : profile.statement(sql);
+    }
+
+    /**
+     * Returns a connection which reports all statements executed through it to
+     * this profiler.
+     */
+    public Connection wrap(Connection connection) {
+        return ProfilingProxies.connection(connection, this);
+    }
+}
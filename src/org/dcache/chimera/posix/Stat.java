@@ -52,10 +52,13 @@ public class Stat {
         RETENTION_POLICY
     }
 
+    private static final StatAttributes[] ATTRIBUTES = StatAttributes.values();
+
     /**
-     * Set of attributes defined in this {@code stat} object.
+     * Bitmask of attributes defined in this {@code stat} object, indexed by
+     * {@link StatAttributes#ordinal()}.
      */
-    private final EnumSet<StatAttributes> _definedAttrs = EnumSet.noneOf(StatAttributes.class);
+    private int _definedAttrs;
 
     private int _dev; //
     private long _ino; //
@@ -96,7 +99,7 @@ public class Stat {
 
     public Stat(Stat stat)
     {
-        _definedAttrs.addAll(stat._definedAttrs);
+        _definedAttrs = stat._definedAttrs;
         _dev = stat._dev;
         _ino = stat._ino;
         _id = stat._id;
@@ -378,7 +381,17 @@ public class Stat {
      * @return true iff specified attribute is defined in this stat object.
      */
     public boolean isDefined(StatAttributes attr) {
-        return _definedAttrs.contains(attr);
+        return (_definedAttrs & (1 << attr.ordinal())) != 0;
+    }
+
+    /**
+     * Check whether {@code attr} is the only attribute defined in this {@code stat} object.
+     *
+     * @param attr attribute to check
+     * @return true iff specified attribute is defined and no other.
+     */
+    public boolean isDefinedOnly(StatAttributes attr) {
+        return _definedAttrs == (1 << attr.ordinal());
     }
 
     /**
@@ -391,7 +404,7 @@ public class Stat {
     }
 
     private void define(StatAttributes attr) throws IllegalStateException {
-        _definedAttrs.add(attr);
+        _definedAttrs |= 1 << attr.ordinal();
     }
 
     /**
@@ -399,11 +412,15 @@ public class Stat {
      * @return <tt>true</tt> iff at least one attribute is set.
      */
     public boolean isDefinedAny() {
-        return !_definedAttrs.isEmpty();
+        return _definedAttrs != 0;
     }
 
     public EnumSet<StatAttributes> getDefinedAttributeses() {
-	return EnumSet.copyOf(_definedAttrs);
+        EnumSet<StatAttributes> attrs = EnumSet.noneOf(StatAttributes.class);
+        for (int mask = _definedAttrs; mask != 0; mask &= mask - 1) {
+            attrs.add(ATTRIBUTES[Integer.numberOfTrailingZeros(mask)]);
+        }
+        return attrs;
     }
 
     /**
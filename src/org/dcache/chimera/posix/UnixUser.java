@@ -56,6 +56,22 @@ public class UnixUser implements User {
         return _gids.clone();
     }
 
+    /**
+     * @return true if {@code gid} is the primary or one of the supplementary
+     * groups of this user
+     */
+    public boolean isMemberOf(int gid) {
+        if (_gid == gid) {
+            return true;
+        }
+        for (int g : _gids) {
+            if (g == gid) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public String getHost() {
         return _remoteHost;
     }
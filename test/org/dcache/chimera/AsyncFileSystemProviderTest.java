@@ -0,0 +1,134 @@
+package org.dcache.chimera;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class AsyncFileSystemProviderTest extends ChimeraTestCaseHelper {
+
+    private AsyncFileSystemProvider _async;
+
+    @After
+    public void closeAsync() {
+        if (_async != null) {
+            _async.close();
+        }
+    }
+
+    @Test
+    public void testOperations() throws Exception {
+        _async = new AsyncFileSystemProvider(_fs, 2, 10);
+
+        FsInode dir = _async.mkdir(_rootInode, "junit", 0, 0, 0755).get();
+        FsInode file = _async.createFile(dir, "file", 0, 0, 0644)
+                .thenCompose(f -> _async.inodeOf(dir, "file", FileSystemProvider.StatCacheOption.STAT))
+                .get();
+        assertEquals(file, _fs.path2inode("/junit/file"));
+        assertEquals(1, _async.stat(dir).get().getNlink() - 2);
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        _async = new AsyncFileSystemProvider(_fs, 1, 1);
+        try {
+            _async.path2inode("/noSuchFile").get();
+            fail("lookup of non existing file must fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof FileNotFoundHimeraFsException);
+        }
+    }
+
+    @Test
+    public void testError() throws Exception {
+        // the permit of a completed operation may be released after its future completes
+        _async = new AsyncFileSystemProvider(_fs, 1, 2);
+        CompletableFuture<Object> future = _async.submit(fs -> {
+            throw new AssertionError("failed");
+        });
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("operation must fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof AssertionError);
+        }
+        assertEquals(_rootInode, _async.path2inode("/").get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCloseCompletesQueuedOperations() throws Exception {
+        _async = new AsyncFileSystemProvider(_fs, 1, 10);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Object> blocking = _async.submit(fs -> {
+            Uninterruptibles.awaitUninterruptibly(release);
+            return null;
+        });
+        CompletableFuture<FsInode> queued = _async.path2inode("/");
+        assertEquals(1, _async.getQueued());
+
+        Thread closer = new Thread(_async::close);
+        closer.start();
+        while (closer.getState() != Thread.State.WAITING) {
+            Thread.sleep(10);
+        }
+        release.countDown();
+        closer.join(10000);
+        assertFalse(closer.isAlive());
+
+        assertTrue(blocking.isDone());
+        assertEquals(_rootInode, queued.getNow(null));
+        assertTrue(_async.path2inode("/").isCompletedExceptionally());
+    }
+
+    @Test
+    public void testBackpressureAndCancellation() throws Exception {
+        _async = new AsyncFileSystemProvider(_fs, 1, 2);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<Object> blocking = _async.submit(fs -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        AtomicBoolean executed = new AtomicBoolean();
+        CompletableFuture<Object> queued = _async.submit(fs -> {
+            executed.set(true);
+            return null;
+        });
+        assertEquals(1, _async.getQueued());
+
+        CompletableFuture<FsInode> rejected = _async.path2inode("/");
+        assertTrue(rejected.isCompletedExceptionally());
+        try {
+            rejected.get();
+            fail("operation must be rejected when limit is reached");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+
+        assertTrue(queued.cancel(false));
+        assertEquals(0, _async.getQueued());
+
+        // the permit of the cancelled operation is available again
+        CompletableFuture<FsInode> root = _async.path2inode("/");
+        release.countDown();
+        blocking.get(10, TimeUnit.SECONDS);
+        assertEquals(_rootInode, root.get(10, TimeUnit.SECONDS));
+        assertFalse(executed.get());
+    }
+}
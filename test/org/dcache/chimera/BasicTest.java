@@ -4,25 +4,58 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 import java.nio.charset.StandardCharsets;
 
 import org.dcache.acl.ACE;
+import org.dcache.acl.enums.AceFlags;
 import org.dcache.acl.enums.AccessMask;
 import org.dcache.acl.enums.AceType;
 import org.dcache.acl.enums.RsType;
 import org.dcache.acl.enums.Who;
+import org.dcache.chimera.metrics.FsMetrics;
+import org.dcache.chimera.metrics.OperationProfile;
+import org.dcache.chimera.metrics.OperationStatistics;
+import org.dcache.chimera.metrics.SqlProfiler;
 import org.dcache.chimera.posix.Stat;
 import org.dcache.chimera.store.Checksum;
 import org.dcache.chimera.store.ChecksumType;
+import org.dcache.chimera.store.InodeStorageInformation;
+import org.h2.tools.TriggerAdapter;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.dao.DeadlockLoserDataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 
 import static org.dcache.chimera.FileSystemProvider.StatCacheOption.NO_STAT;
+import static org.dcache.chimera.FileSystemProvider.StatCacheOption.STAT;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.hasEntry;
 import static org.hamcrest.Matchers.is;
@@ -598,6 +631,42 @@ public class BasicTest extends ChimeraTestCaseHelper {
         assertEquals(n, _fs.listDir(_rootInode).length);
     }
 
+    /**
+     * Runs {@code test} while a trigger {@code when}, e.g. "BEFORE INSERT ON t_inodes",
+     * calls {@code action} for each row.
+     */
+    private void withTrigger(String when, CallbackTrigger.Action action, Callable<?> test) throws Exception {
+        try (Connection conn = _dataSource.getConnection();
+             Statement s = conn.createStatement()) {
+            CallbackTrigger.action = action;
+            s.execute("CREATE TRIGGER callback " + when + " FOR EACH ROW CALL \""
+                      + CallbackTrigger.class.getName() + "\"");
+            try {
+                test.call();
+            } finally {
+                s.execute("DROP TRIGGER callback");
+                CallbackTrigger.action = null;
+            }
+        }
+    }
+
+    public static class CallbackTrigger extends TriggerAdapter {
+        @FunctionalInterface
+        interface Action {
+            void fire(Connection conn) throws SQLException;
+        }
+
+        static volatile Action action;
+
+        @Override
+        public void fire(Connection conn, ResultSet oldRow, ResultSet newRow) throws SQLException {
+            Action a = action;
+            if (a != null) {
+                a.fire(conn);
+            }
+        }
+    }
+
     @Test
     public void testRemoveDirByPath() throws Exception {
         int n = _fs.listDir(_rootInode).length;
@@ -640,6 +709,72 @@ public class BasicTest extends ChimeraTestCaseHelper {
         _fs.addInodeLocation(fileInode, StorageGenericLocation.DISK, "/dev/null");
     }
 
+    @Test
+    public void testBestLocation() throws Exception {
+        FsInode base = _rootInode.mkdir("junit");
+        FsInode fileInode = base.create("testCreateFile", 0, 0, 0644);
+        assertNull(_fs.getBestInodeLocation(fileInode, StorageGenericLocation.DISK));
+
+        _fs.addInodeLocation(fileInode, StorageGenericLocation.DISK, "pool1");
+        Thread.sleep(10);
+        _fs.addInodeLocation(fileInode, StorageGenericLocation.DISK, "pool2");
+        _fs.addInodeLocation(fileInode, StorageGenericLocation.TAPE, "osm://tape");
+        assertEquals("pool2", _fs.getBestInodeLocation(fileInode, StorageGenericLocation.DISK).location());
+        assertEquals("osm://tape", _fs.getBestInodeLocation(fileInode, StorageGenericLocation.TAPE).location());
+    }
+
+    @Test
+    public void testInodesAtLocation() throws Exception {
+        JdbcFs fs = (JdbcFs) _fs;
+        FsInode base = _rootInode.mkdir("junit");
+        List<Long> expected = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            FsInode inode = base.create("file" + i, 0, 0, 0644);
+            _fs.addInodeLocation(inode, StorageGenericLocation.DISK, "pool1");
+            expected.add(inode.ino());
+        }
+        _fs.addInodeLocation(base.create("other", 0, 0, 0644), StorageGenericLocation.DISK, "pool2");
+        _fs.addInodeLocation(base.create("tape", 0, 0, 0644), StorageGenericLocation.TAPE, "pool1");
+
+        fs.getMetrics().reset();
+        List<FsInode> inodes = fs.getInodesAtLocation(StorageGenericLocation.DISK, "pool1", STAT, 2)
+                .collect(Collectors.toList());
+        assertEquals(expected, inodes.stream().map(FsInode::ino).collect(Collectors.toList()));
+        assertEquals(3, fs.getMetrics().getOperations().get("getInodesAtLocation").getCount());
+        assertEquals(0644, inodes.get(0).getStatCache().getMode() & UnixPermission.S_PERMS);
+
+        assertEquals(expected, _fs.getInodesAtLocation(StorageGenericLocation.DISK, "pool1", NO_STAT)
+                .map(FsInode::ino).collect(Collectors.toList()));
+        assertEquals(0, _fs.getInodesAtLocation(StorageGenericLocation.DISK, "pool3", NO_STAT).count());
+    }
+
+    @Test
+    public void testLocationCache() throws Exception {
+        JdbcFs fs = (JdbcFs) _fs;
+        FsInode base = _rootInode.mkdir("junit");
+        FsInode fileInode = base.create("testCreateFile", 0, 0, 0644);
+
+        fs.setLocationCache(100, 1, TimeUnit.MINUTES);
+        try {
+            _fs.addInodeLocation(fileInode, StorageGenericLocation.DISK, "pool1");
+            Thread.sleep(10);
+            _fs.addInodeLocation(fileInode, StorageGenericLocation.DISK, "pool2");
+            assertEquals("pool2", _fs.getBestInodeLocation(fileInode, StorageGenericLocation.DISK).location());
+
+            fs.getMetrics().reset();
+            assertEquals("pool2", _fs.getBestInodeLocation(fileInode, StorageGenericLocation.DISK).location());
+            assertEquals(2, _fs.getInodeLocations(fileInode, StorageGenericLocation.DISK).size());
+            assertEquals(2, _fs.getInodeLocations(fileInode).size());
+            assertEquals(0, fs.getMetrics().getOperations().get("getInodeLocations").getCount());
+
+            _fs.clearInodeLocation(fileInode, StorageGenericLocation.DISK, "pool2");
+            assertEquals("pool1", _fs.getBestInodeLocation(fileInode, StorageGenericLocation.DISK).location());
+            assertEquals(1, _fs.getInodeLocations(fileInode).size());
+        } finally {
+            fs.setLocationCache(0, 0, TimeUnit.MINUTES);
+        }
+    }
+
     @Test(expected = FileNotFoundHimeraFsException.class)
     public void testSetSizeNotExist() throws Exception {
 
@@ -1182,4 +1317,926 @@ public class BasicTest extends ChimeraTestCaseHelper {
         _fs.createFile(_rootInode, "aDir", 0, 0, 0755 | UnixPermission.S_IFDIR, UnixPermission.S_IFDIR);
     }
 
+    @Test
+    public void testStatWithAttributeSubset() throws Exception {
+        FsInode inode = _rootInode.create("testStatSubset", 3, 4, 0644);
+        Stat full = inode.stat();
+
+        Stat stat = _fs.stat(inode, EnumSet.of(Stat.StatAttributes.MODE, Stat.StatAttributes.SIZE));
+        assertTrue(stat.isDefined(Stat.StatAttributes.MODE));
+        assertTrue(stat.isDefined(Stat.StatAttributes.SIZE));
+        assertFalse(stat.isDefined(Stat.StatAttributes.UID));
+        assertFalse(stat.isDefined(Stat.StatAttributes.ATIME));
+        assertEquals(full.getMode(), stat.getMode());
+        assertEquals(full.getSize(), stat.getSize());
+
+        stat = _fs.stat(inode, EnumSet.allOf(Stat.StatAttributes.class));
+        assertEquals(full.getUid(), stat.getUid());
+        assertEquals(full.getGid(), stat.getGid());
+        assertEquals(full.getMTime(), stat.getMTime());
+        assertEquals(full.getId(), stat.getId());
+        assertEquals(full.getDev(), stat.getDev());
+    }
+
+    @Test(expected = FileNotFoundHimeraFsException.class)
+    public void testStatWithAttributeSubsetNonExisting() throws Exception {
+        FsInode inode = _rootInode.create("testStatSubset", 0, 0, 0644);
+        _fs.remove(_rootInode, "testStatSubset", inode);
+        _fs.stat(inode, EnumSet.noneOf(Stat.StatAttributes.class));
+    }
+
+    @Test
+    public void testOperationMetrics() throws Exception {
+        FsMetrics metrics = ((JdbcFs) _fs).getMetrics();
+        metrics.reset();
+
+        _fs.createFile("/testOperationMetrics");
+        try {
+            _fs.path2inode("/noSuchFile");
+            fail("lookup of non existing file must fail");
+        } catch (FileNotFoundHimeraFsException e) {
+            // expected
+        }
+
+        Map<String, OperationStatistics> operations = metrics.getOperations();
+        assertEquals(1, operations.get("createFile").getCount());
+        assertEquals(0, operations.get("createFile").getFailures());
+        // createFile resolves the parent directory before taking any locks
+        assertEquals(2, operations.get("path2inode").getCount());
+        assertEquals(1, operations.get("path2inode").getFailures());
+        assertEquals(1, metrics.getCommits());
+        assertEquals(Long.valueOf(1), metrics.getExceptions().get(FileNotFoundHimeraFsException.class.getName()));
+    }
+
+    @Test
+    public void testCompound() throws Exception {
+        FsMetrics metrics = ((JdbcFs) _fs).getMetrics();
+        metrics.reset();
+
+        Stat stat = new Stat();
+        stat.setUid(3750);
+        Compound compound = new Compound();
+        Compound.Result<FsInode> dir = compound.add(fs -> fs.mkdir(_rootInode, "junit"));
+        Compound.Result<FsInode> file = compound.add(fs -> fs.createFile(dir.get(), "file"));
+        compound.add(fs -> {
+            fs.setInodeAttributes(file.get(), 0, stat);
+            return null;
+        });
+        compound.add(fs -> {
+            fs.addInodeLocation(file.get(), StorageGenericLocation.DISK, "pool");
+            return null;
+        });
+        _fs.execute(compound);
+
+        assertEquals(1, metrics.getCommits());
+        assertEquals(file.get(), _fs.path2inode("/junit/file"));
+        assertEquals(3750, file.get().stat().getUid());
+        assertEquals(1, _fs.getInodeLocations(file.get()).size());
+    }
+
+    @Test
+    public void testCompoundRollback() throws Exception {
+        _rootInode.mkdir("junit");
+
+        Compound compound = new Compound();
+        compound.add(fs -> fs.createFile(_rootInode, "file"));
+        Compound.Result<FsInode> dir = compound.add(fs -> fs.mkdir(_rootInode, "junit"));
+        try {
+            _fs.execute(compound);
+            fail("compound with failing operation must fail");
+        } catch (FileExistsChimeraFsException e) {
+            // expected
+        }
+
+        assertFalse(dir.isDone());
+        try {
+            _fs.path2inode("/file");
+            fail("operations of failed compound must be rolled back");
+        } catch (FileNotFoundHimeraFsException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        JdbcFs fs = (JdbcFs) _fs;
+        FsInode dir = _rootInode.mkdir("junit");
+        List<FsInode> files = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            files.add(dir.create("file" + i, 0, 0, 0644));
+        }
+
+        fs.setGroupCommit(200, TimeUnit.MILLISECONDS, 100);
+        fs.getMetrics().reset();
+        try {
+            List<Throwable> failures = setUidConcurrently(files);
+            assertEquals(Collections.nCopies(files.size(), null), failures);
+        } finally {
+            fs.setGroupCommit(0, TimeUnit.MILLISECONDS, 0);
+        }
+
+        assertTrue(fs.getMetrics().getCommits() < files.size());
+        for (int i = 0; i < files.size(); i++) {
+            assertEquals(i, files.get(i).stat().getUid());
+        }
+    }
+
+    @Test
+    public void testGroupCommitIsolatesFailure() throws Exception {
+        JdbcFs fs = (JdbcFs) _fs;
+        FsInode dir = _rootInode.mkdir("junit");
+        List<FsInode> files = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            files.add(dir.create("file" + i, 0, 0, 0644));
+        }
+        _fs.remove(dir, "file2", files.get(2));
+
+        fs.setGroupCommit(200, TimeUnit.MILLISECONDS, 100);
+        fs.getMetrics().reset();
+        try {
+            List<Throwable> failures = setUidConcurrently(files);
+            assertNull(failures.get(0));
+            assertNull(failures.get(1));
+            assertTrue(failures.get(2) instanceof FileNotFoundHimeraFsException);
+            assertNull(failures.get(3));
+        } finally {
+            fs.setGroupCommit(0, TimeUnit.MILLISECONDS, 0);
+        }
+        /* The failing update is rolled back on its own rather than causing the
+         * others to be replayed in transactions of their own.
+         */
+        assertEquals(1, fs.getMetrics().getCommits());
+        assertEquals(3, files.get(3).stat().getUid());
+    }
+
+    /**
+     * Sets the owner of each file to its index, all from different threads at once.
+     */
+    private List<Throwable> setUidConcurrently(List<FsInode> files) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(files.size());
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Throwable>> results = new ArrayList<>();
+            for (int i = 0; i < files.size(); i++) {
+                FsInode file = files.get(i);
+                Stat stat = new Stat();
+                stat.setUid(i);
+                results.add(executor.submit(() -> {
+                    start.await();
+                    try {
+                        _fs.setInodeAttributes(file, 0, stat);
+                        return null;
+                    } catch (ChimeraFsException e) {
+                        return e;
+                    }
+                }));
+            }
+            start.countDown();
+            List<Throwable> failures = new ArrayList<>();
+            for (Future<Throwable> result : results) {
+                failures.add(result.get());
+            }
+            return failures;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testAtimePolicyOff() throws Exception {
+        JdbcFs fs = (JdbcFs) _fs;
+        FsInode inode = _rootInode.create("file", 0, 0, 0644);
+        Stat before = _fs.stat(inode);
+
+        fs.setAtimePolicy(AtimePolicy.OFF, 0, TimeUnit.MILLISECONDS);
+        _fs.setInodeAttributes(inode, 0, atime(before.getATime() + 1000));
+
+        Stat after = _fs.stat(inode);
+        assertEquals(before.getATime(), after.getATime());
+        assertEquals(before.getGeneration(), after.getGeneration());
+    }
+
+    @Test
+    public void testAtimePolicyRelatime() throws Exception {
+        JdbcFs fs = (JdbcFs) _fs;
+        FsInode inode = _rootInode.create("file", 0, 0, 0644);
+        Stat before = _fs.stat(inode);
+
+        fs.setAtimePolicy(AtimePolicy.RELATIME, 0, TimeUnit.MILLISECONDS);
+        long atime = Math.max(before.getMTime(), before.getCTime()) + 1000;
+        _fs.setInodeAttributes(inode, 0, atime(atime));
+
+        Stat after = _fs.stat(inode);
+        assertEquals(atime, after.getATime());
+        assertEquals(before.getGeneration(), after.getGeneration());
+        assertEquals(before.getCTime(), after.getCTime());
+
+        // atime is newer than mtime and recent: not updated again
+        _fs.setInodeAttributes(inode, 0, atime(atime + 1000));
+        assertEquals(atime, _fs.stat(inode).getATime());
+    }
+
+    @Test
+    public void testAtimePolicyCoarse() throws Exception {
+        JdbcFs fs = (JdbcFs) _fs;
+        FsInode inode = _rootInode.create("file", 0, 0, 0644);
+        Stat before = _fs.stat(inode);
+
+        fs.setAtimePolicy(AtimePolicy.COARSE, 1, TimeUnit.HOURS);
+        try {
+            _fs.setInodeAttributes(inode, 0, atime(before.getATime() + 2000));
+            _fs.setInodeAttributes(inode, 0, atime(before.getATime() + 1000));
+            assertEquals(before.getATime(), _fs.stat(inode).getATime());
+
+            fs.flushAtimes();
+            Stat after = _fs.stat(inode);
+            assertEquals(before.getATime() + 2000, after.getATime());
+            assertEquals(before.getGeneration(), after.getGeneration());
+        } finally {
+            fs.setAtimePolicy(AtimePolicy.STRICT, 0, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Test
+    public void testAtimePolicyCoarseRejectsNonPositiveInterval() throws Exception {
+        JdbcFs fs = (JdbcFs) _fs;
+        FsInode inode = _rootInode.create("file", 0, 0, 0644);
+        Stat before = _fs.stat(inode);
+
+        fs.setAtimePolicy(AtimePolicy.COARSE, 1, TimeUnit.HOURS);
+        try {
+            try {
+                fs.setAtimePolicy(AtimePolicy.COARSE, 0, TimeUnit.HOURS);
+                fail("Zero flush interval must be rejected");
+            } catch (IllegalArgumentException expected) {
+            }
+
+            /* The previous policy is still in effect.
+             */
+            _fs.setInodeAttributes(inode, 0, atime(before.getATime() + 1000));
+            assertEquals(before.getATime(), _fs.stat(inode).getATime());
+        } finally {
+            fs.setAtimePolicy(AtimePolicy.STRICT, 0, TimeUnit.MILLISECONDS);
+        }
+        assertEquals(before.getATime() + 1000, _fs.stat(inode).getATime());
+    }
+
+    private static Stat atime(long atime) {
+        Stat stat = new Stat();
+        stat.setATime(atime);
+        return stat;
+    }
+
+    @Test
+    public void testConditionalSetAttributes() throws Exception {
+        FsInode inode = _rootInode.create("file", 0, 0, 0644);
+        long generation = _fs.stat(inode).getGeneration();
+
+        Stat stat = new Stat();
+        stat.setUid(3750);
+        assertEquals(generation + 1, _fs.setInodeAttributes(inode, stat, generation));
+        Stat after = _fs.stat(inode);
+        assertEquals(3750, after.getUid());
+        assertEquals(generation + 1, after.getGeneration());
+
+        stat = new Stat();
+        stat.setGid(3750);
+        try {
+            _fs.setInodeAttributes(inode, stat, generation);
+            fail("update with stale generation must fail");
+        } catch (GenerationMismatchChimeraFsException e) {
+            // expected
+        }
+        assertEquals(0, _fs.stat(inode).getGid());
+    }
+
+    @Test(expected = FileNotFoundHimeraFsException.class)
+    public void testConditionalSetAttributesNonExisting() throws Exception {
+        FsInode inode = _rootInode.create("file", 0, 0, 0644);
+        long generation = _fs.stat(inode).getGeneration();
+        _fs.remove(_rootInode, "file", inode);
+
+        _fs.setInodeAttributes(inode, new Stat(), generation);
+    }
+
+    @Test
+    public void testNamespaceLocksSerializeSameName() throws Exception {
+        JdbcFs fs = (JdbcFs) _fs;
+        FsInode dir = _rootInode.mkdir("junit");
+
+        fs.setNamespaceLocks(64, 4);
+        try {
+            List<Throwable> failures = createConcurrently(dir, Collections.nCopies(8, "file"));
+            assertEquals(7, failures.stream().filter(e -> e instanceof FileExistsChimeraFsException).count());
+            assertEquals(1, failures.stream().filter(e -> e == null).count());
+        } finally {
+            fs.setNamespaceLocks(0, 0);
+        }
+    }
+
+    @Test
+    public void testNamespaceLocksDirectoryConcurrency() throws Exception {
+        JdbcFs fs = (JdbcFs) _fs;
+        FsInode dir = _rootInode.mkdir("junit");
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            names.add("file" + i);
+        }
+
+        fs.setNamespaceLocks(64, 1);
+        try {
+            List<Throwable> failures = createConcurrently(dir, names);
+            assertEquals(Collections.nCopies(names.size(), null), failures);
+            _fs.rename(_fs.inodeOf(dir, "file0", NO_STAT), dir, "file0", _rootInode, "file0");
+        } finally {
+            fs.setNamespaceLocks(0, 0);
+        }
+        assertEquals(names.size() - 1 + 2, dir.stat().getNlink());
+    }
+
+    @Test
+    public void testNamespaceLocksOfConvenienceOverloads() throws Exception {
+        /* Hold the only lock stripe by a create which blocks when it begins its
+         * transaction; every namespace mutation must then wait, even in another
+         * directory.
+         */
+        ThreadLocal<Runnable> onBegin = new ThreadLocal<>();
+        PlatformTransactionManager txManager = new DataSourceTransactionManager(_dataSource) {
+            @Override
+            protected void doBegin(Object transaction, TransactionDefinition definition) {
+                Runnable action = onBegin.get();
+                if (action != null) {
+                    action.run();
+                }
+                super.doBegin(transaction, definition);
+            }
+        };
+        JdbcFs fs = new JdbcFs(_dataSource, txManager);
+        fs.setNamespaceLocks(1, 8);
+
+        FsInode dir = fs.mkdir("/junit");
+        FsInode other = fs.mkdir("/other");
+        fs.createFile(other, "file");
+        fs.createFile(other, "victim");
+
+        assertWaitsForNamespaceLock(fs, onBegin, dir, () -> fs.createFile("/other/a"));
+        assertWaitsForNamespaceLock(fs, onBegin, dir, () -> fs.createFile(other, "b"));
+        assertWaitsForNamespaceLock(fs, onBegin, dir, () -> fs.createLink("/other/c", "file"));
+        assertWaitsForNamespaceLock(fs, onBegin, dir, () -> fs.createLink(other, "d", "file"));
+        assertWaitsForNamespaceLock(fs, onBegin, dir, () -> fs.mkdir("/other/e"));
+        assertWaitsForNamespaceLock(fs, onBegin, dir, () -> {
+            fs.remove("/other/victim");
+            return null;
+        });
+        assertEquals(2 + 6, other.stat().getNlink());
+    }
+
+    /**
+     * Asserts that {@code operation} waits while a create in {@code dir} holds
+     * the namespace lock.
+     */
+    private void assertWaitsForNamespaceLock(JdbcFs fs, ThreadLocal<Runnable> onBegin, FsInode dir,
+                                             Callable<?> operation) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            Future<?> blocker = executor.submit(() -> {
+                onBegin.set(() -> {
+                    entered.countDown();
+                    Uninterruptibles.awaitUninterruptibly(release);
+                });
+                return fs.createFile(dir, "blocker");
+            });
+            assertTrue(entered.await(10, TimeUnit.SECONDS));
+            Future<?> result = executor.submit(operation);
+            try {
+                result.get(200, TimeUnit.MILLISECONDS);
+                fail("Operation did not wait for the namespace lock.");
+            } catch (TimeoutException expected) {
+            }
+            release.countDown();
+            blocker.get();
+            result.get();
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+        fs.remove(dir, "blocker", fs.inodeOf(dir, "blocker", NO_STAT));
+    }
+
+    /**
+     * Creates a file for each name in {@code dir}, all from different threads at once.
+     */
+    private List<Throwable> createConcurrently(FsInode dir, List<String> names) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(names.size());
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Throwable>> results = new ArrayList<>();
+            for (String name : names) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    try {
+                        _fs.createFile(dir, name);
+                        return null;
+                    } catch (ChimeraFsException e) {
+                        return e;
+                    }
+                }));
+            }
+            start.countDown();
+            List<Throwable> failures = new ArrayList<>();
+            for (Future<Throwable> result : results) {
+                failures.add(result.get());
+            }
+            return failures;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testHandleRoundTrip() throws Exception {
+        FsInode file = _rootInode.create("file", 0, 0, 0644);
+        FsInode[] inodes = {
+            file,
+            new FsInode(_fs, file.ino(), 2),
+            new FsInode_TAG(_fs, _rootInode.ino(), "OSMTemplate"),
+            new FsInode_PSET(_fs, file.ino(), new String[] {"io", "on"}),
+            new FsInode_PATHOF(_fs, file.ino())
+        };
+        for (FsInode inode : inodes) {
+            assertEquals(inode, _fs.inodeFromBytes(_fs.inodeToBytes(inode)));
+        }
+    }
+
+    @Test
+    public void testHandleFromBufferSlice() throws Exception {
+        FsInode inode = new FsInode_TAG(_fs, _rootInode.ino(), "sGroup");
+        byte[] handle = _fs.inodeToBytes(inode);
+        ByteBuffer buffer = ByteBuffer.allocate(handle.length + 8);
+        buffer.position(4);
+        buffer.put(handle);
+        buffer.flip();
+        buffer.position(4);
+
+        assertEquals(inode, ((JdbcFs) _fs).inodeFromBytes(buffer));
+        assertEquals(4, buffer.position());
+    }
+
+    @Test
+    public void testLegacyHandle() throws Exception {
+        FsInode file = _rootInode.create("file", 0, 0, 0644);
+        assertEquals(new FsInode(_fs, file.ino(), 3),
+                _fs.inodeFromBytes(legacyHandle(FsInodeType.INODE, file.ino(), "3")));
+        assertEquals(new FsInode_TAG(_fs, _rootInode.ino(), "OSMTemplate"),
+                _fs.inodeFromBytes(legacyHandle(FsInodeType.TAG, _rootInode.ino(), "OSMTemplate")));
+        assertEquals(new FsInode_PSET(_fs, file.ino(), new String[] {"io", "on"}),
+                _fs.inodeFromBytes(legacyHandle(FsInodeType.PSET, file.ino(), "io:on:")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testHandleOfTooLongPsetArgument() throws Exception {
+        FsInode file = _rootInode.create("file", 0, 0, 0644);
+        _fs.inodeToBytes(new FsInode_PSET(_fs, file.ino(), new String[] {"io", Strings.repeat("x", 256)}));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testHandleOfTooLongTagName() throws Exception {
+        _fs.inodeToBytes(new FsInode_TAG(_fs, _rootInode.ino(), Strings.repeat("x", 256)));
+    }
+
+    @Test
+    public void testHandleCache() throws Exception {
+        JdbcFs fs = (JdbcFs) _fs;
+        FsInode file = _rootInode.create("file", 0, 0, 0644);
+        byte[] handle = _fs.inodeToBytes(file);
+
+        fs.setHandleCache(100, 1, TimeUnit.MINUTES);
+        try {
+            assertEquals(file, _fs.inodeFromBytes(handle));
+            fs.getMetrics().reset();
+            FsInode inode = _fs.inodeFromBytes(handle);
+            assertEquals(file, inode);
+            assertEquals(file.ino(), inode.statCache().getIno());
+            assertEquals(0, fs.getMetrics().getOperations().get("stat").getCount());
+        } finally {
+            fs.setHandleCache(0, 0, TimeUnit.MINUTES);
+        }
+    }
+
+    @Test
+    public void testHandleCacheInvalidatedByUpdates() throws Exception {
+        JdbcFs fs = (JdbcFs) _fs;
+        FsInode dir = _rootInode.mkdir("dir");
+        FsInode file = dir.create("file", 0, 0, 0644);
+        byte[] handle = _fs.inodeToBytes(file);
+        byte[] dirHandle = _fs.inodeToBytes(dir);
+
+        fs.setHandleCache(100, 1, TimeUnit.MINUTES);
+        try {
+            assertEquals(0644, _fs.inodeFromBytes(handle).statCache().getMode() & 0777);
+            long nlink = _fs.inodeFromBytes(dirHandle).statCache().getNlink();
+
+            Stat stat = new Stat();
+            stat.setMode(0600);
+            _fs.setInodeAttributes(file, 0, stat);
+            assertEquals(0600, _fs.inodeFromBytes(handle).statCache().getMode() & 0777);
+
+            Stat current = _fs.inodeFromBytes(handle).statCache();
+            stat.setMode(0640);
+            _fs.setInodeAttributes(file, stat, current.getGeneration());
+            assertEquals(0640, _fs.inodeFromBytes(handle).statCache().getMode() & 0777);
+
+            _fs.remove(dir, "file", file);
+            assertFalse(_fs.inodeFromBytes(handle).exists());
+            assertEquals(nlink - 1, _fs.inodeFromBytes(dirHandle).statCache().getNlink());
+
+            FsInode other = dir.create("other", 0, 0, 0644);
+            byte[] otherHandle = _fs.inodeToBytes(other);
+            assertTrue(_fs.inodeFromBytes(otherHandle).exists());
+            assertEquals(nlink, _fs.inodeFromBytes(dirHandle).statCache().getNlink());
+            _fs.remove(other);
+            assertFalse(_fs.inodeFromBytes(otherHandle).exists());
+            assertEquals(nlink - 1, _fs.inodeFromBytes(dirHandle).statCache().getNlink());
+        } finally {
+            fs.setHandleCache(0, 0, TimeUnit.MINUTES);
+        }
+    }
+
+    private byte[] legacyHandle(FsInodeType type, long ino, String opaque) {
+        byte[] bytes = opaque.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(1 + 1 + 1 + Long.BYTES + 1 + bytes.length)
+                .put((byte) _fs.getFsId())
+                .put((byte) type.getType())
+                .put((byte) Long.BYTES)
+                .putLong(ino)
+                .put((byte) bytes.length)
+                .put(bytes)
+                .array();
+    }
+
+    @Test
+    public void testMagicValueCache() throws Exception {
+        JdbcFs fs = (JdbcFs) _fs;
+        FsInode file = _rootInode.create("file", 0, 0, 0644);
+        _fs.setInodeChecksum(file, 1, "0000abcd");
+
+        fs.setMagicValueCache(100, 1, TimeUnit.MINUTES);
+        try {
+            fs.getMetrics().reset();
+            assertEquals("ADLER32:0000abcd\n\r", readMagicFile(new FsInode_PCRC(_fs, file.ino())));
+            assertEquals("ADLER32:0000abcd\n\r", readMagicFile(new FsInode_PCRC(_fs, file.ino())));
+            assertEquals(1, fs.getMetrics().getOperations().get("getInodeChecksums").getCount());
+
+            /* A cache hit needs no database round-trip.
+             */
+            fs.getMetrics().reset();
+            byte[] data = new byte[64];
+            new FsInode_PCRC(_fs, file.ino()).read(0, data, 0, data.length);
+            assertEquals(0, fs.getMetrics().getOperations().get("stat").getCount());
+
+            _fs.removeInodeChecksum(file, 1);
+            _fs.setInodeChecksum(file, 1, "0000cdef");
+            assertEquals("ADLER32:0000cdef\n\r", readMagicFile(new FsInode_PCRC(_fs, file.ino())));
+
+            FsInode dir = _rootInode.mkdir("dir");
+            assertEquals("/file\n", readMagicFile(new FsInode_PATHOF(_fs, file.ino())));
+            _fs.rename(file, _rootInode, "file", dir, "file");
+            assertEquals("/dir/file\n", readMagicFile(new FsInode_PATHOF(_fs, file.ino())));
+        } finally {
+            fs.setMagicValueCache(0, 0, TimeUnit.MINUTES);
+        }
+    }
+
+    @Test
+    public void testMagicValueCacheOfLocality() throws Exception {
+        JdbcFs fs = new JdbcFs(_dataSource, new DataSourceTransactionManager(_dataSource)) {
+            @Override
+            public String getFileLocality(FsInode_PLOC node) throws ChimeraFsException {
+                return getInodeLocations(node, StorageGenericLocation.DISK).stream()
+                        .map(StorageLocatable::location)
+                        .sorted()
+                        .collect(Collectors.joining(","));
+            }
+        };
+        FsInode file = fs.createFile("/file");
+        fs.addInodeLocation(file, StorageGenericLocation.DISK, "pool1");
+
+        fs.setMagicValueCache(100, 1, TimeUnit.MINUTES);
+        byte[] data = new byte[64];
+        int n = new FsInode_PLOC(fs, file.ino()).read(0, data, 0, data.length);
+        assertEquals("pool1\n\r", new String(data, 0, n, StandardCharsets.UTF_8));
+
+        fs.addInodeLocation(file, StorageGenericLocation.DISK, "pool2");
+        n = new FsInode_PLOC(fs, file.ino()).read(0, data, 0, data.length);
+        assertEquals("pool1,pool2\n\r", new String(data, 0, n, StandardCharsets.UTF_8));
+
+        fs.clearInodeLocation(file, StorageGenericLocation.DISK, "pool1");
+        assertEquals("pool2\n\r", readMagicFile(new FsInode_PLOC(fs, file.ino())));
+    }
+
+    @Test
+    public void testTagListingIsBuiltOnce() throws Exception {
+        JdbcFs fs = (JdbcFs) _fs;
+        FsInode dir = _rootInode.mkdir("dir");
+        _fs.createTag(dir, "OSMTemplate");
+
+        fs.getMetrics().reset();
+        assertEquals(".(tag)(OSMTemplate)\n", readMagicFile(new FsInode_TAGS(_fs, dir.ino())));
+        assertEquals(1, fs.getMetrics().getOperations().get("tags").getCount());
+    }
+
+    private static String readMagicFile(FsInode inode) throws ChimeraFsException {
+        byte[] data = new byte[(int) inode.stat().getSize()];
+        for (int pos = 0; pos < data.length; pos += 2) {
+            byte[] chunk = new byte[2];
+            int n = inode.read(pos, chunk, 0, chunk.length);
+            System.arraycopy(chunk, 0, data, pos, n);
+        }
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testTagCache() throws Exception {
+        JdbcFs fs = (JdbcFs) _fs;
+        FsInode base = _rootInode.mkdir("junit");
+        _fs.createTag(base, "sGroup");
+        byte[] value = "a".getBytes(StandardCharsets.UTF_8);
+        _fs.setTag(base, "sGroup", value, 0, value.length);
+        FsInode dir = base.mkdir("dir");
+
+        fs.setTagCache(100, 1, TimeUnit.MINUTES);
+        try {
+            FsInode_TAG tag = new FsInode_TAG(_fs, dir.ino(), "sGroup");
+            assertTrue(tag.exists());
+            assertFalse(new FsInode_TAG(_fs, dir.ino(), "OSMTemplate").exists());
+            fs.getMetrics().reset();
+            assertEquals("a", readTag(dir, "sGroup"));
+            assertEquals(1, tag.stat().getSize());
+            assertThat(_fs.getAllTags(dir), hasEntry(equalTo("sGroup"), equalTo(value)));
+            assertEquals(0, fs.getMetrics().getOperations().get("getTags").getCount());
+
+            /* Updating the value of the origin is visible in inheriting directories.
+             */
+            value = "bb".getBytes(StandardCharsets.UTF_8);
+            _fs.setTag(base, "sGroup", value, 0, value.length);
+            assertEquals("bb", readTag(dir, "sGroup"));
+
+            Stat stat = new Stat();
+            stat.setMode(0600);
+            new FsInode_TAG(_fs, base.ino(), "sGroup").setStat(stat);
+            assertEquals(0600, tag.stat().getMode() & UnixPermission.S_PERMS);
+
+            _fs.removeTag(dir, "sGroup");
+            assertFalse(tag.exists());
+            assertEquals("bb", readTag(base, "sGroup"));
+        } finally {
+            fs.setTagCache(0, 0, TimeUnit.MINUTES);
+        }
+    }
+
+    @Test
+    public void testGetAllTagsOfManyDirectories() throws Exception {
+        JdbcFs fs = (JdbcFs) _fs;
+        FsInode base = _rootInode.mkdir("junit");
+        _fs.createTag(base, "sGroup");
+        byte[] value = "a".getBytes(StandardCharsets.UTF_8);
+        _fs.setTag(base, "sGroup", value, 0, value.length);
+        FsInode dir = base.mkdir("dir");
+        FsInode file = _fs.createFile(base, "file");
+
+        fs.getMetrics().reset();
+        Map<FsInode, Map<String, byte[]>> tags = _fs.getAllTags(Lists.newArrayList(base, dir, file));
+        assertEquals(1, fs.getMetrics().getOperations().get("getTags").getCount());
+        assertEquals(3, tags.size());
+        assertThat(tags.get(base), hasEntry(equalTo("sGroup"), equalTo(value)));
+        assertThat(tags.get(dir), hasEntry(equalTo("sGroup"), equalTo(value)));
+        assertTrue(tags.get(file).isEmpty());
+    }
+
+    @Test
+    public void testEffectiveStorageInfo() throws Exception {
+        JdbcFs fs = (JdbcFs) _fs;
+        FsInode base = _rootInode.mkdir("junit");
+        assertNull(_fs.getEffectiveStorageInfo(base));
+
+        _fs.createTag(base, "OSMTemplate");
+        byte[] template = "StoreName myStore\n".getBytes(StandardCharsets.UTF_8);
+        _fs.setTag(base, "OSMTemplate", template, 0, template.length);
+        _fs.createTag(base, "sGroup");
+        byte[] group = "myGroup\n".getBytes(StandardCharsets.UTF_8);
+        _fs.setTag(base, "sGroup", group, 0, group.length);
+        FsInode dir = base.mkdir("dir");
+
+        fs.setTagCache(100, 1, TimeUnit.MINUTES);
+        try {
+            InodeStorageInformation info = _fs.getEffectiveStorageInfo(dir);
+            assertEquals("osm", info.hsmName());
+            assertEquals("myStore", info.storageGroup());
+            assertEquals("myGroup", info.storageSubGroup());
+
+            fs.getMetrics().reset();
+            assertEquals("myStore", _fs.getEffectiveStorageInfo(dir).storageGroup());
+            assertEquals(0, fs.getMetrics().getOperations().get("getTags").getCount());
+
+            group = "other".getBytes(StandardCharsets.UTF_8);
+            _fs.setTag(base, "sGroup", group, 0, group.length);
+            assertEquals("other", _fs.getEffectiveStorageInfo(dir).storageSubGroup());
+
+            template = "StoreType tape".getBytes(StandardCharsets.UTF_8);
+            _fs.setTag(base, "OSMTemplate", template, 0, template.length);
+            assertNull(_fs.getEffectiveStorageInfo(dir));
+        } finally {
+            fs.setTagCache(0, 0, TimeUnit.MINUTES);
+        }
+    }
+
+    private String readTag(FsInode dir, String name) throws ChimeraFsException {
+        byte[] data = new byte[64];
+        int n = _fs.getTag(dir, name, data, 0, data.length);
+        return new String(data, 0, n, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testAclCache() throws Exception {
+        JdbcFs fs = (JdbcFs) _fs;
+        SqlProfiler profiler = new SqlProfiler();
+        fs.setAclCache(100, 1, TimeUnit.MINUTES);
+        fs.setSqlProfiler(profiler);
+        try {
+            FsInode dir = _rootInode.mkdir("junit");
+            _fs.createFile(dir, "file1");
+            _fs.createFile(dir, "file2");
+            for (OperationProfile.StatementStatistics statement : profiler.getLastProfile().getStatementStatistics()) {
+                assertFalse(statement.getSql(), statement.getSql().contains("t_acl"));
+            }
+
+            ACE ace = new ACE(AceType.ACCESS_ALLOWED_ACE_TYPE, AceFlags.FILE_INHERIT_ACE.getValue(),
+                    AccessMask.READ_DATA.getValue(), Who.USER, 1001);
+            _fs.setACL(dir, Collections.singletonList(ace));
+            List<ACE> acl = _fs.getACL(_fs.createFile(dir, "file3"));
+            assertEquals(1, acl.size());
+            assertEquals(0, acl.get(0).getFlags());
+            assertEquals(1, _fs.getACL(dir.mkdir("subdir")).size());
+
+            _fs.setACL(dir, Collections.emptyList());
+            assertTrue(_fs.getACL(_fs.createFile(dir, "file4")).isEmpty());
+        } finally {
+            fs.setSqlProfiler(null);
+            fs.setAclCache(0, 0, TimeUnit.MINUTES);
+        }
+    }
+
+    @Test
+    public void testTransientErrors() throws Exception {
+        JdbcFs fs = (JdbcFs) _fs;
+        assertTrue(fs.isTransient(new SQLException("deadlock", "40001")));
+        assertTrue(fs.isTransient(new IOHimeraFsException("lock", new CannotAcquireLockException("lock"))));
+        assertTrue(fs.isTransient(new DeadlockLoserDataAccessException("deadlock", new SQLException("deadlock", "40P01"))));
+        assertFalse(fs.isTransient(new DuplicateKeyException("duplicate", new SQLException("duplicate", "23505"))));
+        assertFalse(fs.isTransient(new FileNotFoundHimeraFsException("file")));
+    }
+
+    @Test
+    public void testRetryAfterSerializationFailure() throws Exception {
+        FsMetrics metrics = ((JdbcFs) _fs).getMetrics();
+        metrics.reset();
+
+        AtomicInteger failures = new AtomicInteger(1);
+        withTrigger("BEFORE INSERT ON t_inodes", failing(failures),
+                    () -> _fs.createFile(_rootInode, "file"));
+
+        OperationStatistics createFile = metrics.getOperations().get("createFile");
+        assertEquals(1, createFile.getCount());
+        assertEquals(0, createFile.getFailures());
+        assertEquals(1, metrics.getCommits());
+        assertEquals(Collections.singletonMap("40001", 1L), metrics.getRetries());
+        assertNotNull(_fs.inodeOf(_rootInode, "file", NO_STAT));
+    }
+
+    @Test
+    public void testRetryLimit() throws Exception {
+        JdbcFs fs = (JdbcFs) _fs;
+        fs.getMetrics().reset();
+        fs.setTransactionRetryPolicy(2, 1, 1, TimeUnit.MILLISECONDS);
+        try {
+            AtomicInteger failures = new AtomicInteger(10);
+            withTrigger("BEFORE INSERT ON t_inodes", failing(failures), () -> {
+                try {
+                    _fs.createFile(_rootInode, "file");
+                    fail("Create must fail after exhausting retries");
+                } catch (ChimeraFsException expected) {
+                }
+                return null;
+            });
+            assertEquals(10 - 3, failures.get());
+        } finally {
+            fs.setTransactionRetryPolicy(3, 10, 200, TimeUnit.MILLISECONDS);
+        }
+        assertEquals(Collections.singletonMap("40001", 2L), fs.getMetrics().getRetries());
+        assertEquals(1, fs.getMetrics().getOperations().get("createFile").getFailures());
+        assertFalse(Arrays.asList(_fs.listDir(_rootInode)).contains("file"));
+    }
+
+    @Test
+    public void testOnlyOutermostTransactionIsRetried() throws Exception {
+        FsMetrics metrics = ((JdbcFs) _fs).getMetrics();
+        metrics.reset();
+
+        AtomicInteger executions = new AtomicInteger();
+        Compound compound = new Compound();
+        compound.add(fs -> {
+            executions.incrementAndGet();
+            return fs.createFile(_rootInode, "file1");
+        });
+        compound.add(fs -> fs.createFile(_rootInode, "file2"));
+        AtomicInteger failures = new AtomicInteger(1);
+        withTrigger("BEFORE INSERT ON t_inodes", failing(failures), () -> {
+            _fs.execute(compound);
+            return null;
+        });
+
+        /* The nested create fails and the compound is retried as a whole.
+         */
+        assertEquals(2, executions.get());
+        assertEquals(0, metrics.getOperations().get("compound").getFailures());
+        assertEquals(Collections.singletonMap("40001", 1L), metrics.getRetries());
+        assertEquals(1, metrics.getCommits());
+        assertNotNull(_fs.inodeOf(_rootInode, "file1", NO_STAT));
+        assertNotNull(_fs.inodeOf(_rootInode, "file2", NO_STAT));
+    }
+
+    @Test
+    public void testRetryOfRemoveAfterDeadlock() throws Exception {
+        FsMetrics metrics = ((JdbcFs) _fs).getMetrics();
+        FsInode file = _rootInode.create("file", 0, 0, 0644);
+        _fs.addInodeLocation(file, StorageGenericLocation.DISK, "pool1");
+        metrics.reset();
+
+        /* Fail the first attempt after it copied the locations to the trash table.
+         */
+        AtomicInteger failures = new AtomicInteger(1);
+        withTrigger("AFTER INSERT ON t_locationinfo_trash", conn -> {
+            if (failures.getAndDecrement() > 0) {
+                throw new SQLException("deadlock detected", "40P01");
+            }
+        }, () -> {
+            _fs.remove(_rootInode, "file", file);
+            return null;
+        });
+
+        assertEquals(Collections.singletonMap("40P01", 1L), metrics.getRetries());
+        assertEquals(0, metrics.getOperations().get("remove").getFailures());
+        assertFalse(new FsInode(_fs, file.ino()).exists());
+
+        List<String> trash = new ArrayList<>();
+        try (Connection conn = _dataSource.getConnection();
+             Statement s = conn.createStatement();
+             ResultSet rs = s.executeQuery("SELECT ilocation FROM t_locationinfo_trash WHERE itype=1")) {
+            while (rs.next()) {
+                trash.add(rs.getString(1));
+            }
+        }
+        assertThat(trash, contains("pool1"));
+    }
+
+    private static CallbackTrigger.Action failing(AtomicInteger failures) {
+        return conn -> {
+            if (failures.getAndDecrement() > 0) {
+                throw new SQLException("could not serialize access", "40001");
+            }
+        };
+    }
+
+    @Test
+    public void testSqlRoundTripBudget() throws Exception {
+        SqlProfiler profiler = new SqlProfiler();
+        ((JdbcFs) _fs).setSqlProfiler(profiler);
+        try {
+            FsInode dir = _rootInode.mkdir("junit");
+            FsInode inode = _fs.createFile(dir, "file");
+            OperationProfile profile = profiler.getLastProfile();
+            assertEquals("createFile", profile.getOperation());
+            profile.assertStatementsAtMost(4);
+
+            _fs.stat(inode);
+            profile = profiler.getLastProfile();
+            assertEquals("stat", profile.getOperation());
+            assertEquals(1, profile.getRows());
+            profile.assertStatementsAtMost(1);
+
+            _fs.path2inode("/junit/file");
+            profiler.getLastProfile().assertStatementsAtMost(2);
+
+            _fs.inode2path(inode);
+            profiler.getLastProfile().assertStatementsAtMost(2);
+
+            _fs.remove(dir, "file", inode);
+            profiler.getLastProfile().assertStatementsAtMost(7);
+        } finally {
+            ((JdbcFs) _fs).setSqlProfiler(null);
+        }
+    }
+
 }
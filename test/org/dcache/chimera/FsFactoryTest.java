@@ -0,0 +1,167 @@
+package org.dcache.chimera;
+
+import liquibase.Liquibase;
+import liquibase.database.Database;
+import liquibase.database.DatabaseFactory;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.resource.ClassLoaderResourceAccessor;
+import org.dcache.chimera.metrics.ConnectionPoolMetrics;
+import org.dcache.chimera.metrics.OperationStatistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+
+import java.sql.Connection;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class FsFactoryTest {
+
+    private RoutingDataSource _dataSource;
+    private ConnectionPoolMetrics _poolMetrics;
+    private JdbcFs _fs;
+    private RoutingDataSource _replica;
+    private RoutingDataSource _replicated;
+
+    @Before
+    public void setUp() throws Exception {
+        _replica = null;
+        _replicated = null;
+        PoolConfiguration poolConfiguration = new PoolConfiguration();
+        poolConfiguration.setName("test");
+        poolConfiguration.setMaximumPoolSize(2);
+        poolConfiguration.setReadPoolSize(2);
+        poolConfiguration.setScanPoolSize(1);
+
+        _poolMetrics = new ConnectionPoolMetrics();
+        _dataSource = FsFactory.getDataSource("jdbc:h2:mem:chimera-pools", "sa", "",
+                poolConfiguration, _poolMetrics);
+
+        createSchema(_dataSource);
+
+        _fs = new JdbcFs(_dataSource, new DataSourceTransactionManager(_dataSource));
+        _fs.getMetrics().setConnectionPoolMetrics(_poolMetrics);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (_replicated != null) {
+            _replicated.close();
+        }
+        shutdown(_dataSource);
+        if (_replica != null) {
+            shutdown(_replica);
+        }
+    }
+
+    private static void createSchema(RoutingDataSource dataSource) throws Exception {
+        try (Connection conn = dataSource.getConnection()) {
+            Database database = DatabaseFactory.getInstance().findCorrectDatabaseImplementation(new JdbcConnection(conn));
+            Liquibase liquibase = new Liquibase("org/dcache/chimera/changelog/changelog-master.xml",
+                    new ClassLoaderResourceAccessor(), database);
+            liquibase.update("");
+        }
+    }
+
+    private static void shutdown(RoutingDataSource dataSource) throws Exception {
+        Connection conn = dataSource.getConnection();
+        conn.createStatement().execute("SHUTDOWN;");
+        dataSource.close();
+    }
+
+    /**
+     * Creates a file system which writes to the test database and reads from
+     * a second, independent database standing in for a replica.
+     */
+    private JdbcFs createFsWithReplica(long pinWindow) throws Exception {
+        _replica = FsFactory.getDataSource("jdbc:h2:mem:chimera-replica", "sa", "",
+                new PoolConfiguration(), null);
+        createSchema(_replica);
+
+        PoolConfiguration poolConfiguration = new PoolConfiguration();
+        poolConfiguration.setName("replicated");
+        poolConfiguration.setReplicaUrl("jdbc:h2:mem:chimera-replica");
+        poolConfiguration.setPinWindow(pinWindow);
+        _replicated = FsFactory.getDataSource("jdbc:h2:mem:chimera-pools", "sa", "",
+                poolConfiguration, null);
+        return new JdbcFs(_replicated, new DataSourceTransactionManager(_replicated));
+    }
+
+    @Test(expected = FileNotFoundHimeraFsException.class)
+    public void testReadsGoToReplica() throws Exception {
+        JdbcFs fs = createFsWithReplica(0);
+        FsInode root = fs.path2inode("/");
+        fs.mkdir(root, "dir");
+        assertNotNull(_fs.inodeOf(root, "dir", FileSystemProvider.StatCacheOption.STAT));
+
+        fs.inodeOf(root, "dir", FileSystemProvider.StatCacheOption.STAT);
+    }
+
+    @Test
+    public void testReadsAfterWritePinnedToPrimary() throws Exception {
+        JdbcFs fs = createFsWithReplica(TimeUnit.MINUTES.toMillis(1));
+        FsInode root = fs.path2inode("/");
+        fs.mkdir(root, "dir");
+
+        assertNotNull(fs.inodeOf(root, "dir", FileSystemProvider.StatCacheOption.STAT));
+        assertTrue(Arrays.asList(fs.listDir(root)).contains("dir"));
+    }
+
+    @Test(expected = FileNotFoundHimeraFsException.class)
+    public void testPinExpires() throws Exception {
+        JdbcFs fs = createFsWithReplica(1);
+        FsInode root = fs.path2inode("/");
+        fs.mkdir(root, "dir");
+        Thread.sleep(10);
+
+        fs.inodeOf(root, "dir", FileSystemProvider.StatCacheOption.STAT);
+    }
+
+    @Test(expected = FileNotFoundHimeraFsException.class)
+    public void testPinIsPerDataSource() throws Exception {
+        JdbcFs fs = createFsWithReplica(TimeUnit.MINUTES.toMillis(1));
+        FsInode root = fs.path2inode("/");
+
+        /* A commit through another data source does not pin this thread.
+         */
+        _fs.mkdir(_fs.path2inode("/"), "dir");
+
+        fs.inodeOf(root, "dir", FileSystemProvider.StatCacheOption.STAT);
+    }
+
+    @Test
+    public void testWorkloadsUseSeparatePools() throws Exception {
+        FsInode root = _fs.path2inode("/");
+        _poolMetrics.reset();
+
+        FsInode dir = _fs.mkdir(root, "dir");
+        assertEquals(1, waits().get("test-write").getCount());
+        assertEquals(0, waits().get("test-read").getCount());
+
+        _fs.stat(dir);
+        _fs.inodeOf(root, "dir", FileSystemProvider.StatCacheOption.STAT);
+        assertEquals(2, waits().get("test-read").getCount());
+
+        try (DirectoryStreamB<HimeraDirectoryEntry> stream = _fs.newDirectoryStream(dir)) {
+            stream.iterator().hasNext();
+        }
+        assertEquals(1, waits().get("test-scan").getCount());
+        assertEquals(1, waits().get("test-write").getCount());
+    }
+
+    @Test
+    public void testLookupInTransactionUsesWritePool() throws Exception {
+        _poolMetrics.reset();
+        _fs.createFile("/file");
+        assertEquals(1, waits().get("test-write").getCount());
+        assertEquals(0, waits().get("test-read").getCount());
+    }
+
+    private Map<String, OperationStatistics> waits() {
+        return _fs.getMetrics().getConnectionWaits();
+    }
+}
@@ -0,0 +1,106 @@
+package org.dcache.chimera;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.dcache.acl.ACE;
+import org.dcache.acl.enums.AccessMask;
+import org.dcache.acl.enums.AceFlags;
+import org.dcache.acl.enums.AceType;
+import org.dcache.acl.enums.Who;
+import org.dcache.chimera.posix.UnixUser;
+
+import static org.junit.Assert.*;
+
+public class PermissionEvaluatorTest extends ChimeraTestCaseHelper {
+
+    private static final int READ = AccessMask.READ_DATA.getValue();
+    private static final int WRITE = AccessMask.WRITE_DATA.getValue();
+
+    private static final UnixUser OWNER = new UnixUser(1000, 100);
+    private static final UnixUser MEMBER = new UnixUser(1001, 200, new int[] {100});
+    private static final UnixUser OTHER = new UnixUser(1002, 200);
+
+    @Test
+    public void testMode() throws Exception {
+        PermissionEvaluator evaluator = new PermissionEvaluator(_fs);
+        FsInode file = _fs.createFile(_rootInode, "file", 1000, 100, 0640);
+
+        assertTrue(evaluator.canAccess(OWNER, file, READ | WRITE));
+        assertTrue(evaluator.canAccess(MEMBER, file, READ));
+        assertFalse(evaluator.canAccess(MEMBER, file, READ | WRITE));
+        assertFalse(evaluator.canAccess(OTHER, file, READ));
+        assertTrue(evaluator.canAccess(OTHER, file, EnumSet.of(AccessMask.READ_ATTRIBUTES)));
+        assertTrue(evaluator.canAccess(new UnixUser(0, 0), file, READ | WRITE));
+    }
+
+    @Test
+    public void testAcl() throws Exception {
+        PermissionEvaluator evaluator = new PermissionEvaluator(_fs);
+        FsInode file = _fs.createFile(_rootInode, "file", 1000, 100, 0640);
+        _fs.setACL(file, Arrays.asList(
+                new ACE(AceType.ACCESS_DENIED_ACE_TYPE, 0, READ, Who.USER, 1001),
+                new ACE(AceType.ACCESS_ALLOWED_ACE_TYPE, 0, READ | WRITE, Who.EVERYONE, -1),
+                new ACE(AceType.ACCESS_DENIED_ACE_TYPE, AceFlags.INHERIT_ONLY_ACE.getValue(), READ, Who.USER, 1002)));
+
+        assertFalse(evaluator.canAccess(MEMBER, file, READ));
+        assertTrue(evaluator.canAccess(MEMBER, file, WRITE));
+        assertTrue(evaluator.canAccess(OTHER, file, READ | WRITE));
+
+        /* Bits not covered by the ACL fall back to the mode.
+         */
+        assertFalse(evaluator.canAccess(OTHER, file, READ | AccessMask.EXECUTE.getValue()));
+
+        _fs.setACL(file, Collections.emptyList());
+        assertFalse(evaluator.canAccess(OTHER, file, READ));
+    }
+
+    @Test
+    public void testBatchedCheck() throws Exception {
+        JdbcFs fs = (JdbcFs) _fs;
+        PermissionEvaluator evaluator = new PermissionEvaluator(_fs);
+        FsInode dir = _rootInode.mkdir("dir");
+        List<FsInode> inodes = Arrays.asList(
+                _fs.createFile(dir, "a", 1000, 100, 0600),
+                _fs.createFile(dir, "b", 1000, 100, 0644),
+                _fs.createFile(dir, "c", 1000, 100, 0600));
+        _fs.setACL(inodes.get(2), Collections.singletonList(
+                new ACE(AceType.ACCESS_ALLOWED_ACE_TYPE, 0, READ, Who.GROUP, 200)));
+        for (FsInode inode : inodes) {
+            inode.stat();
+        }
+
+        boolean[] allowed = new boolean[inodes.size()];
+        fs.getMetrics().reset();
+        evaluator.canAccess(OTHER, inodes, READ, allowed);
+        assertArrayEquals(new boolean[] {false, true, true}, allowed);
+        assertEquals(1, fs.getMetrics().getOperations().get("getACL").getCount());
+
+        evaluator.canAccess(OWNER, inodes, READ | WRITE, allowed);
+        assertArrayEquals(new boolean[] {true, true, true}, allowed);
+        assertEquals(1, fs.getMetrics().getOperations().get("getACL").getCount());
+    }
+
+    @Test
+    public void testBatchedCheckLoadsMissingStats() throws Exception {
+        JdbcFs fs = (JdbcFs) _fs;
+        PermissionEvaluator evaluator = new PermissionEvaluator(_fs);
+        FsInode dir = _rootInode.mkdir("dir");
+        _fs.createFile(dir, "a", 1000, 100, 0600);
+        _fs.createFile(dir, "b", 1000, 100, 0644);
+        List<FsInode> inodes = Arrays.asList(
+                _fs.inodeOf(dir, "a", FileSystemProvider.StatCacheOption.NO_STAT),
+                _fs.inodeOf(dir, "b", FileSystemProvider.StatCacheOption.NO_STAT));
+
+        boolean[] allowed = new boolean[inodes.size()];
+        fs.getMetrics().reset();
+        evaluator.canAccess(OTHER, inodes, READ, allowed);
+        assertArrayEquals(new boolean[] {false, true}, allowed);
+        assertEquals(1, fs.getMetrics().getOperations().get("stat").getCount());
+        assertEquals(1, fs.getMetrics().getOperations().get("getACL").getCount());
+    }
+}
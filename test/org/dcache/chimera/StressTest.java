@@ -1,13 +1,350 @@
 package org.dcache.chimera;
 
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import liquibase.Liquibase;
+import liquibase.database.Database;
+import liquibase.database.DatabaseFactory;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.resource.ClassLoaderResourceAccessor;
+import org.junit.Test;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+
+import java.io.FileReader;
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.dcache.chimera.FileSystemProvider.StatCacheOption.NO_STAT;
+import static org.dcache.chimera.FileSystemProvider.StatCacheOption.STAT;
 import static org.junit.Assert.*;
 
-import org.junit.Test;
+/**
+ * mdtest like metadata load generator. A number of threads run create, stat,
+ * readdir and unlink phases on a directory tree of configurable depth and
+ * fan-out, either all in one shared tree or each in its own tree. For every
+ * phase the throughput and latency percentiles are reported.
+ *
+ * The JUnit test only runs a small smoke configuration against the test database.
+ * For capacity planning run {@link #main} with the following system properties:
+ *
+ * <pre>
+ *   chimera.db.url, chimera.db.user, chimera.db.password  database (default: chimera-test.properties)
+ *   stress.pool      connection pool size (10)
+ *   stress.threads   number of worker threads (8)
+ *   stress.files     files per thread (1000)
+ *   stress.depth     depth of directory tree (2)
+ *   stress.fanout    sub-directories per directory (4)
+ *   stress.shared    all threads work in one tree (false)
+ *   stress.phases    comma separated list of phases (create,stat,readdir,unlink)
+ * </pre>
+ */
+public class StressTest extends ChimeraTestCaseHelper {
+
+    enum Phase {
+        CREATE,
+        STAT,
+        READDIR,
+        UNLINK
+    }
+
+    static class Config {
+        int threads = 8;
+        int filesPerThread = 1000;
+        int depth = 2;
+        int fanout = 4;
+        boolean shared;
+        List<Phase> phases = Arrays.asList(Phase.values());
+
+        static Config fromSystemProperties() {
+            Config config = new Config();
+            config.threads = Integer.getInteger("stress.threads", config.threads);
+            config.filesPerThread = Integer.getInteger("stress.files", config.filesPerThread);
+            config.depth = Integer.getInteger("stress.depth", config.depth);
+            config.fanout = Integer.getInteger("stress.fanout", config.fanout);
+            config.shared = Boolean.getBoolean("stress.shared");
+            String phases = System.getProperty("stress.phases");
+            if (phases != null) {
+                config.phases = new ArrayList<>();
+                for (String phase : phases.split(",")) {
+                    config.phases.add(Phase.valueOf(phase.trim().toUpperCase()));
+                }
+            }
+            return config;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("threads=%d files/thread=%d depth=%d fanout=%d %s",
+                    threads, filesPerThread, depth, fanout, shared ? "shared" : "unique");
+        }
+    }
+
+    static class PhaseResult {
+        final Phase phase;
+        final long ops;
+        final long errors;
+        final long elapsedNanos;
+        private final long[] _latencies;
+
+        PhaseResult(Phase phase, long[] latencies, long errors, long elapsedNanos) {
+            this.phase = phase;
+            this.ops = latencies.length;
+            this.errors = errors;
+            this.elapsedNanos = elapsedNanos;
+            _latencies = latencies;
+            Arrays.sort(_latencies);
+        }
+
+        double throughput() {
+            return elapsedNanos == 0 ? 0 : ops * 1e9 / elapsedNanos;
+        }
 
-public class StressTest {
+        /**
+         * @param p percentile in range [0, 1]
+         * @return latency in nanoseconds
+         */
+        long percentile(double p) {
+            if (_latencies.length == 0) {
+                return 0;
+            }
+            int idx = (int) Math.ceil(p * _latencies.length) - 1;
+            return _latencies[Math.max(0, Math.min(idx, _latencies.length - 1))];
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-8s %10d ops %6d err %12.1f ops/s  p50 %8.3f ms  p99 %8.3f ms  p999 %8.3f ms",
+                    phase, ops, errors, throughput(),
+                    percentile(0.5) / 1e6, percentile(0.99) / 1e6, percentile(0.999) / 1e6);
+        }
+    }
+
+    @Test
+    public void testUniqueDirectories() throws Exception {
+        Config config = smokeConfig();
+        config.shared = false;
+        assertRunCompletes(config);
+    }
 
     @Test
-    public void emptyTest() {
-        // to make junit happy
+    public void testSharedDirectory() throws Exception {
+        Config config = smokeConfig();
+        config.shared = true;
+        assertRunCompletes(config);
+    }
+
+    private static Config smokeConfig() {
+        Config config = new Config();
+        config.threads = 2;
+        config.filesPerThread = 20;
+        config.depth = 2;
+        config.fanout = 2;
+        return config;
+    }
+
+    private void assertRunCompletes(Config config) throws Exception {
+        Map<Phase, PhaseResult> results = run(_fs, config);
+
+        int files = config.threads * config.filesPerThread;
+        assertEquals(files, results.get(Phase.CREATE).ops);
+        assertEquals(files, results.get(Phase.STAT).ops);
+        assertEquals(files, results.get(Phase.UNLINK).ops);
+        for (PhaseResult result : results.values()) {
+            assertEquals("Errors in phase " + result.phase, 0, result.errors);
+        }
+    }
+
+    /**
+     * Runs all configured phases and returns results in phase order.
+     */
+    static Map<Phase, PhaseResult> run(FileSystemProvider fs, Config config) throws Exception {
+        FsInode base = fs.mkdir(fs.path2inode("/"), "stress-" + System.nanoTime());
+
+        /* Leaf directories of each thread. In shared mode all threads use the same tree.
+         */
+        List<List<FsInode>> leaves = new ArrayList<>();
+        if (config.shared) {
+            List<FsInode> tree = buildTree(fs, base, config.depth, config.fanout);
+            for (int i = 0; i < config.threads; i++) {
+                leaves.add(tree);
+            }
+        } else {
+            for (int i = 0; i < config.threads; i++) {
+                leaves.add(buildTree(fs, fs.mkdir(base, "t" + i), config.depth, config.fanout));
+            }
+        }
+
+        Map<Phase, PhaseResult> results = new EnumMap<>(Phase.class);
+        ExecutorService executor = Executors.newFixedThreadPool(config.threads);
+        try {
+            for (Phase phase : config.phases) {
+                results.put(phase, runPhase(fs, config, phase, leaves, executor));
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        return results;
+    }
+
+    private static List<FsInode> buildTree(FileSystemProvider fs, FsInode root, int depth, int fanout)
+            throws ChimeraFsException {
+        List<FsInode> level = new ArrayList<>();
+        level.add(root);
+        for (int d = 0; d < depth; d++) {
+            List<FsInode> next = new ArrayList<>(level.size() * fanout);
+            for (FsInode dir : level) {
+                for (int i = 0; i < fanout; i++) {
+                    next.add(fs.mkdir(dir, "d" + i));
+                }
+            }
+            level = next;
+        }
+        return level;
+    }
+
+    private static PhaseResult runPhase(FileSystemProvider fs, Config config, Phase phase,
+            List<List<FsInode>> leaves, ExecutorService executor) throws Exception {
+
+        CyclicBarrier start = new CyclicBarrier(config.threads + 1);
+        List<Future<long[]>> workers = new ArrayList<>();
+        long[] errors = new long[config.threads];
+        for (int t = 0; t < config.threads; t++) {
+            final int thread = t;
+            workers.add(executor.submit(() -> {
+                List<FsInode> dirs = leaves.get(thread);
+                int ops = (phase == Phase.READDIR) ? readdirCount(config, dirs.size(), thread) : config.filesPerThread;
+                long[] latencies = new long[ops];
+                int n = 0;
+                await(start);
+                for (int i = 0; i < ops; i++) {
+                    long begin = System.nanoTime();
+                    try {
+                        runOp(fs, config, phase, dirs, thread, i);
+                        latencies[n++] = System.nanoTime() - begin;
+                    } catch (ChimeraFsException e) {
+                        errors[thread]++;
+                    }
+                }
+                return Arrays.copyOf(latencies, n);
+            }));
+        }
+
+        await(start);
+        long begin = System.nanoTime();
+        List<long[]> samples = new ArrayList<>();
+        for (Future<long[]> worker : workers) {
+            samples.add(worker.get());
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        long[] all = new long[samples.stream().mapToInt(s -> s.length).sum()];
+        int pos = 0;
+        for (long[] s : samples) {
+            System.arraycopy(s, 0, all, pos, s.length);
+            pos += s.length;
+        }
+        return new PhaseResult(phase, all, Arrays.stream(errors).sum(), elapsed);
+    }
+
+    /**
+     * In shared mode threads split the leaf directories between them, otherwise
+     * every thread lists all of its own leaves.
+     */
+    private static int readdirCount(Config config, int leaves, int thread) {
+        if (!config.shared) {
+            return leaves;
+        }
+        return Math.max(0, (leaves - thread + config.threads - 1) / config.threads);
+    }
+
+    private static void runOp(FileSystemProvider fs, Config config, Phase phase,
+            List<FsInode> dirs, int thread, int i) throws ChimeraFsException {
+        switch (phase) {
+        case CREATE:
+            fs.createFile(dirs.get(i % dirs.size()), fileName(thread, i));
+            break;
+        case STAT:
+            if (fs.inodeOf(dirs.get(i % dirs.size()), fileName(thread, i), STAT) == null) {
+                throw new FileNotFoundHimeraFsException(fileName(thread, i));
+            }
+            break;
+        case READDIR:
+            FsInode dir = config.shared ? dirs.get(thread + i * config.threads) : dirs.get(i);
+            try (DirectoryStreamB<HimeraDirectoryEntry> stream = fs.newDirectoryStream(dir)) {
+                for (HimeraDirectoryEntry entry : stream) {
+                    entry.getStat();
+                }
+            } catch (java.io.IOException e) {
+                throw new IOHimeraFsException(e.getMessage());
+            }
+            break;
+        case UNLINK:
+            FsInode parent = dirs.get(i % dirs.size());
+            String name = fileName(thread, i);
+            FsInode inode = fs.inodeOf(parent, name, NO_STAT);
+            if (inode == null) {
+                throw new FileNotFoundHimeraFsException(name);
+            }
+            fs.remove(parent, name, inode);
+            break;
+        default:
+            throw new AssertionError("Unexpected phase: " + phase);
+        }
+    }
+
+    private static String fileName(int thread, int i) {
+        return "f." + thread + "." + i;
+    }
+
+    private static void await(CyclicBarrier barrier) throws InterruptedException {
+        try {
+            barrier.await();
+        } catch (BrokenBarrierException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static void report(PrintStream out, Config config, Map<Phase, PhaseResult> results) {
+        out.println(config);
+        for (PhaseResult result : results.values()) {
+            out.println(result);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Properties dbProperties = new Properties();
+        dbProperties.load(new FileReader("chimera-test.properties"));
+
+        HikariConfig hikari = new HikariConfig();
+        hikari.setJdbcUrl(System.getProperty("chimera.db.url", dbProperties.getProperty("chimera.db.url")));
+        hikari.setUsername(System.getProperty("chimera.db.user", dbProperties.getProperty("chimera.db.user")));
+        hikari.setPassword(System.getProperty("chimera.db.password", dbProperties.getProperty("chimera.db.password")));
+        hikari.setMaximumPoolSize(Integer.getInteger("stress.pool", 10));
+
+        try (HikariDataSource dataSource = new HikariDataSource(hikari)) {
+            try (Connection conn = dataSource.getConnection()) {
+                Database database = DatabaseFactory.getInstance().findCorrectDatabaseImplementation(new JdbcConnection(conn));
+                Liquibase liquibase = new Liquibase("org/dcache/chimera/changelog/changelog-master.xml",
+                        new ClassLoaderResourceAccessor(), database);
+                liquibase.update("");
+            }
+
+            Config config = Config.fromSystemProperties();
+            FileSystemProvider fs = new JdbcFs(dataSource, new DataSourceTransactionManager(dataSource));
+            report(System.out, config, run(fs, config));
+        }
     }
 }
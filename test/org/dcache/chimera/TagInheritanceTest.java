@@ -0,0 +1,287 @@
+package org.dcache.chimera;
+
+import liquibase.Liquibase;
+import liquibase.database.Database;
+import liquibase.database.DatabaseFactory;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.resource.ClassLoaderResourceAccessor;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.dcache.chimera.metrics.SqlProfiler;
+import org.dcache.chimera.posix.Stat;
+
+import static org.junit.Assert.*;
+
+public class TagInheritanceTest extends ChimeraTestCaseHelper {
+
+    @Test
+    public void testMkdirDoesNotCopyTags() throws Exception {
+        ((JdbcFs) _fs).setTagInheritance(TagInheritance.LAZY);
+        FsInode base = _rootInode.mkdir("base");
+        setTag(base, "sGroup", "a");
+
+        int rows = countTagRows();
+        FsInode dir = base.mkdir("dir").mkdir("subdir");
+
+        assertEquals(rows, countTagRows());
+        assertEquals("a", getTag(dir, "sGroup"));
+        assertArrayEquals(new String[] {"sGroup"}, _fs.tags(dir));
+        assertTrue(new FsInode_TAG(_fs, dir.ino(), "sGroup").exists());
+        assertEquals(dir.ino(), _fs.statTag(dir, "sGroup").getIno());
+    }
+
+    @Test
+    public void testLazyInheritanceWithCache() throws Exception {
+        ((JdbcFs) _fs).setTagCache(100, 1, TimeUnit.MINUTES);
+        testTagChanges();
+    }
+
+    @Test
+    public void testLazyInheritanceWithoutCache() throws Exception {
+        testTagChanges();
+    }
+
+    private void testTagChanges() throws Exception {
+        ((JdbcFs) _fs).setTagInheritance(TagInheritance.LAZY);
+        FsInode base = _rootInode.mkdir("base");
+        setTag(base, "sGroup", "a");
+        FsInode dir = base.mkdir("dir");
+        FsInode subdir = dir.mkdir("subdir");
+        assertEquals("a", getTag(subdir, "sGroup"));
+
+        /* Updates of the origin are visible in all inheriting directories.
+         */
+        setTag(base, "sGroup", "b");
+        assertEquals("b", getTag(subdir, "sGroup"));
+
+        /* Setting an inherited tag creates a copy.
+         */
+        setTag(dir, "sGroup", "c");
+        assertEquals("b", getTag(base, "sGroup"));
+        assertEquals("c", getTag(dir, "sGroup"));
+        assertEquals("c", getTag(subdir, "sGroup"));
+
+        /* Changing the mode of an inherited tag changes the tag inode.
+         */
+        Stat stat = new Stat();
+        stat.setMode(0600);
+        new FsInode_TAG(_fs, subdir.ino(), "sGroup").setStat(stat);
+        assertEquals(0600, _fs.statTag(dir, "sGroup").getMode() & UnixPermission.S_PERMS);
+        assertEquals(0644, _fs.statTag(base, "sGroup").getMode() & UnixPermission.S_PERMS);
+
+        _fs.createTag(base, "OSMTemplate");
+        assertTrue(Arrays.asList(_fs.tags(subdir)).contains("OSMTemplate"));
+        try {
+            _fs.createTag(subdir, "OSMTemplate");
+            fail("Creating an inherited tag must fail");
+        } catch (FileExistsChimeraFsException expected) {
+        }
+
+        /* A moved directory keeps its inherited tags, and it and the
+         * directories below it inherit the tags of the new parent.
+         */
+        FsInode other = _rootInode.mkdir("other");
+        setTag(other, "hsm", "d");
+        assertFalse(Arrays.asList(_fs.tags(subdir)).contains("hsm"));
+        _fs.rename(dir, base, "dir", other, "dir");
+        assertEquals("c", getTag(subdir, "sGroup"));
+        assertTrue(Arrays.asList(_fs.tags(subdir)).contains("OSMTemplate"));
+        assertEquals("d", getTag(subdir, "hsm"));
+    }
+
+    @Test
+    public void testLazyInheritanceOfDeepDirectory() throws Exception {
+        ((JdbcFs) _fs).setTagInheritance(TagInheritance.LAZY);
+        FsInode base = _rootInode.mkdir("base");
+        setTag(base, "sGroup", "a");
+        FsInode dir = base;
+        for (int i = 0; i < 8; i++) {
+            dir = dir.mkdir("dir" + i);
+        }
+
+        /* Without the tag cache, the ancestors and their tags are read with
+         * one query each, however deep the directory.
+         */
+        SqlProfiler profiler = new SqlProfiler();
+        ((JdbcFs) _fs).setSqlProfiler(profiler);
+        try {
+            assertArrayEquals(new String[] {"sGroup"}, _fs.tags(dir));
+            profiler.getLastProfile().assertStatementsAtMost(2);
+        } finally {
+            ((JdbcFs) _fs).setSqlProfiler(null);
+        }
+        assertEquals("a", getTag(dir, "sGroup"));
+    }
+
+    @Test
+    public void testLazyInheritanceOfManyDirectories() throws Exception {
+        ((JdbcFs) _fs).setTagInheritance(TagInheritance.LAZY);
+        FsInode base = _rootInode.mkdir("base");
+        setTag(base, "sGroup", "a");
+        List<FsInode> dirs = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            FsInode dir = base.mkdir("dir" + i);
+            setTag(dir, "OSMTemplate", "t" + i);
+            dirs.add(dir.mkdir("subdir"));
+        }
+
+        /* The tags of all directories and their ancestors are read in one batch.
+         */
+        SqlProfiler profiler = new SqlProfiler();
+        ((JdbcFs) _fs).setSqlProfiler(profiler);
+        ((JdbcFs) _fs).getMetrics().reset();
+        Map<FsInode, Map<String, byte[]>> tags;
+        try {
+            tags = _fs.getAllTags(dirs);
+            assertEquals(1, ((JdbcFs) _fs).getMetrics().getOperations().get("getTags").getCount());
+            profiler.getLastProfile().assertStatementsAtMost(2);
+        } finally {
+            ((JdbcFs) _fs).setSqlProfiler(null);
+        }
+        for (int i = 0; i < dirs.size(); i++) {
+            Map<String, byte[]> dirTags = tags.get(dirs.get(i));
+            assertEquals("a", new String(dirTags.get("sGroup"), StandardCharsets.UTF_8));
+            assertEquals("t" + i, new String(dirTags.get("OSMTemplate"), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testCollapseInheritedTags() throws Exception {
+        FsInode base = _rootInode.mkdir("base");
+        setTag(base, "sGroup", "a");
+        setTag(base, "OSMTemplate", "b");
+        FsInode dir = base.mkdir("dir");
+        FsInode subdir = dir.mkdir("subdir");
+        setTag(dir, "sGroup", "c");
+        FsInode subsubdir = subdir.mkdir("subsubdir");
+
+        FsInode[] dirs = {base, dir, subdir, subsubdir};
+        String[] values = new String[dirs.length];
+        for (int i = 0; i < dirs.length; i++) {
+            values[i] = getTag(dirs[i], "sGroup") + getTag(dirs[i], "OSMTemplate");
+        }
+        assertEquals("ab", values[3]);
+
+        int rows = countTagRows();
+        try (Connection conn = _dataSource.getConnection()) {
+            Database database = DatabaseFactory.getInstance().findCorrectDatabaseImplementation(new JdbcConnection(conn));
+            new Liquibase("org/dcache/chimera/changelog/changelog-lazy-tags.xml",
+                    new ClassLoaderResourceAccessor(), database).update("");
+        }
+        ((JdbcFs) _fs).setTagInheritance(TagInheritance.LAZY);
+
+        assertEquals(rows - 4, countTagRows());
+        for (int i = 0; i < dirs.length; i++) {
+            assertEquals(values[i], getTag(dirs[i], "sGroup") + getTag(dirs[i], "OSMTemplate"));
+        }
+        assertEquals(new HashSet<>(Arrays.asList("sGroup", "OSMTemplate")),
+                new HashSet<>(Arrays.asList(_fs.tags(subsubdir))));
+    }
+
+    @Test
+    public void testSetTagRecursive() throws Exception {
+        FsInode vo = _rootInode.mkdir("vo");
+        setTag(vo, "sGroup", "a");
+        FsInode top = vo.mkdir("top");
+        FsInode dir = top.mkdir("dir");
+        FsInode subdir = dir.mkdir("subdir");
+        FsInode owner = top.mkdir("owner");
+        setTag(owner, "sGroup", "o");
+        FsInode owned = owner.mkdir("owned");
+        _fs.createFile(top, "file");
+
+        /* Leaves the subtree linked to a tag inode which only it references.
+         */
+        setTag(top, "sGroup", "b");
+        _fs.removeTag(vo, "sGroup");
+        assertEquals("a", getTag(subdir, "sGroup"));
+        int inodes = count("t_tags_inodes");
+
+        /* The top directory and each level below it are committed on their own.
+         */
+        ((JdbcFs) _fs).getMetrics().reset();
+        _fs.setTagRecursive(top, "sGroup", "c".getBytes(StandardCharsets.UTF_8));
+        assertEquals(3, ((JdbcFs) _fs).getMetrics().getCommits());
+        assertEquals("c", getTag(top, "sGroup"));
+        assertEquals("c", getTag(dir, "sGroup"));
+        assertEquals("c", getTag(subdir, "sGroup"));
+        assertEquals("o", getTag(owner, "sGroup"));
+        assertEquals("o", getTag(owned, "sGroup"));
+        assertEquals(inodes - 1, count("t_tags_inodes"));
+    }
+
+    @Test
+    public void testSetTagRecursiveWithLazyInheritance() throws Exception {
+        FsInode vo = _rootInode.mkdir("vo");
+        setTag(vo, "sGroup", "a");
+        FsInode top = vo.mkdir("top");
+        FsInode dir = top.mkdir("dir");
+        FsInode owner = top.mkdir("owner");
+        setTag(owner, "sGroup", "o");
+        FsInode owned = owner.mkdir("owned");
+
+        /* Leaves top and late linked to different tag inodes than their
+         * parents, so that these links are kept when collapsing inherited tags.
+         */
+        _fs.removeTag(vo, "sGroup");
+        setTag(vo, "sGroup", "v");
+        FsInode late = vo.mkdir("late");
+        _fs.rename(late, vo, "late", top, "late");
+        FsInode other = vo.mkdir("other");
+        try (Connection conn = _dataSource.getConnection()) {
+            Database database = DatabaseFactory.getInstance().findCorrectDatabaseImplementation(new JdbcConnection(conn));
+            new Liquibase("org/dcache/chimera/changelog/changelog-lazy-tags.xml",
+                    new ClassLoaderResourceAccessor(), database).update("");
+        }
+        ((JdbcFs) _fs).setTagInheritance(TagInheritance.LAZY);
+        assertEquals("a", getTag(dir, "sGroup"));
+        assertEquals("v", getTag(late, "sGroup"));
+
+        _fs.setTagRecursive(top, "sGroup", "c".getBytes(StandardCharsets.UTF_8));
+        assertEquals("c", getTag(top, "sGroup"));
+        assertEquals("c", getTag(dir, "sGroup"));
+        assertEquals("c", getTag(late, "sGroup"));
+        assertEquals("o", getTag(owner, "sGroup"));
+        assertEquals("o", getTag(owned, "sGroup"));
+        assertEquals("v", getTag(vo, "sGroup"));
+        assertEquals("v", getTag(other, "sGroup"));
+    }
+
+    private void setTag(FsInode dir, String name, String value) throws ChimeraFsException {
+        if (!new FsInode_TAG(_fs, dir.ino(), name).exists()) {
+            _fs.createTag(dir, name);
+        }
+        byte[] data = value.getBytes(StandardCharsets.UTF_8);
+        _fs.setTag(dir, name, data, 0, data.length);
+    }
+
+    private String getTag(FsInode dir, String name) throws ChimeraFsException {
+        byte[] data = new byte[64];
+        int n = _fs.getTag(dir, name, data, 0, data.length);
+        return new String(data, 0, n, StandardCharsets.UTF_8);
+    }
+
+    private int countTagRows() throws Exception {
+        return count("t_tags");
+    }
+
+    private int count(String table) throws Exception {
+        try (Connection conn = _dataSource.getConnection();
+             Statement statement = conn.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT count(*) FROM " + table)) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.dcache.chimera.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(0.99));
+        assertEquals(0.0, histogram.getMean(), 0.0);
+    }
+
+    @Test
+    public void testBucketsAreContiguous() {
+        int last = LatencyHistogram.indexOf(Long.MAX_VALUE);
+        for (int i = 0; i < last; i++) {
+            long upper = LatencyHistogram.upperBoundOf(i);
+            assertEquals(i, LatencyHistogram.indexOf(upper));
+            assertEquals(i + 1, LatencyHistogram.indexOf(upper + 1));
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1_000_000, histogram.getMax());
+        assertEquals(500_500.0, histogram.getMean(), 0.0);
+
+        assertWithinRelativeError(500_000, histogram.getPercentile(0.5));
+        assertWithinRelativeError(990_000, histogram.getPercentile(0.99));
+        assertEquals(1_000_000, histogram.getPercentile(1.0));
+    }
+
+    @Test
+    public void testReset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(42);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+    }
+
+    private static void assertWithinRelativeError(long expected, long actual) {
+        assertTrue("expected " + expected + " but was " + actual,
+                actual >= expected && actual <= expected * 1.125);
+    }
+}